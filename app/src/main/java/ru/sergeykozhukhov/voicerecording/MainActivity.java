@@ -1,6 +1,7 @@
 package ru.sergeykozhukhov.voicerecording;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
@@ -13,27 +14,50 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.IBinder;
-import android.os.Message;
-import android.os.Messenger;
 import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.ImageButton;
+import android.widget.ProgressBar;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import ru.sergeykozhukhov.voicerecording.adapter.OnItemAudioFileClickListener;
 import ru.sergeykozhukhov.voicerecording.adapter.AudioFilesAdapter;
+import ru.sergeykozhukhov.voicerecording.audio_tools.RecordingDataCache;
+import ru.sergeykozhukhov.voicerecording.audio_tools.WaveformCache;
+import ru.sergeykozhukhov.voicerecording.audio_tools.WaveformLoader;
+import ru.sergeykozhukhov.voicerecording.file_tools.AudioFileEntry;
+import ru.sergeykozhukhov.voicerecording.file_tools.BulkDeleteReport;
+import ru.sergeykozhukhov.voicerecording.file_tools.FilesDelta;
+import ru.sergeykozhukhov.voicerecording.file_tools.OnBulkDeleteListener;
+import ru.sergeykozhukhov.voicerecording.file_tools.OnDirectoryChangedListener;
 import ru.sergeykozhukhov.voicerecording.services.FileManagerService;
+import ru.sergeykozhukhov.voicerecording.services.IPlayerCallbackAIDL;
+import ru.sergeykozhukhov.voicerecording.services.IPlayerServiceAIDL;
+import ru.sergeykozhukhov.voicerecording.services.OnFileManagerResultListener;
+import ru.sergeykozhukhov.voicerecording.services.PlaybackProgressMemory;
 import ru.sergeykozhukhov.voicerecording.services.PlayerService;
+import ru.sergeykozhukhov.voicerecording.services.PlayerState;
+import ru.sergeykozhukhov.voicerecording.services.RecorderLevel;
+import ru.sergeykozhukhov.voicerecording.services.RecorderService;
 
+import ru.sergeykozhukhov.recorderservice.IRecorderListenerAIDL;
 import ru.sergeykozhukhov.recorderservice.IRecorderServiceAIDL;
 
 public class MainActivity extends AppCompatActivity{
@@ -60,16 +84,14 @@ public class MainActivity extends AppCompatActivity{
     private ServiceConnection playerServiceConnection;
 
     /**
-     * Механизм взаимодействия PlayerService с MainActivity посредством обмена сообщений
-     * MainActivity - передатчик, PlayerService - приемник сообщений
+     * Интерфейс управления PlayerService
      */
-    private Messenger playerServiceMessenger;
+    private IPlayerServiceAIDL playerService;
 
     /**
-     * Механизм взаимодействия с PlayerService посредством обмена сообщений
-     * MainActivity - приемник сообщений, PlayerService - передатчик
+     * Поток, в который переносятся вызовы PlayerService
      */
-    private Messenger mainActivityMessenger;
+    private final Handler mainHandler = new Handler();
 
     /**
      * Есть ли подключение к PlayerService
@@ -77,24 +99,14 @@ public class MainActivity extends AppCompatActivity{
     private boolean boundPlayerService = false;
 
     /**
-     * Сообщение сервису для воспроизведения звука
+     * Количество позиций до конца загруженных страниц, при котором загружается следующая страница
      */
-    public static final int MSG_PLAY_PLAYER = 1;
+    private static final int PAGE_PREFETCH_DISTANCE = 20;
 
     /**
-     * Сообщение сервису для остановки звука
+     * Имя отдельной директории голосовых записей
      */
-    public static final int MSG_STOP_PLAYER = 2;
-
-    /**
-     * Сообщение сервису для паузы
-     */
-    public static final int MSG_PAUSE_PLAYER = 3;
-
-    /**
-     * Идентификатор для получения/передачи файла на воспроизведение от activity
-     */
-    public static final String BUNDLE_KEY_FILE = "BUNDLE_KEY_FILE";
+    public static final String DIRECTORY_AUDIO_FILES_NAME = "recordsTest";
 
     /**
      * Список звуковых файлов
@@ -106,6 +118,11 @@ public class MainActivity extends AppCompatActivity{
      */
     private AudioFilesAdapter audioFilesAdapter;
 
+    /**
+     * Загрузчик пиков огибающей записей для ячеек списка
+     */
+    private WaveformLoader waveformLoader;
+
     /**
      * Запись/остановка записи нового звукового файла
      */
@@ -121,6 +138,11 @@ public class MainActivity extends AppCompatActivity{
      */
     private ImageButton stopPlayerServiceImageButton;
 
+    /**
+     * Режим пропуска тишины при воспроизведении
+     */
+    private CheckBox skipSilenceCheckBox;
+
     /**
      * Кнопка для обновления списка файлов
      */
@@ -140,11 +162,36 @@ public class MainActivity extends AppCompatActivity{
      */
     private TextView indicatorProgressTextView;
 
+    /**
+     * Ход удаления всех записанных файлов
+     */
+    private ProgressBar deleteProgressBar;
+
+    /**
+     * Уровень записываемого сигнала
+     */
+    private ProgressBar recordLevelProgressBar;
+
     /**
      * Обработчик нажатий на список звуковых файлов
      */
     private OnItemAudioFileClickListener onItemAudioFileClickListener;
 
+    /**
+     * Обработчик изменений директории голосовых записей
+     */
+    private OnDirectoryChangedListener onDirectoryChangedListener;
+
+    /**
+     * Загружается ли следующая страница списка
+     */
+    private boolean isPageLoading;
+
+    /**
+     * Обработчик хода удаления всех записанных файлов
+     */
+    private OnBulkDeleteListener onBulkDeleteListener;
+
     /**
      * Директория для сохранения файлов
      */
@@ -166,6 +213,89 @@ public class MainActivity extends AppCompatActivity{
      */
     private boolean isStartPlayer = false;
 
+    /**
+     * Длина кадра уровня записи, запрашиваемая у сервиса записи (мс)
+     */
+    private static final int RECORD_LEVEL_INTERVAL_MS = 50;
+
+    /**
+     * Нижняя граница шкалы уровня записи (дБ относительно полной шкалы)
+     */
+    private static final float RECORD_LEVEL_FLOOR_DB = -60f;
+
+    /**
+     * Минимальный интервал между командами перемещения при перетаскивании индикатора (мс)
+     */
+    private static final long SEEK_INTERVAL = 50L;
+
+    /**
+     * Директория кэша пиков огибающей внутри кэша приложения
+     */
+    private static final String WAVEFORM_CACHE_DIRECTORY = "waveforms";
+
+    /**
+     * Область памяти с прогрессом воспроизведения, полученная от PlayerService (API 27+)
+     */
+    private PlaybackProgressMemory playbackProgressMemory;
+
+    /**
+     * Количество потерянных отсчетов записи, о котором уже сообщалось
+     */
+    private long lastDroppedSamples;
+
+    /**
+     * Секунды от начала файла, отображаемые в тексте индикатора
+     */
+    private long shownSeconds = -1L;
+
+    /**
+     * Процент пройденного времени, отображаемый в тексте индикатора
+     */
+    private int shownPercent = -1;
+
+    /**
+     * Перетаскивает ли пользователь индикатор воспроизведения
+     */
+    private boolean isScrubbing = false;
+
+    /**
+     * Последняя позиция перетаскивания, еще не отправленная PlayerService
+     */
+    private long pendingSeekPosition;
+
+    /**
+     * Запланирована ли отправка позиции перетаскивания
+     */
+    private boolean isSeekScheduled = false;
+
+    /**
+     * Время отправки последней команды перемещения (uptimeMillis)
+     */
+    private long lastSeekTime;
+
+    /**
+     * Отправка последней позиции перетаскивания
+     * Промежуточные позиции, накопленные за интервал, не отправляются
+     */
+    private final Runnable seekRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isSeekScheduled = false;
+            sendSeek(pendingSeekPosition);
+        }
+    };
+
+    /**
+     * Обновление индикатора воспроизведения на каждом кадре по области памяти
+     */
+    private final Choreographer.FrameCallback progressFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            showSharedProgress();
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -174,7 +304,6 @@ public class MainActivity extends AppCompatActivity{
 
         checkPermission();
         getDirectoryAudioFiles();
-        initMessengers();
         initPlayerServiceConnection();
         initViews();
         initListeners();
@@ -190,29 +319,44 @@ public class MainActivity extends AppCompatActivity{
 
     @Override
     protected void onStop() {
+        stopProgressFrames();
         unbindPlayerService();
         unbindFileManagerService();
         super.onStop();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        RecordingDataCache.getInstance().trimMemory(level);
+    }
+
+    @Override
+    protected void onDestroy() {
+        waveformLoader.release();
+        super.onDestroy();
+    }
+
     /**
-     * Запрос на разрешение записи файлов на карту памяти
+     * Запрос на разрешение записи файлов на карту памяти и записи звука
      */
     private void requestPermission(){
         ActivityCompat.requestPermissions(this,
-                new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE},
+                new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE, Manifest.permission.RECORD_AUDIO},
                 1);
     }
 
     /**
-     * Проверка имеется ли разрешение на запись файлов на карту памяти
+     * Проверка имеются ли разрешения на запись файлов на карту памяти и запись звука
      * Если отсутствует, запрашивает без обработки ответа от пользователя
      * @return true если разрешение есть
      *         false если нет
      */
     private boolean checkPermission(){
         if (ContextCompat.checkSelfPermission(MainActivity.this,
-                Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED){
+                Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED
+                || ContextCompat.checkSelfPermission(MainActivity.this,
+                Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED){
             requestPermission();
             return false;
         }
@@ -232,7 +376,7 @@ public class MainActivity extends AppCompatActivity{
             directory = ContextCompat.getDataDir(MainActivity.this);
         }
 
-        directoryAudioFiles = new File(directory.getPath() + "/recordsTest/");
+        directoryAudioFiles = new File(directory, DIRECTORY_AUDIO_FILES_NAME);
         if (!directoryAudioFiles.exists()){
             if(!directoryAudioFiles.mkdir()) {
                 directoryAudioFiles = directory;
@@ -248,23 +392,26 @@ public class MainActivity extends AppCompatActivity{
 
             @Override
             public void onServiceConnected(ComponentName name, IBinder service) {
-                playerServiceMessenger = new Messenger(service);
+                playerService = IPlayerServiceAIDL.Stub.asInterface(service);
                 boundPlayerService = true;
+                try {
+                    openProgressMemory(playerService.getProgressMemory());
+                    playerService.setSkipSilence(skipSilenceCheckBox.isChecked());
+                    playerService.registerCallback(playerCallback);
+                } catch (RemoteException e) {
+                    e.printStackTrace();
+                }
             }
 
             @Override
             public void onServiceDisconnected(ComponentName name) {
-                playerServiceMessenger = null;
+                playerService = null;
                 boundPlayerService = false;
+                closeProgressMemory();
             }
         };
     }
 
-    private void initMessengers(){
-        playerServiceMessenger = null;
-        mainActivityMessenger = new Messenger(new IncomingHandlerMainActivity());
-    }
-
     /**
      * Инициализация Views
      */
@@ -275,12 +422,15 @@ public class MainActivity extends AppCompatActivity{
         recordRecordServiceImageButton = findViewById(R.id.start_record_service_button);
         pausePlayerServiceImageButton = findViewById(R.id.pause_player_service_button);
         stopPlayerServiceImageButton = findViewById(R.id.stop_player_service_button);
+        skipSilenceCheckBox = findViewById(R.id.skip_silence_check_box);
 
         updateListImageButton = findViewById(R.id.update_list_image_button);
         deleteDirectoryImageButton = findViewById(R.id.delete_directory_image_button);
 
         indicatorProgressSeekBar = findViewById(R.id.indicator_seek_bar);
         indicatorProgressTextView = findViewById(R.id.indicator_text_view);
+        deleteProgressBar = findViewById(R.id.delete_progress_bar);
+        recordLevelProgressBar = findViewById(R.id.record_level_progress_bar);
     }
 
     /**
@@ -295,11 +445,15 @@ public class MainActivity extends AppCompatActivity{
                     bindRecorderService();
                     isRecord = true;
                     recordRecordServiceImageButton.setImageDrawable(getDrawable(R.drawable.ic_stop));
+                    lastDroppedSamples = 0L;
+                    recordLevelProgressBar.setProgress(0);
+                    recordLevelProgressBar.setVisibility(View.VISIBLE);
                 }
                 else {
                     unbindRecorderService();
                     isRecord = false;
                     recordRecordServiceImageButton.setImageDrawable(getDrawable(R.drawable.ic_record_voice));
+                    recordLevelProgressBar.setVisibility(View.GONE);
                 }
             }
         });
@@ -307,10 +461,9 @@ public class MainActivity extends AppCompatActivity{
         pausePlayerServiceImageButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (isStartPlayer){
-                    Message msg = Message.obtain(null, MSG_PAUSE_PLAYER, 0, 0);
+                if (isStartPlayer && boundPlayerService){
                     try{
-                        playerServiceMessenger.send(msg);
+                        playerService.pause();
                     } catch (RemoteException e) {
                         e.printStackTrace();
                     }
@@ -321,10 +474,45 @@ public class MainActivity extends AppCompatActivity{
         stopPlayerServiceImageButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (isStartPlayer) {
-                    Message msg = Message.obtain(null, MSG_STOP_PLAYER, 0, 0);
+                if (isStartPlayer && boundPlayerService) {
                     try {
-                        playerServiceMessenger.send(msg);
+                        playerService.stop();
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+
+        indicatorProgressSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (!fromUser)
+                    return;
+                showProgressText(progress);
+                requestSeek(progress);
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                isScrubbing = true;
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                isScrubbing = false;
+                mainHandler.removeCallbacks(seekRunnable);
+                isSeekScheduled = false;
+                sendSeek(seekBar.getProgress());
+            }
+        });
+
+        skipSilenceCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                if (boundPlayerService) {
+                    try {
+                        playerService.setSkipSilence(isChecked);
                     } catch (RemoteException e) {
                         e.printStackTrace();
                     }
@@ -341,9 +529,8 @@ public class MainActivity extends AppCompatActivity{
                 else if (isRecord){
                     Toast.makeText(MainActivity.this, getString(R.string.message_toast_stop_recorder), Toast.LENGTH_SHORT).show();
                 }
-                else{
-                    audioFilesAdapter.setFiles(fileMangerService.getFiles());
-                    Toast.makeText(MainActivity.this, getString(R.string.message_toast_list_updated), Toast.LENGTH_SHORT).show();
+                else if (fileMangerService != null){
+                    reloadFiles(true, true);
                 }
             }
         });
@@ -351,7 +538,38 @@ public class MainActivity extends AppCompatActivity{
         deleteDirectoryImageButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                fileMangerService.deleteFromExternalStorage();
+                if (fileMangerService == null)
+                    return;
+                boolean started = fileMangerService.deleteFromExternalStorageAsync(new OnFileManagerResultListener<Boolean>() {
+                    @Override
+                    public void onResult(Boolean trashed) {
+                        if (trashed != null && trashed)
+                            Toast.makeText(MainActivity.this, getString(R.string.message_toast_moved_to_trash), Toast.LENGTH_SHORT).show();
+                    }
+                });
+                if (!started)
+                    Toast.makeText(MainActivity.this, getString(R.string.message_toast_delete_in_progress), Toast.LENGTH_SHORT).show();
+            }
+        });
+
+        /*
+         * Долгое нажатие на кнопку удаления отменяет последнее удаление
+         * */
+        deleteDirectoryImageButton.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                if (fileMangerService == null)
+                    return false;
+                fileMangerService.undoLastDeleteAsync(new OnFileManagerResultListener<Integer>() {
+                    @Override
+                    public void onResult(Integer restored) {
+                        if (restored != null && restored >= 0)
+                            Toast.makeText(MainActivity.this, getString(R.string.message_toast_restored, restored), Toast.LENGTH_SHORT).show();
+                        else
+                            Toast.makeText(MainActivity.this, getString(R.string.message_toast_nothing_to_restore), Toast.LENGTH_SHORT).show();
+                    }
+                });
+                return true;
             }
         });
 
@@ -359,23 +577,55 @@ public class MainActivity extends AppCompatActivity{
             @Override
             public void onPlayAudioFile(@NonNull File file) {
                 if (boundPlayerService && !isRecord){
-                    Message msg = Message.obtain(null, MSG_PLAY_PLAYER, 0, 0);
-
-                    Bundle bundle = new Bundle();
-                    bundle.putSerializable(BUNDLE_KEY_FILE, file);
+                    try{
+                        playerService.play(file.getPath());
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
 
-                    msg.setData(bundle);
-                    msg.replyTo = mainActivityMessenger;
+                }
+            }
 
+            @Override
+            public void onPlayAudioFiles(@NonNull ArrayList<File> files) {
+                if (boundPlayerService && !isRecord && !files.isEmpty()){
+                    ArrayList<String> paths = new ArrayList<>(files.size());
+                    for (File file : files) {
+                        paths.add(file.getPath());
+                    }
                     try{
-                        playerServiceMessenger.send(msg);
+                        playerService.playQueue(paths, 0);
                     } catch (RemoteException e) {
                         e.printStackTrace();
                     }
-
                 }
             }
         };
+
+        onBulkDeleteListener = new OnBulkDeleteListener() {
+            @Override
+            public void onProgress(int processed, int total) {
+                deleteProgressBar.setVisibility(View.VISIBLE);
+                deleteProgressBar.setMax(total);
+                deleteProgressBar.setProgress(processed);
+            }
+
+            @Override
+            public void onFinished(@NonNull BulkDeleteReport report) {
+                deleteProgressBar.setVisibility(View.GONE);
+                Toast.makeText(MainActivity.this,
+                        getString(R.string.message_toast_delete_finished, report.getDeletedCount(), report.getTotal()),
+                        Toast.LENGTH_SHORT).show();
+            }
+        };
+
+        onDirectoryChangedListener = new OnDirectoryChangedListener() {
+            @Override
+            public void onDirectoryChanged(@NonNull FilesDelta delta) {
+                if (fileMangerService != null)
+                    reloadFiles(false, false);
+            }
+        };
     }
 
     /**
@@ -383,10 +633,68 @@ public class MainActivity extends AppCompatActivity{
      */
     private void initData(){
 
-        audioFilesRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        audioFilesRecyclerView.setLayoutManager(layoutManager);
 
-        audioFilesAdapter = new AudioFilesAdapter(onItemAudioFileClickListener);
+        waveformLoader = new WaveformLoader(new WaveformCache(new File(getCacheDir(), WAVEFORM_CACHE_DIRECTORY)));
+        audioFilesAdapter = new AudioFilesAdapter(onItemAudioFileClickListener, waveformLoader);
         audioFilesRecyclerView.setAdapter(audioFilesAdapter);
+
+        /*
+         * Страницы индекса загружаются по мере приближения прокрутки к концу загруженной части списка
+         * */
+        audioFilesRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy <= 0)
+                    return;
+                int lastVisiblePosition = layoutManager.findLastVisibleItemPosition();
+                if (lastVisiblePosition >= audioFilesAdapter.getItemCount() - PAGE_PREFETCH_DISTANCE)
+                    loadNextPage();
+            }
+        });
+    }
+
+    /**
+     * Загрузка первых страниц списка заново
+     * Запрашивается столько файлов, сколько уже загружено, чтобы обновление не сбрасывало прокрученную часть списка
+     * @param reconcile - сверять ли индекс с директорией (иначе индекс уже актуален после изменений от наблюдателя)
+     * @param notify - сообщить ли пользователю об обновлении списка
+     */
+    private void reloadFiles(boolean reconcile, final boolean notify) {
+        final int limit = audioFilesAdapter.getReloadLimit();
+        OnFileManagerResultListener<List<AudioFileEntry>> listener = new OnFileManagerResultListener<List<AudioFileEntry>>() {
+            @Override
+            public void onResult(List<AudioFileEntry> files) {
+                audioFilesAdapter.setFiles(files, files != null && files.size() >= limit);
+                if (notify)
+                    Toast.makeText(MainActivity.this, getString(R.string.message_toast_list_updated), Toast.LENGTH_SHORT).show();
+            }
+        };
+        if (reconcile)
+            fileMangerService.getFilesAsync(limit, listener);
+        else
+            fileMangerService.getIndexedFilesAsync(null, limit, listener);
+    }
+
+    /**
+     * Загрузка следующей страницы списка из индекса
+     */
+    private void loadNextPage() {
+        if (fileMangerService == null || isPageLoading || !audioFilesAdapter.hasMorePages())
+            return;
+        final String afterName = audioFilesAdapter.getLastLoadedName();
+        if (afterName == null)
+            return;
+        isPageLoading = true;
+        fileMangerService.getIndexedFilesAsync(afterName, AudioFilesAdapter.PAGE_SIZE, new OnFileManagerResultListener<List<AudioFileEntry>>() {
+            @Override
+            public void onResult(List<AudioFileEntry> page) {
+                isPageLoading = false;
+                if (page != null)
+                    audioFilesAdapter.appendPage(afterName, page, page.size() >= AudioFilesAdapter.PAGE_SIZE);
+            }
+        });
     }
 
     /**
@@ -412,15 +720,36 @@ public class MainActivity extends AppCompatActivity{
         ComponentName componentName = new ComponentName("ru.sergeykozhukhov.recorderservice",
                 "ru.sergeykozhukhov.recorderservice.RecorderService");
         Intent intentR = new Intent();
-        intentR.setComponent(componentName);
+        if (isServiceInstalled(componentName))
+            intentR.setComponent(componentName);
+        else
+            intentR.setClass(this, RecorderService.class);
 
         bindService(intentR, recorderServiceConnection, BIND_AUTO_CREATE);
     }
 
+    /**
+     * Установлен ли сервис другого приложения
+     * Если приложения записи нет, используется встроенный RecorderService
+     * @param componentName - компонент сервиса
+     */
+    private boolean isServiceInstalled(@NonNull ComponentName componentName) {
+        try {
+            getPackageManager().getServiceInfo(componentName, 0);
+            return true;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
     /**
      * Отключение от FileManagerService
      */
     private void unbindFileManagerService(){
+        if (fileMangerService != null) {
+            fileMangerService.removeOnDirectoryChangedListener(onDirectoryChangedListener);
+            fileMangerService.setOnBulkDeleteListener(null);
+        }
         unbindService(fileMangerServiceConnection);
         fileMangerService = null;
     }
@@ -430,7 +759,14 @@ public class MainActivity extends AppCompatActivity{
      */
     private void unbindPlayerService(){
         if (boundPlayerService){
+            try {
+                playerService.unregisterCallback(playerCallback);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
             unbindService(playerServiceConnection);
+            playerService = null;
+            closeProgressMemory();
             boundPlayerService = false;
         }
     }
@@ -439,6 +775,7 @@ public class MainActivity extends AppCompatActivity{
      * Отключение от RecorderService
      */
     private void unbindRecorderService(){
+        recorderServiceConnection.stopRecord();
         unbindService(recorderServiceConnection);
     }
 
@@ -452,68 +789,292 @@ public class MainActivity extends AppCompatActivity{
     }
 
     /**
-     * Преобразование из секунд в процент пройденного времени
-     * @param sec время в секундах
+     * Преобразование из миллисекунд в процент пройденного времени
+     * @param position - позиция в миллисекундах
      * @return процент пройденного времени
      */
-    private int secondToPercent(long sec){
-        if (audioFileDuration < 1000L)
-            return 1;
-        Log.d("MAIN_ACTIVITY", "Duration (seconds to percent): "+audioFileDuration);
-        return (int)((millsToSeconds(audioFileDuration)-sec)*100/millsToSeconds(audioFileDuration));
+    private int positionToPercent(long position) {
+        if (audioFileDuration <= 0L)
+            return 0;
+        return (int) (Math.min(position, audioFileDuration) * 100L / audioFileDuration);
     }
 
     /**
-     * Механизм взаимодействия с PlayerService посредством обмена сообщений
-     * MainActivity - приемник сообщений, PlayerService - передатчик
+     * Установка длительности воспроизводимого файла
+     * Максимум индикатора равен длительности в миллисекундах, поэтому его положение
+     * и перемещение по нему имеют точность до миллисекунды
+     * @param duration - длительность в миллисекундах
      */
-    public class IncomingHandlerMainActivity extends Handler {
+    private void setAudioFileDuration(long duration) {
+        audioFileDuration = duration;
+        indicatorProgressSeekBar.setMax((int) Math.min(duration, Integer.MAX_VALUE));
+        shownSeconds = -1L;
+        shownPercent = -1;
+    }
+
+    /**
+     * Отображение прогресса воспроизведения
+     * Пока пользователь перетаскивает индикатор, прогресс от PlayerService не отображается
+     * @param position - позиция воспроизведения в миллисекундах
+     */
+    private void showProgress(long position) {
+        if (isScrubbing)
+            return;
+        indicatorProgressSeekBar.setProgress((int) Math.min(position, Integer.MAX_VALUE));
+        showProgressText(position);
+    }
+
+    /**
+     * Отображение позиции в тексте индикатора
+     * Текст обновляется только при смене секунды или процента
+     * @param position - позиция воспроизведения в миллисекундах
+     */
+    private void showProgressText(long position) {
+        long secondFromStart = millsToSeconds(position);
+        int percent = positionToPercent(position);
+        if (secondFromStart == shownSeconds && percent == shownPercent)
+            return;
+        shownSeconds = secondFromStart;
+        shownPercent = percent;
+        indicatorProgressTextView.setText(String.format(getString(R.string.indicator_time_text_view), secondFromStart, percent));
+    }
+
+    /**
+     * Запрос перемещения во время перетаскивания индикатора
+     * Команды отправляются не чаще одной за SEEK_INTERVAL, из накопленных отправляется только последняя позиция
+     * @param position - позиция в миллисекундах
+     */
+    private void requestSeek(long position) {
+        pendingSeekPosition = position;
+        if (isSeekScheduled)
+            return;
+        isSeekScheduled = true;
+        long delay = Math.max(0L, lastSeekTime + SEEK_INTERVAL - SystemClock.uptimeMillis());
+        mainHandler.postDelayed(seekRunnable, delay);
+    }
+
+    /**
+     * Отправка команды перемещения PlayerService
+     * @param position - позиция в миллисекундах
+     */
+    private void sendSeek(long position) {
+        if (!isStartPlayer || !boundPlayerService)
+            return;
+        lastSeekTime = SystemClock.uptimeMillis();
+        try {
+            playerService.seekTo(position);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Отображение прогресса воспроизведения, прочитанного из области памяти PlayerService
+     */
+    private void showSharedProgress() {
+        if (playbackProgressMemory == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1)
+            return;
+        playbackProgressMemory.read();
+        long duration = playbackProgressMemory.getDuration();
+        if (duration <= 0L)
+            return;
+        if (duration != audioFileDuration)
+            setAudioFileDuration(duration);
+        showProgress(playbackProgressMemory.getPosition(SystemClock.uptimeMillis()));
+    }
+
+    /**
+     * Запуск обновления индикатора на каждом кадре, если прогресс передается через область памяти
+     */
+    private void startProgressFrames() {
+        if (playbackProgressMemory == null)
+            return;
+        Choreographer.getInstance().removeFrameCallback(progressFrameCallback);
+        Choreographer.getInstance().postFrameCallback(progressFrameCallback);
+    }
+
+    /**
+     * Остановка обновления индикатора на каждом кадре
+     */
+    private void stopProgressFrames() {
+        Choreographer.getInstance().removeFrameCallback(progressFrameCallback);
+    }
+
+    /**
+     * Подключение к области памяти с прогрессом воспроизведения, полученной от PlayerService
+     * @param data - данные с областью памяти (пустые, если она недоступна)
+     */
+    private void openProgressMemory(@Nullable Bundle data) {
+        if (data == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1)
+            return;
+        SharedMemory sharedMemory = data.getParcelable(PlayerService.BUNDLE_PROGRESS_MEMORY);
+        if (sharedMemory == null)
+            return;
+        closeProgressMemory();
+        playbackProgressMemory = PlaybackProgressMemory.open(sharedMemory);
+        if (isStartPlayer)
+            startProgressFrames();
+    }
+
+    /**
+     * Освобождение области памяти с прогрессом воспроизведения
+     */
+    private void closeProgressMemory() {
+        stopProgressFrames();
+        if (playbackProgressMemory != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            playbackProgressMemory.close();
+            playbackProgressMemory = null;
+        }
+    }
+
+    /**
+     * Получатель состояний PlayerService
+     * Вызовы поступают в потоке binder и переносятся в основной поток
+     */
+    private final IPlayerCallbackAIDL.Stub playerCallback = new IPlayerCallbackAIDL.Stub() {
         @Override
-        public void handleMessage(@NonNull Message msg) {
-            super.handleMessage(msg);
-
-            switch (msg.what) {
-                case PlayerService.MSG_PLAYER_TICK:
-                    long currentSecond = msg.getData().getLong(PlayerService.BUNDLE_CURRENT_PROGRESS);
-                    long secondFromStart = millsToSeconds(audioFileDuration) - currentSecond;
-                    indicatorProgressTextView.setText(String.format(getString(R.string.indicator_time_text_view), secondFromStart, secondToPercent(currentSecond)));
-                    indicatorProgressSeekBar.setProgress(secondToPercent(currentSecond));
-                    break;
-                case PlayerService.MSG_PLAYER_GOT_DURATION:
-                    audioFileDuration = msg.getData().getLong(PlayerService.BUNDLE_FILE_DURATION);
+        public void onStateChanged(final List<PlayerState> states) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (PlayerState state : states) {
+                        onPlayerState(state);
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * Получатель кадров уровня записи
+     * Вызовы поступают в потоке binder (или в потоке передачи встроенного сервиса) и переносятся в основной поток
+     */
+    private final IRecorderListenerAIDL.Stub recorderListener = new IRecorderListenerAIDL.Stub() {
+        @Override
+        public void onLevels(final List<RecorderLevel> levels) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onRecorderLevels(levels);
+                }
+            });
+        }
+    };
+
+    /**
+     * Отображение уровня записи по последнему кадру пакета
+     * Потеря отсчетов из-за переполнения буфера записи отмечается в журнале
+     * @param levels - кадры уровня, полученные от сервиса записи
+     */
+    private void onRecorderLevels(@NonNull List<RecorderLevel> levels) {
+        if (!isRecord || levels.isEmpty())
+            return;
+        RecorderLevel last = levels.get(levels.size() - 1);
+        float peakDb = last.getPeak() > 0f ? (float) (20.0 * Math.log10(last.getPeak())) : RECORD_LEVEL_FLOOR_DB;
+        float level = 1f - Math.max(RECORD_LEVEL_FLOOR_DB, peakDb) / RECORD_LEVEL_FLOOR_DB;
+        recordLevelProgressBar.setProgress((int) (level * recordLevelProgressBar.getMax()));
+        if (last.getDroppedSamples() > lastDroppedSamples) {
+            Log.w("MAIN_ACTIVITY", "recorder overrun: " + (last.getDroppedSamples() - lastDroppedSamples)
+                    + " samples dropped, buffer " + (int) (last.getBufferFill() * 100) + "%");
+            lastDroppedSamples = last.getDroppedSamples();
+        }
+    }
+
+    /**
+     * Отображение состояния проигрывателя
+     * @param state - состояние, полученное от PlayerService
+     */
+    private void onPlayerState(@NonNull PlayerState state) {
+        switch (state.getState()) {
+            case PlayerState.STATE_PREPARING:
+                /*
+                 * Индикатор получает длительность до начала воспроизведения
+                 * */
+                if (state.getDuration() != audioFileDuration)
+                    setAudioFileDuration(state.getDuration());
+                showPlayerControls();
+                stopProgressFrames();
+                showProgress(0L);
+                break;
+            case PlayerState.STATE_PLAYING:
+            case PlayerState.STATE_PAUSED:
+                if (state.getDuration() != audioFileDuration)
+                    setAudioFileDuration(state.getDuration());
+                showPlayerControls();
+                if (playbackProgressMemory != null) {
+                    if (state.getState() == PlayerState.STATE_PLAYING) {
+                        startProgressFrames();
+                    } else {
+                        stopProgressFrames();
+                        showSharedProgress();
+                    }
+                } else if (audioFileDuration > 0L) {
+                    showProgress(state.getPosition());
+                }
+                break;
+            case PlayerState.STATE_STOPPED:
+                if (!isStartPlayer)
                     break;
-                case PlayerService.MSG_PLAYER_STARTED_PLAY:
-                    isStartPlayer = true;
-                    recordRecordServiceImageButton.setVisibility(View.GONE);
-                    indicatorProgressTextView.setVisibility(View.VISIBLE);
-                    indicatorProgressSeekBar.setVisibility(View.VISIBLE);
-                    pausePlayerServiceImageButton.setVisibility(View.VISIBLE);
-                    stopPlayerServiceImageButton.setVisibility(View.VISIBLE);
-                     break;
-                case PlayerService.MSG_PLAYER_STOPPED:
-                    isStartPlayer = false;
-                    recordRecordServiceImageButton.setVisibility(View.VISIBLE);
-                    indicatorProgressTextView.setVisibility(View.GONE);
-                    indicatorProgressSeekBar.setVisibility(View.GONE);
-                    pausePlayerServiceImageButton.setVisibility(View.GONE);
-                    stopPlayerServiceImageButton.setVisibility(View.GONE);
-                    Log.d("MAIN_ACTIVITY", "stop");
-                default:
-            }
+                isStartPlayer = false;
+                isScrubbing = false;
+                mainHandler.removeCallbacks(seekRunnable);
+                isSeekScheduled = false;
+                stopProgressFrames();
+                recordRecordServiceImageButton.setVisibility(View.VISIBLE);
+                indicatorProgressTextView.setVisibility(View.GONE);
+                indicatorProgressSeekBar.setVisibility(View.GONE);
+                pausePlayerServiceImageButton.setVisibility(View.GONE);
+                stopPlayerServiceImageButton.setVisibility(View.GONE);
+                skipSilenceCheckBox.setVisibility(View.GONE);
+                Log.d("MAIN_ACTIVITY", "stop");
+                break;
+            default:
         }
     }
 
+    /**
+     * Отображение элементов управления проигрывателем вместо кнопки записи
+     */
+    private void showPlayerControls() {
+        if (isStartPlayer)
+            return;
+        isStartPlayer = true;
+        recordRecordServiceImageButton.setVisibility(View.GONE);
+        indicatorProgressTextView.setVisibility(View.VISIBLE);
+        indicatorProgressSeekBar.setVisibility(View.VISIBLE);
+        pausePlayerServiceImageButton.setVisibility(View.VISIBLE);
+        stopPlayerServiceImageButton.setVisibility(View.VISIBLE);
+        skipSilenceCheckBox.setVisibility(View.VISIBLE);
+    }
+
     /**
      * Соединение с сервисом RecorderService
      * ServiceConnection - интерфейс, определеяющий состояние сервиса
      */
     private class RecorderServiceConnection implements ServiceConnection {
 
+        /**
+         * Интерфейс подключенного сервиса записи
+         */
+        private IRecorderServiceAIDL recorderServiceAIDL;
+
+        /**
+         * Передает ли подключенный сервис кадры уровня
+         * Интерфейс приложения записи старше методов registerListener и unregisterListener,
+         * поэтому уровень запрашивается только у встроенного сервиса
+         */
+        private boolean levelsSupported;
+
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
-            IRecorderServiceAIDL recorderServiceAIDL = IRecorderServiceAIDL.Stub.asInterface(service);
+            recorderServiceAIDL = IRecorderServiceAIDL.Stub.asInterface(service);
+            levelsSupported = getPackageName().equals(name.getPackageName());
+            if (!levelsSupported)
+                recordLevelProgressBar.setVisibility(View.GONE);
             try {
                 recorderServiceAIDL.setDirectory(directoryAudioFiles.getPath());
+                if (levelsSupported)
+                    recorderServiceAIDL.registerListener(recorderListener, RECORD_LEVEL_INTERVAL_MS);
                 recorderServiceAIDL.startRecord();
 
             } catch (RemoteException e) {
@@ -523,6 +1084,24 @@ public class MainActivity extends AppCompatActivity{
 
         @Override
         public void onServiceDisconnected(ComponentName name) {
+            recorderServiceAIDL = null;
+        }
+
+        /**
+         * Остановка записи перед отключением
+         * Встроенный сервис продолжает запись без клиентов, поэтому остановка передается явно
+         */
+        void stopRecord() {
+            if (recorderServiceAIDL == null)
+                return;
+            try {
+                recorderServiceAIDL.stopRecord();
+                if (levelsSupported)
+                    recorderServiceAIDL.unregisterListener(recorderListener);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+            recorderServiceAIDL = null;
         }
     }
 
@@ -537,7 +1116,11 @@ public class MainActivity extends AppCompatActivity{
             checkPermission();
             fileMangerService = ((FileManagerService.LocalFilerManagerServiceBinder) service).getFileManagerService();
             fileMangerService.setDirectoryAudioFiles(directoryAudioFiles);
-            audioFilesAdapter.setFiles( fileMangerService.getFiles());
+            fileMangerService.addOnDirectoryChangedListener(onDirectoryChangedListener);
+            fileMangerService.setOnBulkDeleteListener(onBulkDeleteListener);
+            deleteProgressBar.setVisibility(fileMangerService.isDeleting() ? View.VISIBLE : View.GONE);
+            isPageLoading = false;
+            reloadFiles(true, false);
         }
 
         @Override
@@ -1,5 +1,6 @@
 package ru.sergeykozhukhov.voicerecording.adapter;
 
+import android.content.Context;
 import android.graphics.drawable.Drawable;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -7,34 +8,147 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import ru.sergeykozhukhov.voicerecording.R;
+import ru.sergeykozhukhov.voicerecording.audio_tools.OnWaveformLoadedListener;
+import ru.sergeykozhukhov.voicerecording.audio_tools.WaveformLoader;
+import ru.sergeykozhukhov.voicerecording.audio_tools.WaveformPeaks;
+import ru.sergeykozhukhov.voicerecording.file_tools.AudioFileEntry;
 
 public class AudioFilesAdapter extends RecyclerView.Adapter<AudioFilesAdapter.FileHolder> {
 
+    /**
+     * Количество файлов на странице списка
+     */
+    public static final int PAGE_SIZE = 100;
+
     /**
      * Обработчик нажатия на элементы
      */
     private OnItemAudioFileClickListener onItemAudioFileClickListener;
 
+    /**
+     * Сравнение элементов списка: файл определяется путем, его содержимое - временем изменения,
+     * снятым при просмотре директории
+     * Сравнение выполняется в фоновом потоке AsyncListDiffer
+     */
+    private static final DiffUtil.ItemCallback<AudioFileEntry> DIFF_CALLBACK = new DiffUtil.ItemCallback<AudioFileEntry>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull AudioFileEntry oldItem, @NonNull AudioFileEntry newItem) {
+            return oldItem.getFile().equals(newItem.getFile());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull AudioFileEntry oldItem, @NonNull AudioFileEntry newItem) {
+            return oldItem.getLastModified() == newItem.getLastModified()
+                    && oldItem.getLength() == newItem.getLength()
+                    && oldItem.getDuration() == newItem.getDuration();
+        }
+    };
+
     /**
      * Список файлов, названия которых предполагаются к отображению
+     * Изменения между старым и новым списком вычисляются в фоновом потоке
+     * и передаются адаптеру точечными уведомлениями о вставке, удалении и изменении элементов
+     */
+    private final AsyncListDiffer<AudioFileEntry> filesDiffer = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+
+    /**
+     * Загруженные страницы списка в порядке индекса (последний список, переданный в filesDiffer)
+     */
+    private List<AudioFileEntry> files = Collections.emptyList();
+
+    /**
+     * Есть ли в индексе файлы после загруженных страниц
      */
-    private List<File> files = new ArrayList<>();
+    private boolean hasMorePages;
 
-    public AudioFilesAdapter(OnItemAudioFileClickListener onItemAudioFileClickListener) {
+    /**
+     * Изображение для идентификации файлов, общее для всех ячеек
+     */
+    private Drawable fileDrawable;
+
+    /**
+     * Изображение для идентификации папок, общее для всех ячеек
+     */
+    private Drawable directoryDrawable;
+
+    /**
+     * Загрузчик пиков огибающей для ячеек
+     */
+    private final WaveformLoader waveformLoader;
+
+    public AudioFilesAdapter(OnItemAudioFileClickListener onItemAudioFileClickListener, @NonNull WaveformLoader waveformLoader) {
         this.onItemAudioFileClickListener = onItemAudioFileClickListener;
+        this.waveformLoader = waveformLoader;
+    }
+
+
+    /**
+     * Замена загруженных страниц списка
+     * @param files - файлы первых страниц или null, если директория не установлена
+     * @param hasMorePages - есть ли в индексе файлы после переданных
+     */
+    public void setFiles(@Nullable List<AudioFileEntry> files, boolean hasMorePages) {
+        this.files = files != null ? files : Collections.<AudioFileEntry>emptyList();
+        this.hasMorePages = files != null && hasMorePages;
+        filesDiffer.submitList(files);
     }
 
+    /**
+     * Добавление следующей страницы в конец списка
+     * Страница отбрасывается, если после ее запроса загруженные страницы были заменены
+     * @param afterName - имя последнего файла, после которого запрашивалась страница
+     * @param page - файлы страницы
+     * @param hasMorePages - есть ли в индексе файлы после страницы
+     * @return true - если страница добавлена
+     */
+    public boolean appendPage(@NonNull String afterName, @NonNull List<AudioFileEntry> page, boolean hasMorePages) {
+        if (!afterName.equals(getLastLoadedName()))
+            return false;
+        this.hasMorePages = hasMorePages;
+        if (page.isEmpty())
+            return true;
+        List<AudioFileEntry> loaded = new ArrayList<>(files.size() + page.size());
+        loaded.addAll(files);
+        loaded.addAll(page);
+        files = loaded;
+        filesDiffer.submitList(loaded);
+        return true;
+    }
+
+    /**
+     * Есть ли в индексе файлы после загруженных страниц
+     */
+    public boolean hasMorePages() {
+        return hasMorePages;
+    }
+
+    /**
+     * Имя последнего загруженного файла, после которого запрашивается следующая страница
+     * @return имя или null, если страницы не загружены
+     */
+    @Nullable
+    public String getLastLoadedName() {
+        return files.isEmpty() ? null : files.get(files.size() - 1).getName();
+    }
 
-    public void setFiles(List<File> files) {
-        this.files = files;
-        notifyDataSetChanged();
+    /**
+     * Количество файлов, запрашиваемое при обновлении списка,
+     * чтобы обновление не сбрасывало уже прокрученные страницы
+     */
+    public int getReloadLimit() {
+        return Math.max(PAGE_SIZE, files.size());
     }
 
     @NonNull
@@ -42,35 +156,91 @@ public class AudioFilesAdapter extends RecyclerView.Adapter<AudioFilesAdapter.Fi
     public FileHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         LayoutInflater layoutInflater = LayoutInflater.from(parent.getContext());
 
-        View view = layoutInflater.inflate(android.R.layout.simple_list_item_1, parent, false);
+        if (fileDrawable == null)
+            initDrawables(parent.getContext());
+
+        View view = layoutInflater.inflate(R.layout.item_audio_file, parent, false);
 
         return new FileHolder(view, onItemAudioFileClickListener);
     }
 
     @Override
     public void onBindViewHolder(@NonNull FileHolder holder, int position) {
-        File file = files.get(position);
+        AudioFileEntry entry = filesDiffer.getCurrentList().get(position);
 
-        holder.fileName_text_view.setText(file.getName());
+        long duration = entry.getDuration();
+        if (duration >= 0L) {
+            long seconds = duration / 1000L;
+            holder.fileName_text_view.setText(holder.itemView.getContext().getString(R.string.item_audio_file_duration,
+                    entry.getDisplayName(), seconds / 60L, seconds % 60L));
+        } else {
+            holder.fileName_text_view.setText(entry.getDisplayName());
+        }
 
         /*
-         * isDirectory - проверка, является ли данный объект папкой
+         * Тип объекта берется из снимка, полученного при просмотре директории,
+         * поэтому обращения к файловой системе при отображении не производятся
          * */
-        if (file.isDirectory()) {
-            holder.fileName_text_view.setCompoundDrawables(holder.directory_drawable, null, null, null);
+        if (entry.isDirectory()) {
+            holder.fileName_text_view.setCompoundDrawables(directoryDrawable, null, null, null);
         } else {
-            holder.fileName_text_view.setCompoundDrawables(holder.file_drawable, null, null, null);
+            holder.fileName_text_view.setCompoundDrawables(fileDrawable, null, null, null);
         }
 
+        if (entry.isDirectory()) {
+            holder.bindWaveform(null, 0L);
+        } else {
+            holder.bindWaveform(entry.getFile(), entry.getLastModified());
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull FileHolder holder) {
+        holder.bindWaveform(null, 0L);
+    }
+
+    /**
+     * Подготовка изображений, общих для всех ячеек
+     * @param context - контекст для получения ресурсов
+     */
+    private void initDrawables(@NonNull Context context) {
+        fileDrawable = ContextCompat.getDrawable(context, R.drawable.ic_music);
+        directoryDrawable = ContextCompat.getDrawable(context, R.drawable.ic_launcher_foreground);
+
+        /*
+         * Предстоящий процесс отрисовки будет происходить в квадратах заданных размеров
+         * */
+        if (fileDrawable != null)
+            fileDrawable.setBounds(0, 0, 50, 50);
+        if (directoryDrawable != null)
+            directoryDrawable.setBounds(0, 0, 50, 50);
     }
 
 
+    /**
+     * Получение файлов загруженных страниц списка, начиная с заданной позиции (папки пропускаются)
+     * Файлы страниц, которые еще не загружены, в очередь не попадают
+     * @param position - позиция первого файла
+     * @return файлы в порядке списка
+     */
+    @NonNull
+    private ArrayList<File> getFilesFrom(int position) {
+        List<AudioFileEntry> entries = filesDiffer.getCurrentList();
+        ArrayList<File> files = new ArrayList<>(entries.size() - position);
+        for (int i = position; i < entries.size(); i++) {
+            AudioFileEntry entry = entries.get(i);
+            if (!entry.isDirectory())
+                files.add(entry.getFile());
+        }
+        return files;
+    }
+
     @Override
     public int getItemCount() {
-        return files.size();
+        return filesDiffer.getCurrentList().size();
     }
 
-    public class FileHolder extends RecyclerView.ViewHolder {
+    public class FileHolder extends RecyclerView.ViewHolder implements OnWaveformLoadedListener {
 
         /**
          * Текстовое описание файла/директории
@@ -78,35 +248,70 @@ public class AudioFilesAdapter extends RecyclerView.Adapter<AudioFilesAdapter.Fi
         private TextView fileName_text_view;
 
         /**
-         * Изображение для идентификации файлов
+         * Огибающая записи
+         */
+        private WaveformView waveform_view;
+
+        /**
+         * Файл, пики которого ожидает ячейка
          */
-        private Drawable file_drawable;
+        private File waveformFile;
 
         /**
-         * Изображение для идентификации папок
+         * Время изменения файла, пики которого ожидает ячейка
          */
-        private Drawable directory_drawable;
+        private long waveformLastModified;
 
 
         FileHolder(@NonNull View itemView, final OnItemAudioFileClickListener onItemAudioFileClickListener) {
             super(itemView);
-            fileName_text_view = itemView.findViewById(android.R.id.text1);
-
-            file_drawable = itemView.getResources().getDrawable(R.drawable.ic_music);
-            directory_drawable = itemView.getResources().getDrawable(R.drawable.ic_launcher_foreground);
-
-            /*
-             * Предстоящий процесс отрисовки будет происходить в квадратах заданных размеров
-             * */
-            directory_drawable.setBounds(0, 0, 50, 50);
-            file_drawable.setBounds(0, 0, 50, 50);
+            fileName_text_view = itemView.findViewById(R.id.file_name_text_view);
+            waveform_view = itemView.findViewById(R.id.waveform_view);
 
             fileName_text_view.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    onItemAudioFileClickListener.onPlayAudioFile(files.get(getAdapterPosition()));
+                    int position = getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION)
+                        onItemAudioFileClickListener.onPlayAudioFile(filesDiffer.getCurrentList().get(position).getFile());
                 }
             });
+
+            fileName_text_view.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    int position = getAdapterPosition();
+                    if (position == RecyclerView.NO_POSITION)
+                        return false;
+                    onItemAudioFileClickListener.onPlayAudioFiles(getFilesFrom(position));
+                    return true;
+                }
+            });
+        }
+
+        /**
+         * Привязка огибающей записи к ячейке
+         * Запрос пиков прежнего файла отменяется, если ячейка была переиспользована до его выполнения
+         * @param file - файл записи или null, если огибающая не отображается
+         * @param lastModified - время изменения файла из снимка директории
+         */
+        void bindWaveform(@Nullable File file, long lastModified) {
+            if (file != null && file.equals(waveformFile) && lastModified == waveformLastModified)
+                return;
+            if (waveformFile != null)
+                waveformLoader.cancel(waveformFile, this);
+            waveformFile = file;
+            waveformLastModified = lastModified;
+            waveform_view.setPeaks(null);
+            waveform_view.setVisibility(file != null ? View.VISIBLE : View.GONE);
+            if (file != null)
+                waveformLoader.load(file, lastModified, this);
+        }
+
+        @Override
+        public void onWaveformLoaded(@NonNull File file, @Nullable WaveformPeaks peaks) {
+            if (file.equals(waveformFile))
+                waveform_view.setPeaks(peaks);
         }
     }
 }
@@ -3,6 +3,7 @@ package ru.sergeykozhukhov.voicerecording.adapter;
 import androidx.annotation.NonNull;
 
 import java.io.File;
+import java.util.ArrayList;
 
 /**
  * Обработчик нажатий на ячейку списка файлов
@@ -13,4 +14,10 @@ public interface OnItemAudioFileClickListener {
      * @param file - файл для воспроизведения
      */
     void onPlayAudioFile(@NonNull File file);
+
+    /**
+     * Воспроизведение файлов подряд, начиная с выбранного
+     * @param files - файлы в порядке воспроизведения
+     */
+    void onPlayAudioFiles(@NonNull ArrayList<File> files);
 }
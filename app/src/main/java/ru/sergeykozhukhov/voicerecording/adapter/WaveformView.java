@@ -0,0 +1,101 @@
+package ru.sergeykozhukhov.voicerecording.adapter;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import ru.sergeykozhukhov.voicerecording.R;
+import ru.sergeykozhukhov.voicerecording.audio_tools.WaveformPeaks;
+
+/**
+ * Отображение огибающей записи по заранее вычисленным пикам
+ *
+ * Уровень пиков выбирается по ширине представления, поэтому на отрисовку приходится
+ * не больше нескольких пиков на точку независимо от длительности записи.
+ */
+public class WaveformView extends View {
+
+    /**
+     * Отображаемые пики
+     */
+    private WaveformPeaks peaks;
+
+    /**
+     * Координаты вертикальных отрезков (по четыре на столбец), переиспользуются между отрисовками
+     */
+    private float[] lines = new float[0];
+
+    private final Paint paint = new Paint();
+
+    public WaveformView(Context context) {
+        this(context, null);
+    }
+
+    public WaveformView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        paint.setColor(ContextCompat.getColor(context, R.color.colorPrimary));
+        paint.setStrokeWidth(1f);
+    }
+
+    /**
+     * Установка пиков
+     * @param peaks - пики или null, чтобы очистить представление
+     */
+    public void setPeaks(@Nullable WaveformPeaks peaks) {
+        if (this.peaks == peaks)
+            return;
+        this.peaks = peaks;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        if (peaks == null)
+            return;
+
+        int left = getPaddingLeft();
+        int top = getPaddingTop();
+        int width = getWidth() - left - getPaddingRight();
+        int height = getHeight() - top - getPaddingBottom();
+        if (width <= 0 || height <= 0)
+            return;
+
+        int level = peaks.selectLevel(width);
+        int count = peaks.getPeakCount(level);
+        if (count == 0)
+            return;
+
+        int columns = Math.min(width, count);
+        if (lines.length < columns * 4)
+            lines = new float[columns * 4];
+
+        float center = top + height / 2f;
+        float scale = height / 2f / Byte.MAX_VALUE;
+        for (int column = 0; column < columns; column++) {
+            /*
+             * Каждый столбец объединяет пики, попавшие в его промежуток
+             * */
+            int from = (int) ((long) column * count / columns);
+            int to = Math.max(from + 1, (int) ((long) (column + 1) * count / columns));
+            byte lo = Byte.MAX_VALUE;
+            byte hi = Byte.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                lo = (byte) Math.min(lo, peaks.getMin(level, i));
+                hi = (byte) Math.max(hi, peaks.getMax(level, i));
+            }
+            float x = left + (float) column * width / columns;
+            lines[column * 4] = x;
+            lines[column * 4 + 1] = center - hi * scale;
+            lines[column * 4 + 2] = x;
+            lines[column * 4 + 3] = center - lo * scale + 1f;
+        }
+        canvas.drawLines(lines, 0, columns * 4, paint);
+    }
+}
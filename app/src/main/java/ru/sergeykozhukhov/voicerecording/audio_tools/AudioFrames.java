@@ -0,0 +1,130 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+/**
+ * Разбор заголовков кадров AMR и ADTS
+ */
+public final class AudioFrames {
+
+    /**
+     * Сигнатура файла AMR-NB
+     */
+    public static final byte[] AMR_NB_MAGIC = {'#', '!', 'A', 'M', 'R', '\n'};
+
+    /**
+     * Сигнатура файла AMR-WB
+     */
+    public static final byte[] AMR_WB_MAGIC = {'#', '!', 'A', 'M', 'R', '-', 'W', 'B', '\n'};
+
+    /**
+     * Длительность кадра AMR в микросекундах
+     */
+    public static final long AMR_FRAME_DURATION_US = 20000L;
+
+    /**
+     * Количество отсчетов в кадре AAC
+     */
+    public static final int AAC_SAMPLES_PER_FRAME = 1024;
+
+    /**
+     * Размер заголовка ADTS без контрольной суммы
+     */
+    public static final int ADTS_HEADER_SIZE = 7;
+
+    /**
+     * Размеры кадров AMR-NB (включая байт заголовка) по типу кадра, 0 - недопустимый тип
+     */
+    private static final int[] AMR_NB_FRAME_SIZES = {13, 14, 16, 18, 20, 21, 27, 32, 6, 0, 0, 0, 0, 0, 0, 1};
+
+    /**
+     * Размеры кадров AMR-WB (включая байт заголовка) по типу кадра, 0 - недопустимый тип
+     */
+    private static final int[] AMR_WB_FRAME_SIZES = {18, 24, 33, 37, 41, 47, 51, 59, 61, 6, 0, 0, 0, 0, 1, 1};
+
+    /**
+     * Частоты дискретизации AAC по индексу заголовка ADTS
+     */
+    private static final int[] AAC_SAMPLE_RATES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+    };
+
+    private AudioFrames() {
+    }
+
+    /**
+     * Размер кадра AMR по байту заголовка кадра
+     * @param header - байт заголовка кадра
+     * @param wideband - AMR-WB или AMR-NB
+     * @return размер кадра в байтах или 0, если заголовок недопустим
+     */
+    public static int amrFrameSize(int header, boolean wideband) {
+        if ((header & 0x83) != 0)
+            return 0;
+        int type = (header >> 3) & 0x0F;
+        return wideband ? AMR_WB_FRAME_SIZES[type] : AMR_NB_FRAME_SIZES[type];
+    }
+
+    /**
+     * Частота дискретизации AMR
+     * @param wideband - AMR-WB или AMR-NB
+     */
+    public static int amrSampleRate(boolean wideband) {
+        return wideband ? 16000 : 8000;
+    }
+
+    /**
+     * Является ли начало буфера заголовком ADTS
+     * @param buffer - буфер
+     * @param offset - смещение заголовка
+     */
+    public static boolean isAdtsHeader(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) == 0xFF && (buffer[offset + 1] & 0xF6) == 0xF0;
+    }
+
+    /**
+     * Длина кадра ADTS вместе с заголовком
+     * @param buffer - буфер с заголовком (не менее ADTS_HEADER_SIZE байт)
+     * @param offset - смещение заголовка
+     * @return длина кадра в байтах
+     */
+    public static int adtsFrameLength(byte[] buffer, int offset) {
+        return ((buffer[offset + 3] & 0x03) << 11)
+                | ((buffer[offset + 4] & 0xFF) << 3)
+                | ((buffer[offset + 5] & 0xE0) >> 5);
+    }
+
+    /**
+     * Частота дискретизации по заголовку ADTS
+     * @return частота в герцах или AudioInfo.UNKNOWN
+     */
+    public static int adtsSampleRate(byte[] buffer, int offset) {
+        int index = (buffer[offset + 2] >> 2) & 0x0F;
+        return index < AAC_SAMPLE_RATES.length ? AAC_SAMPLE_RATES[index] : AudioInfo.UNKNOWN;
+    }
+
+    /**
+     * Количество каналов по заголовку ADTS
+     */
+    public static int adtsChannels(byte[] buffer, int offset) {
+        return ((buffer[offset + 2] & 0x01) << 2) | ((buffer[offset + 3] & 0xC0) >> 6);
+    }
+
+    /**
+     * Количество кадров AAC в кадре ADTS
+     */
+    public static int adtsRawBlocks(byte[] buffer, int offset) {
+        return (buffer[offset + 6] & 0x03) + 1;
+    }
+
+    /**
+     * Начинается ли буфер с заданной сигнатуры
+     */
+    public static boolean startsWith(byte[] buffer, int length, byte[] magic) {
+        if (length < magic.length)
+            return false;
+        for (int i = 0; i < magic.length; i++) {
+            if (buffer[i] != magic[i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,86 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Сведения о звуковом файле, полученные из заголовков контейнера
+ */
+public final class AudioInfo {
+
+    /**
+     * Формат файла
+     */
+    public enum Format {
+        MP4,
+        AMR_NB,
+        AMR_WB,
+        ADTS,
+        WAV
+    }
+
+    /**
+     * Значение, которое не удалось определить
+     */
+    public static final int UNKNOWN = 0;
+
+    /**
+     * Формат файла
+     */
+    private final Format format;
+
+    /**
+     * Длительность в микросекундах
+     */
+    private final long durationUs;
+
+    /**
+     * Частота дискретизации в герцах
+     */
+    private final int sampleRate;
+
+    /**
+     * Количество каналов
+     */
+    private final int channels;
+
+    /**
+     * Средний битрейт в битах в секунду
+     */
+    private final int bitrate;
+
+    public AudioInfo(@NonNull Format format, long durationUs, int sampleRate, int channels, int bitrate) {
+        this.format = format;
+        this.durationUs = durationUs;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitrate = bitrate;
+    }
+
+    @NonNull
+    public Format getFormat() {
+        return format;
+    }
+
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    /**
+     * Длительность в миллисекундах
+     */
+    public long getDurationMs() {
+        return durationUs / 1000L;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+}
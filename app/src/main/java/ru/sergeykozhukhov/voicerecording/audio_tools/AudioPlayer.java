@@ -1,49 +1,124 @@
 package ru.sergeykozhukhov.voicerecording.audio_tools;
 
 import android.media.MediaPlayer;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Класс для воспроизведения звуковых файлов
+ *
+ * Проигрыватели берутся из пула и подготавливаются асинхронно (prepareAsync),
+ * поэтому поток, из которого запускается воспроизведение, не блокируется.
+ * Файлы воспроизводятся очередью: пока звучит текущий файл, следующий подготавливается
+ * отдельным проигрывателем и связывается с текущим через setNextMediaPlayer,
+ * так что переход между файлами происходит без паузы.
  */
 public class AudioPlayer {
 
+    private static final String LOG = "AudioPlayer";
+
+    /**
+     * Поток, в котором работает проигрыватель
+     */
+    private final Handler handler;
+
+    /**
+     * Пул проигрывателей
+     */
+    private final MediaPlayerPool mediaPlayerPool;
+
+    /**
+     * Обработчик событий проигрывателя
+     */
+    private final OnAudioPlayerListener onAudioPlayerListener;
+
+    /**
+     * Очередь воспроизведения
+     */
+    private final List<File> queue = new ArrayList<>();
+
+    /**
+     * Позиция текущего файла в очереди
+     */
+    private int queueIndex;
+
     /**
      * Проигрывать файлов
      */
     private MediaPlayer mediaPlayer;
 
     /**
-     * Текущий файл
+     * Подготовлен ли текущий проигрыватель
+     */
+    private boolean prepared;
+
+    /**
+     * Проигрыватель следующего файла очереди
      */
-    private File audioFile;
+    private MediaPlayer nextMediaPlayer;
 
+    /**
+     * Подготовлен ли проигрыватель следующего файла и связан ли он с текущим
+     */
+    private boolean nextPrepared;
 
-    public AudioPlayer() {
+    /**
+     * Скорость воспроизведения
+     */
+    private float playbackRate = 1f;
+
+    /**
+     * Выполняется ли перемещение текущего проигрывателя
+     */
+    private boolean seeking;
+
+    /**
+     * Позиция выполняемого перемещения в миллисекундах
+     */
+    private long seekPosition;
+
+    /**
+     * Позиция, к которой нужно переместиться после завершения текущего перемещения, или -1
+     */
+    private long pendingSeekPosition = -1;
+
+    /**
+     * @param handler - поток, в котором вызываются методы и обработчик событий проигрывателя
+     * @param onAudioPlayerListener - обработчик событий проигрывателя
+     */
+    public AudioPlayer(@NonNull Handler handler, @NonNull OnAudioPlayerListener onAudioPlayerListener) {
+        this.handler = handler;
+        this.mediaPlayerPool = new MediaPlayerPool(handler);
+        this.onAudioPlayerListener = onAudioPlayerListener;
     }
 
     /**
-     * Воспроизведение файла
+     * Воспроизведение текущего файла очереди
+     * Воспроизведение начинается после асинхронной подготовки, о чем сообщается обработчику
      */
     public void start() {
-        try {
-            releasePlayer();
-            mediaPlayer = new MediaPlayer();
-            mediaPlayer.setDataSource(audioFile.getPath());
-            mediaPlayer.prepare();
-            mediaPlayer.start();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        recyclePlayers();
+        File file = getAudioFile();
+        if (file == null)
+            return;
+        mediaPlayer = preparePlayer(file);
     }
 
     /**
      * Завершение проигрывания файла
+     * Проигрыватели возвращаются в пул для повторного использования
      */
     public void stop() {
-        if (mediaPlayer != null) {
-            mediaPlayer.stop();
-        }
+        recyclePlayers();
     }
 
     /**
@@ -51,36 +126,299 @@ public class AudioPlayer {
      * воспроизведение с приостановленного места, если он был остановлен
      */
     public void pause() {
-        if (mediaPlayer != null) {
+        if (mediaPlayer != null && prepared) {
             if (mediaPlayer.isPlaying())
                 mediaPlayer.pause();
             else {
                 mediaPlayer.start();
+                applyPlaybackRate(mediaPlayer);
+            }
+        }
+    }
+
+    /**
+     * Перемещение к позиции текущего файла
+     * Пока проигрыватель выполняет предыдущее перемещение, новые запросы не передаются ему,
+     * а запоминается только последняя позиция, к которой он переместится по завершении текущего,
+     * поэтому при перетаскивании ползунка проигрыватель не накапливает очередь перемещений
+     * @param position - позиция в миллисекундах
+     */
+    public void seekTo(long position) {
+        if (mediaPlayer == null || !prepared)
+            return;
+        if (seeking) {
+            pendingSeekPosition = position;
+            return;
+        }
+        seeking = true;
+        seekPosition = position;
+        mediaPlayer.seekTo((int) position);
+    }
+
+    /**
+     * Завершение перемещения текущего проигрывателя, выполнение отложенного перемещения
+     */
+    private void onSeekCompleted() {
+        seeking = false;
+        if (pendingSeekPosition >= 0) {
+            long position = pendingSeekPosition;
+            pendingSeekPosition = -1;
+            seekTo(position);
+        }
+    }
+
+    /**
+     * Сброс состояния перемещения при смене текущего проигрывателя
+     */
+    private void resetSeek() {
+        seeking = false;
+        pendingSeekPosition = -1;
+    }
+
+    /**
+     * Досрочное завершение текущего файла, воспроизведение продолжается со следующего файла очереди
+     */
+    public void finishCurrent() {
+        File file = getAudioFile();
+        if (mediaPlayer == null || !prepared || file == null)
+            return;
+        /*
+         * Связанный следующий проигрыватель запускается сам только при естественном завершении текущего
+         * */
+        if (nextMediaPlayer != null && nextPrepared) {
+            mediaPlayer.setNextMediaPlayer(null);
+            mediaPlayer.pause();
+            nextMediaPlayer.start();
+        }
+        onCurrentCompleted(file);
+    }
+
+    /**
+     * Установка скорости воспроизведения (API 23+)
+     * Скорость применяется к проигрывателю только во время воспроизведения,
+     * так как установка скорости запускает приостановленный проигрыватель
+     * @param rate - скорость воспроизведения
+     */
+    public void setPlaybackRate(float rate) {
+        playbackRate = rate;
+        if (mediaPlayer != null && prepared && mediaPlayer.isPlaying())
+            applyPlaybackRate(mediaPlayer);
+    }
+
+    public float getPlaybackRate() {
+        return playbackRate;
+    }
+
+    /**
+     * Применение скорости воспроизведения к запущенному проигрывателю
+     * @param mp - проигрыватель
+     */
+    private void applyPlaybackRate(@NonNull MediaPlayer mp) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+            return;
+        if (mp.getPlaybackParams().getSpeed() != playbackRate)
+            mp.setPlaybackParams(mp.getPlaybackParams().setSpeed(playbackRate));
+    }
+
+    /**
+     * Освобождение ресурсов проигрывателей и всех свободных проигрывателей пула
+     */
+    public void release() {
+        recyclePlayers();
+        mediaPlayerPool.releaseIdle();
+    }
+
+    /**
+     * Создание проигрывателя файла и запуск его асинхронной подготовки
+     * @param file - файл
+     * @return проигрыватель в состоянии Preparing
+     */
+    @NonNull
+    private MediaPlayer preparePlayer(@NonNull final File file) {
+        MediaPlayer player = mediaPlayerPool.acquire();
+        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                if (mp == mediaPlayer) {
+                    prepared = true;
+                    mp.start();
+                    applyPlaybackRate(mp);
+                    onAudioPlayerListener.onStarted(file, mp.getDuration());
+                    prepareNext();
+                } else if (mp == nextMediaPlayer) {
+                    nextPrepared = true;
+                    if (mediaPlayer != null && prepared)
+                        mediaPlayer.setNextMediaPlayer(mp);
+                }
+            }
+        });
+        player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+            @Override
+            public void onCompletion(MediaPlayer mp) {
+                if (mp == mediaPlayer)
+                    onCurrentCompleted(file);
+            }
+        });
+        player.setOnSeekCompleteListener(new MediaPlayer.OnSeekCompleteListener() {
+            @Override
+            public void onSeekComplete(MediaPlayer mp) {
+                if (mp == mediaPlayer)
+                    onSeekCompleted();
+            }
+        });
+        player.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer mp, int what, int extra) {
+                Log.e(LOG, "error " + what + ", " + extra + ": " + file);
+                onPlayerError(mp, file);
+                return true;
             }
+        });
+        try {
+            player.setDataSource(file.getPath());
+            player.prepareAsync();
+        } catch (Exception e) {
+            e.printStackTrace();
+            /*
+             * Ошибка обрабатывается отдельным сообщением, так как проигрыватель
+             * еще не назначен текущим или следующим
+             * */
+            final MediaPlayer failedPlayer = player;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onPlayerError(failedPlayer, file);
+                }
+            });
         }
+        return player;
     }
 
     /**
-     * Освобождение ресурсов проигрывателя
+     * Подготовка следующего файла очереди, пока воспроизводится текущий
      */
-    private void releasePlayer() {
+    private void prepareNext() {
+        if (nextMediaPlayer != null || queueIndex + 1 >= queue.size())
+            return;
+        nextPrepared = false;
+        nextMediaPlayer = preparePlayer(queue.get(queueIndex + 1));
+    }
+
+    /**
+     * Завершение воспроизведения текущего файла
+     * Если следующий файл был связан с текущим, он уже воспроизводится и становится текущим,
+     * иначе воспроизведение следующего файла запускается заново
+     * @param file - завершенный файл
+     */
+    private void onCurrentCompleted(@NonNull File file) {
+        if (queueIndex + 1 >= queue.size()) {
+            recyclePlayers();
+            onAudioPlayerListener.onCompleted(file);
+            return;
+        }
+        queueIndex++;
+        if (nextMediaPlayer != null && nextPrepared) {
+            mediaPlayerPool.recycle(mediaPlayer);
+            mediaPlayer = nextMediaPlayer;
+            prepared = true;
+            resetSeek();
+            nextMediaPlayer = null;
+            nextPrepared = false;
+            applyPlaybackRate(mediaPlayer);
+            onAudioPlayerListener.onStarted(queue.get(queueIndex), mediaPlayer.getDuration());
+            prepareNext();
+        } else {
+            start();
+        }
+    }
+
+    /**
+     * Ошибка подготовки или воспроизведения файла
+     * Файл пропускается, воспроизведение продолжается со следующего файла очереди
+     * @param mp - проигрыватель, в котором произошла ошибка
+     * @param file - файл
+     */
+    private void onPlayerError(@NonNull MediaPlayer mp, @NonNull File file) {
+        if (mp == nextMediaPlayer) {
+            mediaPlayerPool.recycle(nextMediaPlayer);
+            nextMediaPlayer = null;
+            nextPrepared = false;
+            if (mediaPlayer != null && prepared)
+                mediaPlayer.setNextMediaPlayer(null);
+            return;
+        }
+        if (mp != mediaPlayer)
+            return;
+        recyclePlayers();
+        boolean queueContinues = queueIndex + 1 < queue.size();
+        onAudioPlayerListener.onError(file, queueContinues);
+        if (queueContinues) {
+            queueIndex++;
+            start();
+        }
+    }
+
+    /**
+     * Возвращение текущего и следующего проигрывателей в пул
+     */
+    private void recyclePlayers() {
+        if (nextMediaPlayer != null) {
+            mediaPlayerPool.recycle(nextMediaPlayer);
+            nextMediaPlayer = null;
+            nextPrepared = false;
+        }
         if (mediaPlayer != null) {
-            mediaPlayer.release();
+            mediaPlayerPool.recycle(mediaPlayer);
             mediaPlayer = null;
+            prepared = false;
         }
+        resetSeek();
     }
 
+    /**
+     * Текущий файл очереди
+     */
+    @Nullable
     public File getAudioFile() {
-        return audioFile;
+        return queueIndex < queue.size() ? queue.get(queueIndex) : null;
     }
 
-    public void setAudioFile(File audioFile) {
-        this.audioFile = audioFile;
+    /**
+     * Установка очереди из одного файла
+     * @param audioFile - файл
+     */
+    public void setAudioFile(@NonNull File audioFile) {
+        setQueue(Collections.singletonList(audioFile), 0);
     }
 
-    public MediaPlayer getMediaPlayer() {
-        return mediaPlayer;
+    /**
+     * Установка очереди воспроизведения
+     * @param files - файлы в порядке воспроизведения
+     * @param startIndex - позиция файла, с которого начинается воспроизведение
+     */
+    public void setQueue(@NonNull List<File> files, int startIndex) {
+        queue.clear();
+        queue.addAll(files);
+        queueIndex = startIndex;
     }
 
+    /**
+     * Подготовлен ли текущий файл к воспроизведению
+     */
+    public boolean isPrepared() {
+        return prepared;
+    }
 
+    /**
+     * Текущая позиция воспроизведения в миллисекундах
+     * Во время перемещения возвращается последняя запрошенная позиция,
+     * чтобы отображаемый прогресс не возвращался к позиции до перемещения
+     */
+    public long getCurrentPosition() {
+        if (mediaPlayer == null || !prepared)
+            return 0L;
+        if (seeking)
+            return pendingSeekPosition >= 0 ? pendingSeekPosition : seekPosition;
+        return mediaPlayer.getCurrentPosition();
+    }
 }
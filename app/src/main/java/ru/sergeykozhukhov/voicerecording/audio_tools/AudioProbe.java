@@ -0,0 +1,433 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Определение длительности и формата звукового файла по заголовкам контейнера
+ *
+ * Поддерживаются 3GP/MP4 (moov/mvhd, mdhd, stsd), AMR-NB/AMR-WB, ADTS AAC и WAV (fmt/data).
+ * Читаются только заголовки: декодер не создается, а из сжатых потоков без индекса
+ * длительность оценивается по первым кадрам и размеру файла.
+ */
+public final class AudioProbe {
+
+    private static final String LOG = "AudioProbe";
+
+    /**
+     * Размер буфера, которого достаточно для распознавания формата
+     */
+    private static final int SNIFF_SIZE = 16;
+
+    /**
+     * Количество кадров ADTS, по которым оценивается средний размер кадра
+     */
+    private static final int ADTS_SAMPLE_FRAMES = 32;
+
+    /**
+     * Максимальный размер коробки MP4, которая читается в память целиком (moov голосовой записи - единицы килобайт)
+     */
+    private static final int MAX_BOX_SIZE = 4 * 1024 * 1024;
+
+    private static final int BOX_MOOV = fourCc("moov");
+    private static final int BOX_MVHD = fourCc("mvhd");
+    private static final int BOX_TRAK = fourCc("trak");
+    private static final int BOX_MDIA = fourCc("mdia");
+    private static final int BOX_MDHD = fourCc("mdhd");
+    private static final int BOX_HDLR = fourCc("hdlr");
+    private static final int BOX_MINF = fourCc("minf");
+    private static final int BOX_STBL = fourCc("stbl");
+    private static final int BOX_STSD = fourCc("stsd");
+    private static final int BOX_FTYP = fourCc("ftyp");
+    private static final int HANDLER_SOUN = fourCc("soun");
+    private static final int ENTRY_SAMR = fourCc("samr");
+    private static final int ENTRY_SAWB = fourCc("sawb");
+
+    private static final int CHUNK_RIFF = fourCc("RIFF");
+    private static final int CHUNK_WAVE = fourCc("WAVE");
+    private static final int CHUNK_FMT = fourCc("fmt ");
+    private static final int CHUNK_DATA = fourCc("data");
+
+    private AudioProbe() {
+    }
+
+    /**
+     * Определение сведений о файле
+     * @param file - звуковой файл
+     * @return сведения или null, если формат не распознан или файл поврежден
+     */
+    @Nullable
+    @WorkerThread
+    public static AudioInfo probe(@NonNull File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] head = new byte[SNIFF_SIZE];
+            int read = readFully(raf, 0L, head, 0, head.length);
+
+            if (AudioFrames.startsWith(head, read, AudioFrames.AMR_WB_MAGIC))
+                return probeAmr(raf, true);
+            if (AudioFrames.startsWith(head, read, AudioFrames.AMR_NB_MAGIC))
+                return probeAmr(raf, false);
+            if (read >= 12 && readInt(head, 0) == CHUNK_RIFF && readInt(head, 8) == CHUNK_WAVE)
+                return probeWav(raf);
+            if (read >= 8 && readInt(head, 4) == BOX_FTYP)
+                return probeMp4(raf);
+            if (read >= AudioFrames.ADTS_HEADER_SIZE && AudioFrames.isAdtsHeader(head, 0))
+                return probeAdts(raf);
+        } catch (IOException e) {
+            Log.w(LOG, "probe failed: " + file, e);
+        }
+        return null;
+    }
+
+    /**
+     * AMR: все кадры длятся 20 мс, размер кадра задается его типом.
+     * Голосовые записи используют постоянный режим кодирования, поэтому количество кадров
+     * оценивается по размеру первого кадра.
+     */
+    @Nullable
+    private static AudioInfo probeAmr(@NonNull RandomAccessFile raf, boolean wideband) throws IOException {
+        long offset = wideband ? AudioFrames.AMR_WB_MAGIC.length : AudioFrames.AMR_NB_MAGIC.length;
+        long payload = raf.length() - offset;
+        if (payload <= 0)
+            return null;
+        raf.seek(offset);
+        int frameSize = AudioFrames.amrFrameSize(raf.read(), wideband);
+        if (frameSize <= 0)
+            return null;
+
+        long frames = payload / frameSize;
+        long durationUs = frames * AudioFrames.AMR_FRAME_DURATION_US;
+        int bitrate = (int) (frameSize * 8L * 1000000L / AudioFrames.AMR_FRAME_DURATION_US);
+        return new AudioInfo(wideband ? AudioInfo.Format.AMR_WB : AudioInfo.Format.AMR_NB,
+                durationUs, AudioFrames.amrSampleRate(wideband), 1, bitrate);
+    }
+
+    /**
+     * ADTS AAC: средний размер кадра оценивается по первым кадрам, длительность - по размеру файла
+     * Неполный последний кадр (запись прервана) не учитывается
+     */
+    @Nullable
+    private static AudioInfo probeAdts(@NonNull RandomAccessFile raf) throws IOException {
+        long fileLength = raf.length();
+        byte[] header = new byte[AudioFrames.ADTS_HEADER_SIZE];
+        long offset = 0L;
+        long bytes = 0L;
+        int blocks = 0;
+        int frames = 0;
+        int sampleRate = AudioInfo.UNKNOWN;
+        int channels = AudioInfo.UNKNOWN;
+        boolean reachedEnd = false;
+
+        while (frames < ADTS_SAMPLE_FRAMES) {
+            if (offset + header.length > fileLength) {
+                reachedEnd = true;
+                break;
+            }
+            if (readFully(raf, offset, header, 0, header.length) < header.length || !AudioFrames.isAdtsHeader(header, 0))
+                break;
+            int frameLength = AudioFrames.adtsFrameLength(header, 0);
+            if (frameLength < header.length)
+                break;
+            if (offset + frameLength > fileLength) {
+                reachedEnd = true;
+                break;
+            }
+            if (frames == 0) {
+                sampleRate = AudioFrames.adtsSampleRate(header, 0);
+                channels = AudioFrames.adtsChannels(header, 0);
+            }
+            blocks += AudioFrames.adtsRawBlocks(header, 0);
+            bytes += frameLength;
+            offset += frameLength;
+            frames++;
+        }
+        if (frames == 0 || sampleRate == AudioInfo.UNKNOWN)
+            return null;
+
+        long totalBlocks = reachedEnd ? blocks : fileLength * blocks / bytes;
+        long durationUs = totalBlocks * AudioFrames.AAC_SAMPLES_PER_FRAME * 1000000L / sampleRate;
+        return new AudioInfo(AudioInfo.Format.ADTS, durationUs, sampleRate, channels, bitrate(fileLength, durationUs));
+    }
+
+    /**
+     * WAV: параметры берутся из чанка fmt, длительность - из размера чанка data.
+     * Если запись была прервана и размер не записан, используется остаток файла.
+     */
+    @Nullable
+    private static AudioInfo probeWav(@NonNull RandomAccessFile raf) throws IOException {
+        long fileLength = raf.length();
+        byte[] chunk = new byte[16];
+        long offset = 12L;
+        int channels = AudioInfo.UNKNOWN;
+        int sampleRate = AudioInfo.UNKNOWN;
+        int byteRate = 0;
+
+        while (offset + 8 <= fileLength) {
+            if (readFully(raf, offset, chunk, 0, 8) < 8)
+                break;
+            int id = readInt(chunk, 0);
+            long size = readIntLe(chunk, 4) & 0xFFFFFFFFL;
+            long body = offset + 8;
+            if (id == CHUNK_FMT) {
+                if (size < 16 || readFully(raf, body, chunk, 0, 16) < 16)
+                    return null;
+                channels = readShortLe(chunk, 2);
+                sampleRate = readIntLe(chunk, 4);
+                byteRate = readIntLe(chunk, 8);
+            } else if (id == CHUNK_DATA) {
+                if (byteRate <= 0)
+                    return null;
+                long available = fileLength - body;
+                long dataSize = size == 0L || size == 0xFFFFFFFFL || size > available ? available : size;
+                long durationUs = dataSize * 1000000L / byteRate;
+                return new AudioInfo(AudioInfo.Format.WAV, durationUs, sampleRate, channels, byteRate * 8);
+            }
+            offset = body + size + (size & 1L);
+        }
+        return null;
+    }
+
+    /**
+     * 3GP/MP4: длительность берется из mdhd звуковой дорожки (или из mvhd, если дорожка не найдена),
+     * каналы и частота - из звуковой записи stsd
+     */
+    @Nullable
+    private static AudioInfo probeMp4(@NonNull RandomAccessFile raf) throws IOException {
+        long fileLength = raf.length();
+        byte[] header = new byte[16];
+        long offset = 0L;
+
+        while (offset + 8 <= fileLength) {
+            if (readFully(raf, offset, header, 0, 16) < 8)
+                return null;
+            long size = readInt(header, 0) & 0xFFFFFFFFL;
+            int type = readInt(header, 4);
+            int headerSize = 8;
+            if (size == 1L) {
+                size = readLong(header, 8);
+                headerSize = 16;
+            } else if (size == 0L) {
+                size = fileLength - offset;
+            }
+            if (size < headerSize)
+                return null;
+
+            if (type == BOX_MOOV) {
+                long bodySize = size - headerSize;
+                if (bodySize > MAX_BOX_SIZE || offset + size > fileLength)
+                    return null;
+                byte[] moov = new byte[(int) bodySize];
+                if (readFully(raf, offset + headerSize, moov, 0, moov.length) < moov.length)
+                    return null;
+                return parseMoov(moov, fileLength);
+            }
+            offset += size;
+        }
+        return null;
+    }
+
+    /**
+     * Разбор содержимого moov
+     */
+    @Nullable
+    private static AudioInfo parseMoov(@NonNull byte[] moov, long fileLength) {
+        Mp4Track movie = null;
+        Mp4Track audio = null;
+
+        int offset = 0;
+        while (offset + 8 <= moov.length) {
+            int size = boxSize(moov, offset, moov.length);
+            if (size < 0)
+                break;
+            int type = readInt(moov, offset + 4);
+            if (type == BOX_MVHD) {
+                movie = parseTimedHeader(moov, offset + 8);
+            } else if (type == BOX_TRAK && audio == null) {
+                audio = parseTrak(moov, offset + 8, offset + size);
+            }
+            offset += size;
+        }
+
+        Mp4Track track = audio != null && audio.durationUs > 0 ? audio : movie;
+        if (track == null)
+            return null;
+        int sampleRate = audio != null ? audio.sampleRate : AudioInfo.UNKNOWN;
+        int channels = audio != null ? audio.channels : AudioInfo.UNKNOWN;
+        return new AudioInfo(AudioInfo.Format.MP4, track.durationUs, sampleRate, channels, bitrate(fileLength, track.durationUs));
+    }
+
+    /**
+     * Разбор trak: возвращает сведения только для звуковой дорожки
+     */
+    @Nullable
+    private static Mp4Track parseTrak(@NonNull byte[] data, int start, int end) {
+        int mdia = findBox(data, start, end, BOX_MDIA);
+        if (mdia < 0)
+            return null;
+        int mdiaEnd = mdia + boxSize(data, mdia, end);
+
+        int hdlr = findBox(data, mdia + 8, mdiaEnd, BOX_HDLR);
+        if (hdlr < 0 || hdlr + 20 > mdiaEnd || readInt(data, hdlr + 16) != HANDLER_SOUN)
+            return null;
+
+        int mdhd = findBox(data, mdia + 8, mdiaEnd, BOX_MDHD);
+        Mp4Track track = mdhd >= 0 ? parseTimedHeader(data, mdhd + 8) : null;
+        if (track == null)
+            track = new Mp4Track();
+
+        int minf = findBox(data, mdia + 8, mdiaEnd, BOX_MINF);
+        if (minf < 0)
+            return track;
+        int minfEnd = minf + boxSize(data, minf, mdiaEnd);
+        int stbl = findBox(data, minf + 8, minfEnd, BOX_STBL);
+        if (stbl < 0)
+            return track;
+        int stblEnd = stbl + boxSize(data, stbl, minfEnd);
+        int stsd = findBox(data, stbl + 8, stblEnd, BOX_STSD);
+        if (stsd < 0)
+            return track;
+
+        /*
+         * stsd: версия и флаги (4), количество записей (4), затем первая запись:
+         * размер (4), тип (4), резерв (6), индекс ссылки (2), резерв (8),
+         * каналы (2), разрядность (2), резерв (4), частота 16.16 (4)
+         * */
+        int entry = stsd + 16;
+        if (entry + 36 > stblEnd)
+            return track;
+        int entryType = readInt(data, entry + 4);
+        track.channels = readShort(data, entry + 24);
+        track.sampleRate = (int) ((readInt(data, entry + 32) & 0xFFFFFFFFL) >>> 16);
+        if (entryType == ENTRY_SAMR) {
+            track.sampleRate = AudioFrames.amrSampleRate(false);
+        } else if (entryType == ENTRY_SAWB) {
+            track.sampleRate = AudioFrames.amrSampleRate(true);
+        }
+        return track;
+    }
+
+    /**
+     * Разбор mvhd/mdhd: версия 0 хранит время 32-битными значениями, версия 1 - 64-битными
+     * @param data - буфер
+     * @param body - смещение содержимого коробки
+     */
+    @Nullable
+    private static Mp4Track parseTimedHeader(@NonNull byte[] data, int body) {
+        if (body + 4 > data.length)
+            return null;
+        int version = data[body] & 0xFF;
+        long timescale;
+        long duration;
+        if (version == 1) {
+            if (body + 32 > data.length)
+                return null;
+            timescale = readInt(data, body + 20) & 0xFFFFFFFFL;
+            duration = readLong(data, body + 24);
+        } else {
+            if (body + 20 > data.length)
+                return null;
+            timescale = readInt(data, body + 12) & 0xFFFFFFFFL;
+            duration = readInt(data, body + 16) & 0xFFFFFFFFL;
+        }
+        if (timescale == 0L || duration < 0L)
+            return null;
+        Mp4Track track = new Mp4Track();
+        track.durationUs = duration * 1000000L / timescale;
+        return track;
+    }
+
+    /**
+     * Поиск дочерней коробки заданного типа
+     * @return смещение коробки или -1
+     */
+    private static int findBox(@NonNull byte[] data, int start, int end, int type) {
+        int offset = start;
+        while (offset + 8 <= end) {
+            int size = boxSize(data, offset, end);
+            if (size < 0)
+                return -1;
+            if (readInt(data, offset + 4) == type)
+                return offset;
+            offset += size;
+        }
+        return -1;
+    }
+
+    /**
+     * Размер коробки внутри буфера
+     * @return размер или -1, если коробка выходит за пределы родителя
+     */
+    private static int boxSize(@NonNull byte[] data, int offset, int end) {
+        long size = readInt(data, offset) & 0xFFFFFFFFL;
+        if (size == 0L)
+            size = end - offset;
+        if (size < 8 || offset + size > end)
+            return -1;
+        return (int) size;
+    }
+
+    /**
+     * Средний битрейт
+     */
+    private static int bitrate(long length, long durationUs) {
+        return durationUs > 0 ? (int) (length * 8L * 1000000L / durationUs) : AudioInfo.UNKNOWN;
+    }
+
+    /**
+     * Чтение с заданного смещения до заполнения буфера или конца файла
+     * @return количество прочитанных байт
+     */
+    private static int readFully(@NonNull RandomAccessFile raf, long position, byte[] buffer, int offset, int length) throws IOException {
+        raf.seek(position);
+        int total = 0;
+        while (total < length) {
+            int read = raf.read(buffer, offset + total, length - total);
+            if (read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+
+    private static int fourCc(@NonNull String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        return ((readInt(data, offset) & 0xFFFFFFFFL) << 32) | (readInt(data, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int readIntLe(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8)
+                | ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24);
+    }
+
+    private static int readShortLe(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+
+    /**
+     * Сведения о дорожке MP4
+     */
+    private static final class Mp4Track {
+        long durationUs;
+        int sampleRate = AudioInfo.UNKNOWN;
+        int channels = AudioInfo.UNKNOWN;
+    }
+}
@@ -0,0 +1,173 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Чтение кадров записи из потока кадров (AMR, ADTS) по таблице перемотки
+ *
+ * Перемещение точно до кадра: по таблице находится ближайшая предшествующая запись,
+ * от нее читаются только заголовки кадров до кадра, содержащего заданное время.
+ */
+public class FrameReader implements Closeable {
+
+    /**
+     * Размер буфера копирования
+     */
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Файл записи
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * Таблица перемотки записи
+     */
+    private final SeekTable seekTable;
+
+    /**
+     * Буфер заголовка кадра
+     */
+    private final byte[] header = new byte[SeekTable.MAX_HEADER_SIZE];
+
+    /**
+     * Смещение текущего кадра
+     */
+    private long offset;
+
+    /**
+     * Позиция текущего кадра в отсчетах
+     */
+    private long position;
+
+    /**
+     * @param audio - файл записи
+     * @param seekTable - таблица перемотки этой записи
+     * @throws IOException - если файл не удалось открыть
+     */
+    public FrameReader(@NonNull File audio, @NonNull SeekTable seekTable) throws IOException {
+        this.file = new RandomAccessFile(audio, "r");
+        this.seekTable = seekTable;
+        this.offset = seekTable.getDataOffset();
+        this.position = 0L;
+    }
+
+    /**
+     * Перемещение к кадру, содержащему заданное время
+     * @param timeUs - время в микросекундах
+     * @return время начала кадра в микросекундах (длительность записи, если время за концом записи)
+     * @throws IOException - ошибка чтения файла
+     */
+    @WorkerThread
+    public long seekTo(long timeUs) throws IOException {
+        int entry = seekTable.findEntry(timeUs);
+        offset = seekTable.getOffset(entry);
+        position = seekTable.getPosition(entry);
+        long target = seekTable.toSamples(timeUs);
+        while (offset < seekTable.getDataEnd()) {
+            int length = readHeader();
+            int samples = SeekTable.frameSamples(seekTable.getFormat(), header, seekTable.getSampleRate());
+            if (length <= 0 || position + samples > target)
+                break;
+            offset += length;
+            position += samples;
+        }
+        return seekTable.toTimeUs(position);
+    }
+
+    /**
+     * Чтение текущего кадра и переход к следующему
+     * @param buffer - буфер кадра
+     * @return длина кадра или -1 в конце записи
+     * @throws IOException - ошибка чтения файла или кадр не помещается в буфер
+     */
+    @WorkerThread
+    public int readFrame(@NonNull byte[] buffer) throws IOException {
+        if (offset >= seekTable.getDataEnd())
+            return -1;
+        int length = readHeader();
+        if (length <= 0)
+            return -1;
+        if (length > buffer.length)
+            throw new IOException("frame too large: " + length);
+        file.seek(offset);
+        file.readFully(buffer, 0, length);
+        offset += length;
+        position += SeekTable.frameSamples(seekTable.getFormat(), header, seekTable.getSampleRate());
+        return length;
+    }
+
+    /**
+     * Копирование кадров отрезка записи без перекодирования
+     * Копируются целые кадры от кадра, содержащего начало, до кадра, содержащего конец отрезка
+     * @param startUs - начало отрезка в микросекундах
+     * @param endUs - конец отрезка в микросекундах
+     * @param out - поток, в который записываются кадры
+     * @return количество скопированных байтов
+     * @throws IOException - ошибка чтения или записи
+     */
+    @WorkerThread
+    public long copyRange(long startUs, long endUs, @NonNull OutputStream out) throws IOException {
+        seekTo(endUs);
+        long endOffset = offset;
+        if (endOffset < seekTable.getDataEnd()) {
+            int length = readHeader();
+            if (length > 0)
+                endOffset += length;
+        }
+        seekTo(startUs);
+        long startOffset = offset;
+
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        file.seek(startOffset);
+        long left = endOffset - startOffset;
+        while (left > 0L) {
+            int read = file.read(buffer, 0, (int) Math.min(buffer.length, left));
+            if (read < 0)
+                break;
+            out.write(buffer, 0, read);
+            left -= read;
+        }
+        return endOffset - startOffset - left;
+    }
+
+    /**
+     * Время текущего кадра в микросекундах
+     */
+    public long getTimeUs() {
+        return seekTable.toTimeUs(position);
+    }
+
+    /**
+     * Смещение текущего кадра в файле
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Чтение заголовка текущего кадра
+     * @return длина кадра или 0, если заголовок недопустим или выходит за конец записи
+     */
+    private int readHeader() throws IOException {
+        int headerSize = SeekTable.headerSize(seekTable.getFormat());
+        if (offset + headerSize > seekTable.getDataEnd())
+            return 0;
+        file.seek(offset);
+        file.readFully(header, 0, headerSize);
+        int length = SeekTable.frameLength(seekTable.getFormat(), header);
+        return length >= headerSize && offset + length <= seekTable.getDataEnd() ? length : 0;
+    }
+}
@@ -0,0 +1,149 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+/**
+ * Измерение уровня записываемого сигнала окнами фиксированной длины
+ *
+ * Отсчеты передаются потоком захвата, готовые кадры уровня забирает другой поток.
+ * Кадры хранятся в заранее выделенном кольцевом буфере без блокировок (один пишущий и один читающий поток),
+ * поэтому измерение не выделяет память и не задерживает захват. Если кадры не забираются,
+ * новые кадры отбрасываются.
+ */
+public class LevelMeter {
+
+    /**
+     * Наибольшее значение 16-битного отсчета
+     */
+    private static final float FULL_SCALE = 32768f;
+
+    /**
+     * Среднеквадратичные уровни кадров (0..1)
+     */
+    private final float[] rmsLevels;
+
+    /**
+     * Пиковые уровни кадров (0..1)
+     */
+    private final float[] peakLevels;
+
+    /**
+     * Позиции концов кадров в отсчетах от начала записи
+     */
+    private final long[] positions;
+
+    /**
+     * Количество записанных кадров (изменяется только потоком захвата)
+     */
+    private volatile long writeCount;
+
+    /**
+     * Количество прочитанных кадров (изменяется только читающим потоком)
+     */
+    private volatile long readCount;
+
+    /**
+     * Длина окна в отсчетах
+     */
+    private volatile int windowSamples;
+
+    /**
+     * Количество отсчетов в текущем окне
+     */
+    private int samplesInWindow;
+
+    /**
+     * Сумма квадратов отсчетов текущего окна
+     */
+    private double sumSquares;
+
+    /**
+     * Наибольшая амплитуда текущего окна
+     */
+    private int peak;
+
+    /**
+     * Количество обработанных отсчетов
+     */
+    private long position;
+
+    /**
+     * @param capacity - количество кадров, которые могут ожидать чтения
+     * @param windowSamples - длина окна в отсчетах
+     */
+    public LevelMeter(int capacity, int windowSamples) {
+        rmsLevels = new float[capacity];
+        peakLevels = new float[capacity];
+        positions = new long[capacity];
+        setWindowSamples(windowSamples);
+    }
+
+    /**
+     * Установка длины окна, действует со следующего окна
+     * @param windowSamples - длина окна в отсчетах
+     */
+    public void setWindowSamples(int windowSamples) {
+        this.windowSamples = Math.max(1, windowSamples);
+    }
+
+    /**
+     * Начало измерения новой записи (вызывается до запуска потока захвата)
+     */
+    public void reset() {
+        samplesInWindow = 0;
+        sumSquares = 0d;
+        peak = 0;
+        position = 0L;
+        readCount = writeCount;
+    }
+
+    /**
+     * Обработка отсчетов (вызывается потоком захвата)
+     */
+    public void process(short[] samples, int offset, int length) {
+        int window = windowSamples;
+        for (int i = offset; i < offset + length; i++) {
+            int sample = samples[i];
+            sumSquares += sample * sample;
+            int amplitude = Math.abs(sample);
+            if (amplitude > peak)
+                peak = amplitude;
+            if (++samplesInWindow >= window) {
+                position += samplesInWindow;
+                publish();
+            }
+        }
+    }
+
+    /**
+     * Чтение готовых кадров (вызывается читающим потоком)
+     * @return количество прочитанных кадров
+     */
+    public int drain(float[] rms, float[] peaks, long[] ends, int max) {
+        long read = readCount;
+        int count = (int) Math.min(max, writeCount - read);
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((read + i) % rmsLevels.length);
+            rms[i] = rmsLevels[index];
+            peaks[i] = peakLevels[index];
+            ends[i] = positions[index];
+        }
+        readCount = read + count;
+        return count;
+    }
+
+    /**
+     * Запись кадра текущего окна и начало следующего
+     */
+    private void publish() {
+        long write = writeCount;
+        if (write - readCount < rmsLevels.length) {
+            int index = (int) (write % rmsLevels.length);
+            rmsLevels[index] = (float) Math.sqrt(sumSquares / samplesInWindow) / FULL_SCALE;
+            peakLevels[index] = Math.min(1f, peak / FULL_SCALE);
+            positions[index] = position;
+            writeCount = write + 1;
+        }
+        samplesInWindow = 0;
+        sumSquares = 0d;
+        peak = 0;
+    }
+}
@@ -0,0 +1,96 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.media.MediaPlayer;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+
+/**
+ * Пул проигрывателей MediaPlayer
+ *
+ * Возвращенный проигрыватель сбрасывается через reset() и используется повторно,
+ * что избавляет от создания нативного проигрывателя на каждое воспроизведение.
+ * Проигрыватели, не использованные в течение IDLE_TTL, освобождаются.
+ * Все методы вызываются в потоке handler.
+ */
+public class MediaPlayerPool {
+
+    /**
+     * Время простоя, после которого свободные проигрыватели освобождаются
+     */
+    private static final long IDLE_TTL = 30000L;
+
+    /**
+     * Максимальное количество свободных проигрывателей
+     */
+    private static final int MAX_IDLE = 2;
+
+    /**
+     * Поток, в котором работает пул
+     */
+    private final Handler handler;
+
+    /**
+     * Свободные проигрыватели
+     */
+    private final ArrayDeque<MediaPlayer> idlePlayers = new ArrayDeque<>();
+
+    /**
+     * Освобождение свободных проигрывателей по истечении времени простоя
+     */
+    private final Runnable releaseIdleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            releaseIdle();
+        }
+    };
+
+    public MediaPlayerPool(@NonNull Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Получение проигрывателя в состоянии Idle
+     * @return свободный проигрыватель из пула или новый проигрыватель
+     */
+    @NonNull
+    public MediaPlayer acquire() {
+        MediaPlayer mediaPlayer = idlePlayers.pollFirst();
+        if (idlePlayers.isEmpty())
+            handler.removeCallbacks(releaseIdleRunnable);
+        return mediaPlayer != null ? mediaPlayer : new MediaPlayer();
+    }
+
+    /**
+     * Возвращение проигрывателя в пул
+     * @param mediaPlayer - проигрыватель в любом состоянии
+     */
+    public void recycle(@NonNull MediaPlayer mediaPlayer) {
+        mediaPlayer.setOnPreparedListener(null);
+        mediaPlayer.setOnCompletionListener(null);
+        mediaPlayer.setOnErrorListener(null);
+        mediaPlayer.setOnSeekCompleteListener(null);
+        mediaPlayer.reset();
+
+        if (idlePlayers.size() >= MAX_IDLE) {
+            mediaPlayer.release();
+            return;
+        }
+        idlePlayers.addFirst(mediaPlayer);
+        handler.removeCallbacks(releaseIdleRunnable);
+        handler.postDelayed(releaseIdleRunnable, IDLE_TTL);
+    }
+
+    /**
+     * Освобождение всех свободных проигрывателей
+     */
+    public void releaseIdle() {
+        handler.removeCallbacks(releaseIdleRunnable);
+        MediaPlayer mediaPlayer;
+        while ((mediaPlayer = idlePlayers.pollFirst()) != null) {
+            mediaPlayer.release();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+
+/**
+ * Обработчик событий проигрывателя AudioPlayer
+ */
+public interface OnAudioPlayerListener {
+    /**
+     * Файл подготовлен и воспроизводится (вызывается для каждого файла очереди)
+     * @param file - воспроизводимый файл
+     * @param duration - длительность файла в миллисекундах
+     */
+    void onStarted(@NonNull File file, long duration);
+
+    /**
+     * Воспроизведение очереди завершено
+     * @param file - последний воспроизведенный файл
+     */
+    void onCompleted(@NonNull File file);
+
+    /**
+     * Ошибка подготовки или воспроизведения файла
+     * Если в очереди есть следующий файл, воспроизведение продолжается с него
+     * @param file - файл
+     * @param queueContinues - true, если воспроизведение продолжается со следующего файла очереди
+     */
+    void onError(@NonNull File file, boolean queueContinues);
+}
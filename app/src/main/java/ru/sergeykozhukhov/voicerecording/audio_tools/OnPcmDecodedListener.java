@@ -0,0 +1,26 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Получатель отсчетов, декодированных PcmDecoder (вызывается в потоке декодирования)
+ */
+public interface OnPcmDecodedListener {
+
+    /**
+     * Параметры декодированного потока, вызывается до первых отсчетов и при их изменении
+     * @param sampleRate - частота дискретизации в герцах
+     * @param channels - количество каналов
+     * @param durationUs - длительность потока в микросекундах или 0, если она неизвестна
+     */
+    void onFormat(int sampleRate, int channels, long durationUs);
+
+    /**
+     * Очередная порция 16-битных отсчетов, каналы чередуются
+     * Буфер переиспользуется декодером и действителен только во время вызова
+     * @param samples - отсчеты
+     * @param count - количество отсчетов в буфере
+     * @param presentationTimeUs - время первого отсчета порции в микросекундах
+     */
+    void onSamples(@NonNull short[] samples, int count, long presentationTimeUs);
+}
@@ -0,0 +1,23 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+
+/**
+ * Обработчик событий записи StreamingRecorder (вызывается в потоке записи на диск)
+ */
+public interface OnRecorderListener {
+
+    /**
+     * Запись завершена, файл закрыт
+     * @param file - файл записи
+     */
+    void onRecordFinished(@NonNull File file);
+
+    /**
+     * Запись прервана ошибкой захвата или записи на диск
+     * @param file - файл записи
+     */
+    void onRecordError(@NonNull File file);
+}
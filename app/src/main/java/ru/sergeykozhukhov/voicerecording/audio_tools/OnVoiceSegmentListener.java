@@ -0,0 +1,14 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+/**
+ * Получатель участков речи, найденных VoiceActivityDetector (вызывается в потоке декодирования)
+ */
+public interface OnVoiceSegmentListener {
+
+    /**
+     * Найден очередной участок речи, участки передаются по возрастанию времени и не пересекаются
+     * @param startUs - начало участка в микросекундах
+     * @param endUs - конец участка в микросекундах
+     */
+    void onSpeechSegment(long startUs, long endUs);
+}
@@ -0,0 +1,18 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+
+/**
+ * Обработчик загрузки пиков огибающей (вызывается в главном потоке)
+ */
+public interface OnWaveformLoadedListener {
+
+    /**
+     * @param file - файл записи
+     * @param peaks - пики или null, если запись не удалось декодировать
+     */
+    void onWaveformLoaded(@NonNull File file, @Nullable WaveformPeaks peaks);
+}
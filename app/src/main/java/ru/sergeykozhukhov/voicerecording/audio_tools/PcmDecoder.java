@@ -0,0 +1,162 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Декодирование звукового файла в 16-битные отсчеты PCM
+ *
+ * Используются MediaExtractor и MediaCodec в синхронном режиме. Декодирование выполняется
+ * в вызывающем потоке и может быть прервано флагом отмены между порциями.
+ */
+public final class PcmDecoder {
+
+    private static final String LOG = "PcmDecoder";
+
+    /**
+     * Время ожидания буфера кодека в микросекундах
+     */
+    private static final long DEQUEUE_TIMEOUT_US = 10000L;
+
+    /**
+     * Декодируемый файл
+     */
+    private final File file;
+
+    /**
+     * Отменено ли декодирование
+     */
+    private volatile boolean cancelled;
+
+    public PcmDecoder(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * Прерывание декодирования, может вызываться из любого потока
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Декодирование первой звуковой дорожки файла
+     * @param listener - получатель отсчетов
+     * @return true - если поток декодирован до конца, false - если декодирование было отменено
+     * @throws IOException - если файл не удалось открыть или в нем нет звуковой дорожки
+     */
+    @WorkerThread
+    public boolean decode(@NonNull OnPcmDecodedListener listener) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(file.getPath());
+            int track = selectAudioTrack(extractor);
+            if (track < 0)
+                throw new IOException("no audio track: " + file);
+            MediaFormat format = extractor.getTrackFormat(track);
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0L;
+            listener.onFormat(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                    format.getInteger(MediaFormat.KEY_CHANNEL_COUNT), durationUs);
+
+            return drain(extractor, codec, listener, durationUs);
+        } catch (IllegalStateException e) {
+            throw new IOException("decode failed: " + file, e);
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    Log.w(LOG, "codec stop failed", e);
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    /**
+     * Цикл передачи сжатых данных в кодек и получения отсчетов
+     */
+    private boolean drain(@NonNull MediaExtractor extractor, @NonNull MediaCodec codec,
+                          @NonNull OnPcmDecodedListener listener, long durationUs) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        short[] samples = new short[0];
+        boolean inputDone = false;
+
+        while (!cancelled) {
+            if (!inputDone) {
+                int inputIndex = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                if (inputIndex >= 0) {
+                    ByteBuffer input = codec.getInputBuffer(inputIndex);
+                    int size = input != null ? extractor.readSampleData(input, 0) : -1;
+                    if (size < 0) {
+                        codec.queueInputBuffer(inputIndex, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            int outputIndex = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+            if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                MediaFormat outputFormat = codec.getOutputFormat();
+                listener.onFormat(outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                        outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT), durationUs);
+            } else if (outputIndex >= 0) {
+                ByteBuffer output = codec.getOutputBuffer(outputIndex);
+                if (output != null && info.size > 0 && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                    output.position(info.offset);
+                    output.limit(info.offset + info.size);
+                    ShortBuffer shorts = output.order(ByteOrder.nativeOrder()).asShortBuffer();
+                    int count = shorts.remaining();
+                    if (samples.length < count)
+                        samples = new short[count];
+                    shorts.get(samples, 0, count);
+                    listener.onSamples(samples, count, info.presentationTimeUs);
+                }
+                codec.releaseOutputBuffer(outputIndex, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Выбор первой звуковой дорожки
+     * @return номер выбранной дорожки или -1
+     */
+    static int selectAudioTrack(@NonNull MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(i);
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,90 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+/**
+ * Кольцевой буфер отсчетов PCM для одного пишущего и одного читающего потока
+ *
+ * Буфер выделяется один раз, запись и чтение не используют блокировок:
+ * каждая позиция изменяется только своим потоком, а volatile публикует записанные отсчеты другому.
+ * Позиции растут монотонно, индекс в массиве получается маской, поэтому емкость - степень двойки.
+ */
+public class PcmRingBuffer {
+
+    /**
+     * Отсчеты
+     */
+    private final short[] buffer;
+
+    /**
+     * Маска индекса в массиве
+     */
+    private final int mask;
+
+    /**
+     * Количество записанных отсчетов (изменяется только пишущим потоком)
+     */
+    private volatile long writePosition;
+
+    /**
+     * Количество прочитанных отсчетов (изменяется только читающим потоком)
+     */
+    private volatile long readPosition;
+
+    /**
+     * @param minCapacity - наименьшая емкость в отсчетах, округляется вверх до степени двойки
+     */
+    public PcmRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity - 1)) << 1;
+        buffer = new short[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Запись отсчетов (вызывается только пишущим потоком)
+     * Буфер не перезаписывает непрочитанные отсчеты: если места не хватает, записывается только часть
+     * @return количество записанных отсчетов
+     */
+    public int write(short[] source, int offset, int length) {
+        long write = writePosition;
+        int count = (int) Math.min(length, buffer.length - (write - readPosition));
+        int index = (int) (write & mask);
+        int first = Math.min(count, buffer.length - index);
+        System.arraycopy(source, offset, buffer, index, first);
+        System.arraycopy(source, offset + first, buffer, 0, count - first);
+        writePosition = write + count;
+        return count;
+    }
+
+    /**
+     * Чтение отсчетов (вызывается только читающим потоком)
+     * @return количество прочитанных отсчетов
+     */
+    public int read(short[] target, int offset, int length) {
+        long read = readPosition;
+        int count = (int) Math.min(length, writePosition - read);
+        int index = (int) (read & mask);
+        int first = Math.min(count, buffer.length - index);
+        System.arraycopy(buffer, index, target, offset, first);
+        System.arraycopy(buffer, 0, target, offset + first, count - first);
+        readPosition = read + count;
+        return count;
+    }
+
+    /**
+     * Удаление непрочитанных отсчетов
+     * Вызывается только когда ни пишущий, ни читающий поток не работают с буфером
+     */
+    public void clear() {
+        readPosition = writePosition;
+    }
+
+    /**
+     * Количество непрочитанных отсчетов
+     */
+    public int available() {
+        return (int) (writePosition - readPosition);
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+}
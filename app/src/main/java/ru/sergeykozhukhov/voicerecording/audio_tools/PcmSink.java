@@ -0,0 +1,23 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Получатель записываемых отсчетов PCM (файл WAV или сегменты записи)
+ * Закрытие завершает запись: после него данные сохранены полностью
+ */
+public interface PcmSink extends Closeable {
+
+    /**
+     * Запись отсчетов, преобразованных в байты (little-endian)
+     */
+    void write(@NonNull byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * Количество записанных байтов данных
+     */
+    long getDataLength();
+}
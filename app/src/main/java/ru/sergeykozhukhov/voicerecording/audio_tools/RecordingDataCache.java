@@ -0,0 +1,173 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.content.ComponentCallbacks2;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+
+import ru.sergeykozhukhov.voicerecording.file_tools.AudioFileEntry;
+import ru.sergeykozhukhov.voicerecording.file_tools.FilesDelta;
+
+/**
+ * Общий для процесса кэш данных, вычисленных по записям (сведения заголовков, пики огибающей)
+ *
+ * Ограничен суммарным размером значений в байтах, при переполнении вытесняются
+ * давно не использованные значения. Ключом служат путь и время изменения записи,
+ * поэтому значения измененной записи перестают находиться сразу, а память занимают
+ * только до сброса по событиям директории или вытеснения.
+ * Методы можно вызывать из любого потока.
+ */
+public final class RecordingDataCache {
+
+    /**
+     * Доля максимального размера кучи, отводимая кэшу
+     */
+    private static final int HEAP_FRACTION = 32;
+
+    /**
+     * Верхняя граница размера кэша в байтах
+     */
+    private static final int MAX_CACHE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Оценка размера значения вместе с ключом и служебными объектами в байтах
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * Вид данных
+     */
+    private static final int TYPE_AUDIO_INFO = 1;
+    private static final int TYPE_PEAKS = 2;
+
+    private static RecordingDataCache instance;
+
+    private final LruCache<Key, Object> cache;
+
+    private RecordingDataCache(int maxSize) {
+        cache = new LruCache<Key, Object>(maxSize) {
+            @Override
+            protected int sizeOf(Key key, Object value) {
+                if (value instanceof WaveformPeaks)
+                    return ((WaveformPeaks) value).getByteCount() + ENTRY_OVERHEAD;
+                return ENTRY_OVERHEAD;
+            }
+        };
+    }
+
+    @NonNull
+    public static synchronized RecordingDataCache getInstance() {
+        if (instance == null) {
+            long heapSize = Runtime.getRuntime().maxMemory() / HEAP_FRACTION;
+            instance = new RecordingDataCache((int) Math.min(heapSize, MAX_CACHE_SIZE));
+        }
+        return instance;
+    }
+
+    @Nullable
+    public AudioInfo getAudioInfo(@NonNull File file, long lastModified) {
+        return (AudioInfo) cache.get(new Key(file.getPath(), lastModified, TYPE_AUDIO_INFO));
+    }
+
+    public void putAudioInfo(@NonNull File file, long lastModified, @NonNull AudioInfo info) {
+        cache.put(new Key(file.getPath(), lastModified, TYPE_AUDIO_INFO), info);
+    }
+
+    @Nullable
+    public WaveformPeaks getPeaks(@NonNull File file, long lastModified) {
+        return (WaveformPeaks) cache.get(new Key(file.getPath(), lastModified, TYPE_PEAKS));
+    }
+
+    public void putPeaks(@NonNull File file, long lastModified, @NonNull WaveformPeaks peaks) {
+        cache.put(new Key(file.getPath(), lastModified, TYPE_PEAKS), peaks);
+    }
+
+    /**
+     * Сброс значений по изменениям директории
+     * У удаленных записей сбрасываются все значения, у измененных - значения прежних версий
+     * @param delta - набор изменений
+     */
+    public void invalidate(@NonNull FilesDelta delta) {
+        for (AudioFileEntry entry : delta.getRemoved()) {
+            invalidate(entry.getFile().getPath(), null);
+        }
+        for (AudioFileEntry entry : delta.getModified()) {
+            invalidate(entry.getFile().getPath(), entry.getLastModified());
+        }
+    }
+
+    /**
+     * Сброс значений записи
+     * @param path - путь записи
+     * @param keepLastModified - время изменения актуальной версии, значения которой сохраняются, или null
+     */
+    private void invalidate(@NonNull String path, @Nullable Long keepLastModified) {
+        for (Key key : cache.snapshot().keySet()) {
+            if (key.path.equals(path) && (keepLastModified == null || key.lastModified != keepLastModified))
+                cache.remove(key);
+        }
+    }
+
+    /**
+     * Освобождение памяти по уровню из ComponentCallbacks2.onTrimMemory
+     * @param level - уровень нехватки памяти
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getMissCount() {
+        return cache.missCount();
+    }
+
+    public int getEvictionCount() {
+        return cache.evictionCount();
+    }
+
+    /**
+     * Ключ значения: путь и время изменения записи, вид данных
+     */
+    private static final class Key {
+
+        private final String path;
+
+        private final long lastModified;
+
+        private final int type;
+
+        Key(@NonNull String path, long lastModified, int type) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return lastModified == key.lastModified && type == key.type && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            return 31 * result + type;
+        }
+    }
+}
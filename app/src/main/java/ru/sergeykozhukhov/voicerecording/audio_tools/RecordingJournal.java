@@ -0,0 +1,276 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал сегментированной записи
+ *
+ * Журнал только дополняется: заголовок с параметрами записи пишется при создании,
+ * затем по одной записи на каждый закрытый сегмент и запись о завершении сборки итогового файла.
+ * Каждая запись сбрасывается на диск и защищена контрольной суммой, поэтому после сбоя
+ * читаются все записи до первой недописанной.
+ */
+class RecordingJournal implements Closeable {
+
+    private static final String LOG = "RecordingJournal";
+
+    /**
+     * Имя файла журнала в директории сессии
+     */
+    static final String FILE_NAME = "journal";
+
+    /**
+     * Сигнатура журнала
+     */
+    private static final int JOURNAL_MAGIC = 0x56524a4e;
+
+    /**
+     * Версия формата
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Тип записи: сегмент закрыт, в записи его номер и размер данных
+     */
+    private static final byte RECORD_SEGMENT = 1;
+
+    /**
+     * Тип записи: итоговый файл собран
+     */
+    private static final byte RECORD_FINISHED = 2;
+
+    /**
+     * Размер записи без контрольной суммы: тип, номер сегмента, размер данных
+     */
+    private static final int RECORD_SIZE = 1 + 4 + 8;
+
+    /**
+     * Поток файла журнала
+     */
+    private final FileOutputStream out;
+
+    private RecordingJournal(@NonNull FileOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Создание журнала новой сессии
+     * @param sessionDirectory - директория сессии
+     * @param target - итоговый файл записи
+     */
+    @NonNull
+    @WorkerThread
+    static RecordingJournal create(@NonNull File sessionDirectory, @NonNull File target,
+                                   int sampleRate, int channels) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(JOURNAL_MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeUTF(target.getPath());
+        data.writeInt(sampleRate);
+        data.writeInt(channels);
+        data.writeInt(crc(header.toByteArray()));
+
+        RecordingJournal journal = new RecordingJournal(new FileOutputStream(new File(sessionDirectory, FILE_NAME)));
+        try {
+            journal.append(header.toByteArray());
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * Открытие журнала существующей сессии для дополнения
+     * Недописанная при сбое запись в конце журнала отрезается, иначе следующие записи не прочитаются
+     * @param sessionDirectory - директория сессии
+     * @param contents - содержимое журнала, прочитанное методом read
+     */
+    @NonNull
+    @WorkerThread
+    static RecordingJournal openForAppend(@NonNull File sessionDirectory, @NonNull Contents contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(sessionDirectory, FILE_NAME), true);
+        try {
+            out.getChannel().truncate(contents.length);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return new RecordingJournal(out);
+    }
+
+    /**
+     * Запись о закрытом сегменте
+     * @param index - номер сегмента
+     * @param dataLength - размер данных сегмента в байтах
+     */
+    @WorkerThread
+    void appendSegment(int index, long dataLength) throws IOException {
+        appendRecord(RECORD_SEGMENT, index, dataLength);
+    }
+
+    /**
+     * Запись о завершении сборки итогового файла
+     */
+    @WorkerThread
+    void appendFinished() throws IOException {
+        appendRecord(RECORD_FINISHED, 0, 0L);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void appendRecord(byte type, int index, long dataLength) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(record);
+        data.writeByte(type);
+        data.writeInt(index);
+        data.writeLong(dataLength);
+        data.writeInt(crc(record.toByteArray()));
+        append(record.toByteArray());
+    }
+
+    private void append(@NonNull byte[] bytes) throws IOException {
+        out.write(bytes);
+        out.getFD().sync();
+    }
+
+    /**
+     * Чтение журнала сессии
+     * @param sessionDirectory - директория сессии
+     * @return содержимое журнала или null, если журнала нет или его заголовок поврежден
+     */
+    @Nullable
+    @WorkerThread
+    static Contents read(@NonNull File sessionDirectory) {
+        File file = new File(sessionDirectory, FILE_NAME);
+        if (!file.exists())
+            return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream copy = new DataOutputStream(header);
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != JOURNAL_MAGIC || version != FORMAT_VERSION)
+                return null;
+            String targetPath = in.readUTF();
+            int sampleRate = in.readInt();
+            int channels = in.readInt();
+            copy.writeInt(magic);
+            copy.writeInt(version);
+            copy.writeUTF(targetPath);
+            copy.writeInt(sampleRate);
+            copy.writeInt(channels);
+            if (in.readInt() != crc(header.toByteArray()))
+                return null;
+
+            Contents contents = new Contents(new File(targetPath), sampleRate, channels);
+            contents.length = header.size() + 4;
+            byte[] record = new byte[RECORD_SIZE + 4];
+            while (true) {
+                /*
+                 * Недописанная запись в конце журнала означает сбой во время ее записи
+                 * */
+                try {
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+                byte type = fields.readByte();
+                int index = fields.readInt();
+                long dataLength = fields.readLong();
+                if (fields.readInt() != crc(Arrays.copyOf(record, RECORD_SIZE)))
+                    break;
+                contents.length += record.length;
+                if (type == RECORD_FINISHED) {
+                    contents.finished = true;
+                } else if (type == RECORD_SEGMENT && index == contents.segmentCount) {
+                    contents.addSegment(dataLength);
+                }
+            }
+            return contents;
+        } catch (IOException e) {
+            Log.w(LOG, "journal read failed: " + file, e);
+            return null;
+        } finally {
+            SidecarCache.closeQuietly(in);
+        }
+    }
+
+    private static int crc(@NonNull byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Содержимое журнала
+     */
+    static class Contents {
+
+        /**
+         * Итоговый файл записи
+         */
+        final File target;
+
+        final int sampleRate;
+
+        final int channels;
+
+        /**
+         * Размеры данных закрытых сегментов
+         */
+        long[] segmentLengths = new long[16];
+
+        /**
+         * Количество закрытых сегментов
+         */
+        int segmentCount;
+
+        /**
+         * Собран ли итоговый файл
+         */
+        boolean finished;
+
+        /**
+         * Размер журнала до конца последней целой записи
+         */
+        long length;
+
+        Contents(@NonNull File target, int sampleRate, int channels) {
+            this.target = target;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+        }
+
+        void addSegment(long dataLength) {
+            if (segmentCount == segmentLengths.length)
+                segmentLengths = Arrays.copyOf(segmentLengths, segmentCount * 2);
+            segmentLengths[segmentCount++] = dataLength;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Таблица перемотки записи из потока кадров (AMR-NB, AMR-WB, ADTS AAC)
+ *
+ * В таких файлах нет индекса, и позицию кадра по времени можно найти только проходом по заголовкам кадров.
+ * Таблица строится одним проходом и хранит для каждого FRAMES_PER_ENTRY-го кадра позицию в отсчетах
+ * и смещение в файле, поэтому поиск кадра сводится к двоичному поиску и проходу не более чем
+ * по FRAMES_PER_ENTRY заголовкам (см. FrameReader).
+ */
+public class SeekTable {
+
+    private static final String LOG = "SeekTable";
+
+    /**
+     * Количество кадров между соседними записями таблицы (около секунды для AMR и AAC)
+     */
+    public static final int FRAMES_PER_ENTRY = 50;
+
+    /**
+     * Наибольший размер заголовка кадра, достаточный для определения его длины
+     */
+    static final int MAX_HEADER_SIZE = AudioFrames.ADTS_HEADER_SIZE;
+
+    /**
+     * Формат потока кадров
+     */
+    private final AudioInfo.Format format;
+
+    /**
+     * Частота дискретизации
+     */
+    private final int sampleRate;
+
+    /**
+     * Смещение первого кадра (после сигнатуры файла)
+     */
+    private final long dataOffset;
+
+    /**
+     * Конец последнего целого кадра
+     */
+    private final long dataEnd;
+
+    /**
+     * Количество отсчетов во всех кадрах
+     */
+    private final long totalSamples;
+
+    /**
+     * Позиции кадров записей таблицы в отсчетах
+     */
+    private final long[] positions;
+
+    /**
+     * Смещения кадров записей таблицы в файле
+     */
+    private final long[] offsets;
+
+    SeekTable(@NonNull AudioInfo.Format format, int sampleRate, long dataOffset, long dataEnd,
+              long totalSamples, @NonNull long[] positions, @NonNull long[] offsets) {
+        this.format = format;
+        this.sampleRate = sampleRate;
+        this.dataOffset = dataOffset;
+        this.dataEnd = dataEnd;
+        this.totalSamples = totalSamples;
+        this.positions = positions;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Построение таблицы проходом по заголовкам кадров файла
+     * Проход останавливается на первом поврежденном или неполном кадре
+     * @param file - файл записи
+     * @return таблица или null, если файл не является потоком кадров AMR или ADTS
+     */
+    @Nullable
+    @WorkerThread
+    public static SeekTable build(@NonNull File file) {
+        InputStream in = null;
+        try {
+            long fileLength = file.length();
+            in = new BufferedInputStream(new FileInputStream(file));
+            byte[] header = new byte[Math.max(MAX_HEADER_SIZE, AudioFrames.AMR_WB_MAGIC.length)];
+            in.mark(header.length);
+            int read = readFully(in, header, 0, header.length);
+            in.reset();
+
+            AudioInfo.Format format;
+            long offset;
+            if (AudioFrames.startsWith(header, read, AudioFrames.AMR_WB_MAGIC)) {
+                format = AudioInfo.Format.AMR_WB;
+                offset = AudioFrames.AMR_WB_MAGIC.length;
+            } else if (AudioFrames.startsWith(header, read, AudioFrames.AMR_NB_MAGIC)) {
+                format = AudioInfo.Format.AMR_NB;
+                offset = AudioFrames.AMR_NB_MAGIC.length;
+            } else if (read >= AudioFrames.ADTS_HEADER_SIZE && AudioFrames.isAdtsHeader(header, 0)) {
+                format = AudioInfo.Format.ADTS;
+                offset = 0L;
+            } else {
+                return null;
+            }
+            byte[] skipBuffer = new byte[256];
+            skipFully(in, offset, skipBuffer);
+
+            int headerSize = headerSize(format);
+            int sampleRate = AudioInfo.UNKNOWN;
+            long[] positions = new long[64];
+            long[] offsets = new long[64];
+            int count = 0;
+            long frames = 0L;
+            long samples = 0L;
+
+            while (readFully(in, header, 0, headerSize) == headerSize) {
+                int length = frameLength(format, header);
+                if (length < headerSize || offset + length > fileLength)
+                    break;
+                if (sampleRate == AudioInfo.UNKNOWN)
+                    sampleRate = sampleRate(format, header);
+                skipFully(in, length - headerSize, skipBuffer);
+                if (frames % FRAMES_PER_ENTRY == 0) {
+                    if (count == positions.length) {
+                        positions = Arrays.copyOf(positions, count * 2);
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    positions[count] = samples;
+                    offsets[count] = offset;
+                    count++;
+                }
+                frames++;
+                samples += frameSamples(format, header, sampleRate);
+                offset += length;
+            }
+            if (count == 0 || sampleRate == AudioInfo.UNKNOWN)
+                return null;
+            return new SeekTable(format, sampleRate, offsets[0], offset, samples,
+                    Arrays.copyOf(positions, count), Arrays.copyOf(offsets, count));
+        } catch (IOException e) {
+            Log.w(LOG, "seek table build failed: " + file, e);
+            return null;
+        } finally {
+            SidecarCache.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Запись таблицы в поток
+     */
+    public void writeTo(@NonNull DataOutputStream out) throws IOException {
+        out.writeUTF(format.name());
+        out.writeInt(sampleRate);
+        out.writeLong(dataOffset);
+        out.writeLong(dataEnd);
+        out.writeLong(totalSamples);
+        out.writeInt(positions.length);
+        for (int i = 0; i < positions.length; i++) {
+            out.writeLong(positions[i]);
+            out.writeLong(offsets[i]);
+        }
+    }
+
+    /**
+     * Чтение таблицы, записанной writeTo
+     */
+    @NonNull
+    public static SeekTable readFrom(@NonNull DataInputStream in) throws IOException {
+        AudioInfo.Format format;
+        try {
+            format = AudioInfo.Format.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("unknown format", e);
+        }
+        int sampleRate = in.readInt();
+        long dataOffset = in.readLong();
+        long dataEnd = in.readLong();
+        long totalSamples = in.readLong();
+        int count = in.readInt();
+        if (sampleRate <= 0 || count <= 0)
+            throw new IOException("invalid seek table");
+        long[] positions = new long[count];
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = in.readLong();
+            offsets[i] = in.readLong();
+        }
+        return new SeekTable(format, sampleRate, dataOffset, dataEnd, totalSamples, positions, offsets);
+    }
+
+    /**
+     * Поиск записи таблицы, с которой нужно начинать проход к заданному времени
+     * @param timeUs - время в микросекундах
+     * @return индекс последней записи, позиция которой не больше заданного времени
+     */
+    public int findEntry(long timeUs) {
+        long target = toSamples(timeUs);
+        int low = 0;
+        int high = positions.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (positions[middle] <= target)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+    public int getEntryCount() {
+        return positions.length;
+    }
+
+    /**
+     * Позиция кадра записи таблицы в отсчетах
+     */
+    public long getPosition(int entry) {
+        return positions[entry];
+    }
+
+    /**
+     * Смещение кадра записи таблицы в файле
+     */
+    public long getOffset(int entry) {
+        return offsets[entry];
+    }
+
+    @NonNull
+    public AudioInfo.Format getFormat() {
+        return format;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    public long getDataEnd() {
+        return dataEnd;
+    }
+
+    /**
+     * Точная длительность всех кадров в микросекундах
+     */
+    public long getDurationUs() {
+        return toTimeUs(totalSamples);
+    }
+
+    /**
+     * Перевод позиции из отсчетов в микросекунды
+     */
+    public long toTimeUs(long samples) {
+        return samples * 1000000L / sampleRate;
+    }
+
+    /**
+     * Перевод времени из микросекунд в отсчеты
+     */
+    public long toSamples(long timeUs) {
+        return timeUs * sampleRate / 1000000L;
+    }
+
+    /**
+     * Размер заголовка кадра, по которому определяется его длина
+     */
+    static int headerSize(@NonNull AudioInfo.Format format) {
+        return format == AudioInfo.Format.ADTS ? AudioFrames.ADTS_HEADER_SIZE : 1;
+    }
+
+    /**
+     * Длина кадра вместе с заголовком
+     * @return длина в байтах или 0, если заголовок недопустим
+     */
+    static int frameLength(@NonNull AudioInfo.Format format, @NonNull byte[] header) {
+        switch (format) {
+            case AMR_NB:
+                return AudioFrames.amrFrameSize(header[0] & 0xFF, false);
+            case AMR_WB:
+                return AudioFrames.amrFrameSize(header[0] & 0xFF, true);
+            case ADTS:
+                return AudioFrames.isAdtsHeader(header, 0) ? AudioFrames.adtsFrameLength(header, 0) : 0;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Количество отсчетов в кадре
+     */
+    static int frameSamples(@NonNull AudioInfo.Format format, @NonNull byte[] header, int sampleRate) {
+        if (format == AudioInfo.Format.ADTS)
+            return AudioFrames.adtsRawBlocks(header, 0) * AudioFrames.AAC_SAMPLES_PER_FRAME;
+        return (int) (sampleRate * AudioFrames.AMR_FRAME_DURATION_US / 1000000L);
+    }
+
+    private static int sampleRate(@NonNull AudioInfo.Format format, @NonNull byte[] header) {
+        if (format == AudioInfo.Format.ADTS)
+            return AudioFrames.adtsSampleRate(header, 0);
+        return AudioFrames.amrSampleRate(format == AudioInfo.Format.AMR_WB);
+    }
+
+    private static int readFully(@NonNull InputStream in, @NonNull byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Пропуск байтов потока
+     * Конец файла проверяется по его длине, так как FileInputStream.skip может пропустить байты за концом файла
+     */
+    private static void skipFully(@NonNull InputStream in, long length, @NonNull byte[] buffer) throws IOException {
+        long total = 0L;
+        while (total < length) {
+            long skipped = in.skip(length - total);
+            if (skipped <= 0L) {
+                /*
+                 * skip может вернуть 0 и до конца файла, поэтому продвижение продолжается чтением
+                 * */
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, length - total));
+                if (read < 0)
+                    break;
+                skipped = read;
+            }
+            total += skipped;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Дисковый кэш таблиц перемотки записей
+ */
+public class SeekTableCache extends SidecarCache {
+
+    private static final String LOG = "SeekTableCache";
+
+    /**
+     * Имя директории кэша внутри кэша приложения
+     */
+    public static final String DIRECTORY_NAME = "seek_tables";
+
+    /**
+     * Сигнатура файла таблицы
+     */
+    private static final int SEEK_MAGIC = 0x56525354;
+
+    /**
+     * Версия формата
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Расширение файлов таблиц
+     */
+    private static final String SEEK_EXTENSION = ".seek";
+
+    public SeekTableCache(@NonNull File directory) {
+        super(directory, SEEK_MAGIC, SEEK_EXTENSION);
+    }
+
+    /**
+     * Чтение таблицы записи
+     * @param audio - файл записи
+     * @return таблица или null, если ее нет в кэше или запись изменилась
+     */
+    @Nullable
+    @WorkerThread
+    public SeekTable read(@NonNull File audio) {
+        DataInputStream in = openForRead(audio);
+        if (in == null)
+            return null;
+        try {
+            if (in.readInt() != FORMAT_VERSION)
+                return null;
+            return SeekTable.readFrom(in);
+        } catch (IOException e) {
+            Log.w(LOG, "seek table read failed: " + audio, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Сохранение таблицы записи
+     * @param audio - файл записи
+     * @param seekTable - таблица
+     * @return true - если таблица сохранена
+     */
+    @WorkerThread
+    public boolean write(@NonNull File audio, @NonNull SeekTable seekTable) {
+        DataOutputStream out;
+        try {
+            out = openForWrite(audio);
+        } catch (IOException e) {
+            Log.e(LOG, "seek table write failed: " + audio, e);
+            return false;
+        }
+        try {
+            out.writeInt(FORMAT_VERSION);
+            seekTable.writeTo(out);
+        } catch (IOException e) {
+            Log.e(LOG, "seek table write failed: " + audio, e);
+            abort(audio, out);
+            return false;
+        }
+        return commit(audio, out);
+    }
+}
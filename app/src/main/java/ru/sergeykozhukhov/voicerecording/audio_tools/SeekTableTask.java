@@ -0,0 +1,44 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+/**
+ * Фоновое получение таблицы перемотки записи
+ * Запись сканируется только если таблицы еще нет в кэше
+ */
+public class SeekTableTask implements Callable<SeekTable> {
+
+    /**
+     * Файл записи
+     */
+    private final File audio;
+
+    /**
+     * Кэш таблиц
+     */
+    private final SeekTableCache seekTableCache;
+
+    public SeekTableTask(@NonNull File audio, @NonNull SeekTableCache seekTableCache) {
+        this.audio = audio;
+        this.seekTableCache = seekTableCache;
+    }
+
+    /**
+     * @return таблица или null, если запись не является потоком кадров AMR или ADTS
+     */
+    @Nullable
+    @Override
+    public SeekTable call() {
+        SeekTable seekTable = seekTableCache.read(audio);
+        if (seekTable == null) {
+            seekTable = SeekTable.build(audio);
+            if (seekTable != null)
+                seekTableCache.write(audio, seekTable);
+        }
+        return seekTable;
+    }
+}
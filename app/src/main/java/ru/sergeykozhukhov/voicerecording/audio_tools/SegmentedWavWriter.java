@@ -0,0 +1,291 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Запись PCM сегментами фиксированной длительности с журналом
+ *
+ * Отсчеты пишутся в файлы WAV сессии по SEGMENT_SECONDS секунд. Закрытый сегмент сбрасывается на диск
+ * и отмечается в журнале, поэтому после сбоя процесса все сегменты, кроме последнего, уже целы,
+ * а последний восстанавливается по длине его файла (recover). При закрытии сегменты сразу собираются
+ * в итоговый файл WAV, и директория сессии удаляется. Восстановленная сессия собирается отдельно (assemble):
+ * сборка копирует все сегменты и занимает время, пропорциональное длине записи, поэтому ее выполняют
+ * позже, в фоновом потоке с низким приоритетом.
+ */
+public class SegmentedWavWriter implements PcmSink {
+
+    private static final String LOG = "SegmentedWavWriter";
+
+    /**
+     * Имя директории сессий записи внутри директории файлов приложения
+     */
+    public static final String SESSIONS_DIRECTORY_NAME = "recording_sessions";
+
+    /**
+     * Длительность сегмента в секундах
+     */
+    public static final int SEGMENT_SECONDS = 60;
+
+    /**
+     * Размер буфера копирования при сборке итогового файла
+     */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Директория сессии
+     */
+    private final File sessionDirectory;
+
+    /**
+     * Итоговый файл записи
+     */
+    private final File target;
+
+    private final int sampleRate;
+
+    private final int channels;
+
+    /**
+     * Размер данных сегмента в байтах
+     */
+    private final long segmentLength;
+
+    /**
+     * Журнал сессии
+     */
+    private final RecordingJournal journal;
+
+    /**
+     * Текущий сегмент
+     */
+    private WavWriter segmentWriter;
+
+    /**
+     * Номер текущего сегмента
+     */
+    private int segmentIndex;
+
+    /**
+     * Количество байтов данных в закрытых сегментах
+     */
+    private long closedLength;
+
+    /**
+     * @param sessionDirectory - директория сессии (создается, если ее нет)
+     * @param target - итоговый файл записи
+     * @param sampleRate - частота дискретизации
+     * @param channels - количество каналов
+     * @throws IOException - если директорию, журнал или первый сегмент не удалось создать
+     */
+    @WorkerThread
+    public SegmentedWavWriter(@NonNull File sessionDirectory, @NonNull File target, int sampleRate, int channels) throws IOException {
+        if (!sessionDirectory.exists() && !sessionDirectory.mkdirs())
+            throw new IOException("session directory not created: " + sessionDirectory);
+        this.sessionDirectory = sessionDirectory;
+        this.target = target;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.segmentLength = (long) sampleRate * channels * 2 * SEGMENT_SECONDS;
+        this.journal = RecordingJournal.create(sessionDirectory, target, sampleRate, channels);
+        try {
+            segmentWriter = new WavWriter(getSegmentFile(sessionDirectory, 0), sampleRate, channels);
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Запись отсчетов; при заполнении сегмента он закрывается и начинается следующий
+     */
+    @WorkerThread
+    @Override
+    public void write(@NonNull byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = (int) Math.min(length, segmentLength - segmentWriter.getDataLength());
+            segmentWriter.write(data, offset, count);
+            offset += count;
+            length -= count;
+            if (segmentWriter.getDataLength() >= segmentLength)
+                nextSegment();
+        }
+    }
+
+    @Override
+    public long getDataLength() {
+        return closedLength + segmentWriter.getDataLength();
+    }
+
+    /**
+     * Закрытие последнего сегмента и сборка итогового файла
+     */
+    @WorkerThread
+    @Override
+    public void close() throws IOException {
+        try {
+            closeSegment();
+            RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+            if (contents == null)
+                throw new IOException("journal not readable: " + sessionDirectory);
+            assemble(sessionDirectory, contents);
+            journal.appendFinished();
+        } finally {
+            journal.close();
+        }
+        deleteSession(sessionDirectory);
+    }
+
+    /**
+     * Закрытие текущего сегмента и начало следующего
+     */
+    private void nextSegment() throws IOException {
+        closeSegment();
+        segmentIndex++;
+        segmentWriter = new WavWriter(getSegmentFile(sessionDirectory, segmentIndex), sampleRate, channels);
+    }
+
+    /**
+     * Закрытие текущего сегмента: сначала данные сбрасываются на диск, затем сегмент отмечается в журнале
+     */
+    private void closeSegment() throws IOException {
+        long length = segmentWriter.getDataLength();
+        segmentWriter.close();
+        journal.appendSegment(segmentIndex, length);
+        closedLength += length;
+    }
+
+    /**
+     * Восстановление сессии, прерванной сбоем
+     * Закрытые сегменты берутся из журнала без проверки, незакрытый последний сегмент
+     * обрезается до целого кадра по длине файла, его заголовок исправляется и он отмечается в журнале,
+     * поэтому время восстановления зависит только от последнего сегмента.
+     * Восстановление повторяемо: после него последнего незакрытого сегмента нет.
+     * Итоговый файл после восстановления собирается методом assemble.
+     * @param sessionDirectory - директория сессии
+     * @return true - если сессию можно собирать
+     */
+    @WorkerThread
+    public static boolean recover(@NonNull File sessionDirectory) {
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+        if (contents == null) {
+            Log.e(LOG, "session journal not readable: " + sessionDirectory);
+            return false;
+        }
+        if (contents.finished)
+            return true;
+        File lastSegment = getSegmentFile(sessionDirectory, contents.segmentCount);
+        if (!lastSegment.exists())
+            return true;
+        RecordingJournal journal = null;
+        try {
+            journal = RecordingJournal.openForAppend(sessionDirectory, contents);
+            int blockAlign = contents.channels * 2;
+            long dataLength = Math.max(0L, lastSegment.length() - WavWriter.HEADER_SIZE);
+            dataLength -= dataLength % blockAlign;
+            WavWriter.patchHeader(lastSegment, dataLength);
+            journal.appendSegment(contents.segmentCount, dataLength);
+        } catch (IOException e) {
+            Log.e(LOG, "session recovery failed: " + sessionDirectory, e);
+            return false;
+        } finally {
+            SidecarCache.closeQuietly(journal);
+        }
+        Log.d(LOG, "recovered segment " + contents.segmentCount + ": " + sessionDirectory);
+        return true;
+    }
+
+    /**
+     * Сборка итогового файла восстановленной сессии и удаление ее директории
+     * Если сборка уже завершена, удаляется только директория сессии.
+     * @param sessionDirectory - директория сессии, восстановленной методом recover
+     * @return итоговый файл или null, если журнал сессии не читается или сборка не удалась
+     */
+    @Nullable
+    @WorkerThread
+    public static File assemble(@NonNull File sessionDirectory) {
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+        if (contents == null) {
+            Log.e(LOG, "session journal not readable: " + sessionDirectory);
+            return null;
+        }
+        if (!contents.finished) {
+            RecordingJournal journal = null;
+            try {
+                journal = RecordingJournal.openForAppend(sessionDirectory, contents);
+                assemble(sessionDirectory, contents);
+                journal.appendFinished();
+            } catch (IOException e) {
+                Log.e(LOG, "session assembly failed: " + sessionDirectory, e);
+                return null;
+            } finally {
+                SidecarCache.closeQuietly(journal);
+            }
+            Log.d(LOG, "assembled " + contents.segmentCount + " segments: " + contents.target);
+        }
+        deleteSession(sessionDirectory);
+        return contents.target;
+    }
+
+    /**
+     * Сборка итогового файла из сегментов журнала
+     * Сборка повторяема: прерванная сборка при восстановлении выполняется заново
+     */
+    private static void assemble(@NonNull File sessionDirectory, @NonNull RecordingJournal.Contents contents) throws IOException {
+        WavWriter out = new WavWriter(contents.target, contents.sampleRate, contents.channels);
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try {
+            for (int i = 0; i < contents.segmentCount; i++) {
+                InputStream in = new FileInputStream(getSegmentFile(sessionDirectory, i));
+                try {
+                    long skip = WavWriter.HEADER_SIZE;
+                    while (skip > 0L) {
+                        long skipped = in.skip(skip);
+                        if (skipped <= 0L)
+                            throw new IOException("segment truncated: " + i);
+                        skip -= skipped;
+                    }
+                    long left = contents.segmentLengths[i];
+                    while (left > 0L) {
+                        int read = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                        if (read < 0)
+                            throw new IOException("segment truncated: " + i);
+                        out.write(buffer, 0, read);
+                        left -= read;
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Удаление файлов сессии после сборки итогового файла
+     */
+    private static void deleteSession(@NonNull File sessionDirectory) {
+        File[] files = sessionDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        sessionDirectory.delete();
+    }
+
+    @NonNull
+    private static File getSegmentFile(@NonNull File sessionDirectory, int index) {
+        return new File(sessionDirectory, String.format(Locale.US, "segment_%05d.wav", index));
+    }
+}
@@ -0,0 +1,189 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Дисковый кэш данных, вычисленных по записям
+ *
+ * Данные каждой записи хранятся в отдельном файле, имя которого строится по пути и времени изменения записи.
+ * В заголовке файла повторяются путь, время изменения и размер записи, поэтому совпадение хэшей
+ * или перезапись файла с тем же временем не приводят к чтению чужих данных.
+ */
+public class SidecarCache {
+
+    private static final String LOG = "SidecarCache";
+
+    /**
+     * Директория кэша
+     */
+    private final File directory;
+
+    /**
+     * Сигнатура файлов данных
+     */
+    private final int magic;
+
+    /**
+     * Расширение файлов данных
+     */
+    private final String extension;
+
+    protected SidecarCache(@NonNull File directory, int magic, @NonNull String extension) {
+        this.directory = directory;
+        this.magic = magic;
+        this.extension = extension;
+    }
+
+    /**
+     * Открытие файла данных записи для чтения
+     * @param audio - файл записи
+     * @return поток, установленный после заголовка, или null, если данных нет или запись изменилась
+     */
+    @Nullable
+    @WorkerThread
+    protected DataInputStream openForRead(@NonNull File audio) {
+        File sidecar = getSidecarFile(audio);
+        if (!sidecar.exists())
+            return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+            if (in.readInt() == magic
+                    && in.readUTF().equals(audio.getPath())
+                    && in.readLong() == audio.lastModified()
+                    && in.readLong() == audio.length())
+                return in;
+        } catch (IOException e) {
+            Log.w(LOG, "sidecar read failed: " + sidecar, e);
+        }
+        closeQuietly(in);
+        return null;
+    }
+
+    /**
+     * Открытие временного файла данных записи для записи
+     * Данные становятся доступны для чтения только после commit
+     * @param audio - файл записи
+     * @return поток, в который уже записан заголовок
+     * @throws IOException - если временный файл не удалось создать
+     */
+    @NonNull
+    @WorkerThread
+    protected DataOutputStream openForWrite(@NonNull File audio) throws IOException {
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("cache directory not created: " + directory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getTempFile(audio))));
+        try {
+            out.writeInt(magic);
+            out.writeUTF(audio.getPath());
+            out.writeLong(audio.lastModified());
+            out.writeLong(audio.length());
+        } catch (IOException e) {
+            closeQuietly(out);
+            throw e;
+        }
+        return out;
+    }
+
+    /**
+     * Завершение записи: временный файл закрывается и переименовывается,
+     * файлы данных прежних версий записи удаляются
+     * @param audio - файл записи
+     * @param out - поток, полученный от openForWrite
+     * @return true - если данные сохранены
+     */
+    @WorkerThread
+    protected boolean commit(@NonNull File audio, @NonNull DataOutputStream out) {
+        File tmpFile = getTempFile(audio);
+        try {
+            out.close();
+        } catch (IOException e) {
+            Log.e(LOG, "sidecar write failed: " + tmpFile, e);
+            tmpFile.delete();
+            return false;
+        }
+        File sidecar = getSidecarFile(audio);
+        if (!tmpFile.renameTo(sidecar)) {
+            Log.e(LOG, "sidecar rename failed: " + sidecar);
+            tmpFile.delete();
+            return false;
+        }
+        removeSidecarFiles(audio, sidecar);
+        return true;
+    }
+
+    /**
+     * Отказ от записи, начатой openForWrite
+     * @param audio - файл записи
+     * @param out - поток, полученный от openForWrite
+     */
+    @WorkerThread
+    protected void abort(@NonNull File audio, @NonNull DataOutputStream out) {
+        closeQuietly(out);
+        getTempFile(audio).delete();
+    }
+
+    /**
+     * Удаление данных записи, например после ее удаления
+     * @param audio - файл записи
+     */
+    @WorkerThread
+    public void remove(@NonNull File audio) {
+        removeSidecarFiles(audio, null);
+    }
+
+    /**
+     * Удаление файлов данных записи
+     * @param audio - файл записи
+     * @param keep - файл данных, который нужно оставить
+     */
+    private void removeSidecarFiles(@NonNull File audio, @Nullable File keep) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        String prefix = getPathKey(audio) + "_";
+        for (File file : files) {
+            if (file.getName().startsWith(prefix) && file.getName().endsWith(extension) && !file.equals(keep))
+                file.delete();
+        }
+    }
+
+    @NonNull
+    private File getSidecarFile(@NonNull File audio) {
+        return new File(directory, getPathKey(audio) + "_" + Long.toHexString(audio.lastModified()) + extension);
+    }
+
+    @NonNull
+    private File getTempFile(@NonNull File audio) {
+        return new File(getSidecarFile(audio).getPath() + ".tmp");
+    }
+
+    @NonNull
+    private static String getPathKey(@NonNull File audio) {
+        return Integer.toHexString(audio.getPath().hashCode());
+    }
+
+    protected static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(LOG, "close failed", e);
+        }
+    }
+}
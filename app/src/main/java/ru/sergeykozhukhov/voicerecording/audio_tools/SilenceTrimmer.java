@@ -0,0 +1,219 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Создание копии записи без тишины в начале и в конце
+ *
+ * Сжатые кадры копируются без перекодирования (MediaExtractor - MediaMuxer), поэтому копия
+ * создается быстро, без потери качества и через буфер фиксированного размера.
+ * Поддерживаются AAC (копия в MP4) и AMR (копия в 3GP, API 26+).
+ * Для потоков кадров AMR и ADTS с таблицей перемотки отрезок копируется как диапазон байтов
+ * в файл того же формата, без MediaMuxer и на любой версии API.
+ */
+public final class SilenceTrimmer {
+
+    private static final String LOG = "SilenceTrimmer";
+
+    /**
+     * Запас тишины, оставляемый перед первым и после последнего участка речи
+     */
+    public static final long PADDING_US = 200000L;
+
+    /**
+     * Размер буфера кадра, если дорожка не сообщает наибольший размер
+     */
+    private static final int DEFAULT_SAMPLE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Суффикс имени файла копии
+     */
+    private static final String TRIMMED_SUFFIX = "_trimmed";
+
+    private SilenceTrimmer() {
+    }
+
+    /**
+     * Копирование речевой части записи
+     * @param source - исходная запись
+     * @param targetDirectory - директория для копии
+     * @param index - индекс участков речи записи
+     * @param seekTable - таблица перемотки записи или null, если запись не является потоком кадров
+     * @return файл копии или null, если в записи нет речи, формат не поддерживается или копирование не удалось
+     */
+    @Nullable
+    @WorkerThread
+    public static File trim(@NonNull File source, @NonNull File targetDirectory,
+                            @NonNull VoiceActivityIndex index, @Nullable SeekTable seekTable) {
+        if (!index.hasSpeech())
+            return null;
+        long startUs = Math.max(0L, index.getStartUs(0) - PADDING_US);
+        long endUs = Math.min(index.getDurationUs(), index.getEndUs(index.getSegmentCount() - 1) + PADDING_US);
+        if (seekTable != null)
+            return trimFrames(source, targetDirectory, seekTable, startUs, endUs);
+
+        MediaExtractor extractor = new MediaExtractor();
+        MediaMuxer muxer = null;
+        File target = null;
+        boolean started = false;
+        try {
+            extractor.setDataSource(source.getPath());
+            int track = PcmDecoder.selectAudioTrack(extractor);
+            if (track < 0)
+                return null;
+            MediaFormat format = extractor.getTrackFormat(track);
+            int outputFormat = getOutputFormat(format.getString(MediaFormat.KEY_MIME));
+            if (outputFormat < 0) {
+                Log.w(LOG, "unsupported format: " + format.getString(MediaFormat.KEY_MIME));
+                return null;
+            }
+            if (!targetDirectory.exists() && !targetDirectory.mkdirs())
+                throw new IOException("target directory not created: " + targetDirectory);
+            target = new File(targetDirectory, getTargetName(source, outputFormat));
+
+            muxer = new MediaMuxer(target.getPath(), outputFormat);
+            int targetTrack = muxer.addTrack(format);
+            muxer.start();
+            started = true;
+
+            int bufferSize = format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                    ? format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : DEFAULT_SAMPLE_BUFFER_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+            /*
+             * Все кадры звуковых дорожек являются опорными, поэтому перемотка точна до кадра
+             * */
+            extractor.seekTo(startUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            long firstSampleTimeUs = -1L;
+            while (true) {
+                int size = extractor.readSampleData(buffer, 0);
+                long sampleTimeUs = extractor.getSampleTime();
+                if (size < 0 || sampleTimeUs > endUs)
+                    break;
+                if (firstSampleTimeUs < 0L)
+                    firstSampleTimeUs = sampleTimeUs;
+                info.offset = 0;
+                info.size = size;
+                info.presentationTimeUs = sampleTimeUs - firstSampleTimeUs;
+                info.flags = MediaCodec.BUFFER_FLAG_KEY_FRAME;
+                muxer.writeSampleData(targetTrack, buffer, info);
+                extractor.advance();
+            }
+            muxer.stop();
+            started = false;
+            return target;
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            Log.e(LOG, "trim failed: " + source, e);
+            if (target != null)
+                target.delete();
+            return null;
+        } finally {
+            if (muxer != null) {
+                if (started) {
+                    try {
+                        muxer.stop();
+                    } catch (IllegalStateException e) {
+                        Log.w(LOG, "muxer stop failed", e);
+                    }
+                    if (target != null)
+                        target.delete();
+                }
+                muxer.release();
+            }
+            extractor.release();
+        }
+    }
+
+    /**
+     * Копирование отрезка потока кадров в файл того же формата
+     * Файл AMR начинается с сигнатуры, файл ADTS состоит только из кадров
+     */
+    @Nullable
+    private static File trimFrames(@NonNull File source, @NonNull File targetDirectory,
+                                   @NonNull SeekTable seekTable, long startUs, long endUs) {
+        File target = null;
+        FrameReader reader = null;
+        OutputStream out = null;
+        try {
+            if (!targetDirectory.exists() && !targetDirectory.mkdirs())
+                throw new IOException("target directory not created: " + targetDirectory);
+            target = new File(targetDirectory, getTargetName(source, getExtension(source)));
+            reader = new FrameReader(source, seekTable);
+            out = new BufferedOutputStream(new FileOutputStream(target));
+            if (seekTable.getFormat() == AudioInfo.Format.AMR_NB)
+                out.write(AudioFrames.AMR_NB_MAGIC);
+            else if (seekTable.getFormat() == AudioInfo.Format.AMR_WB)
+                out.write(AudioFrames.AMR_WB_MAGIC);
+            reader.copyRange(startUs, endUs, out);
+            out.close();
+            out = null;
+            return target;
+        } catch (IOException e) {
+            Log.e(LOG, "trim failed: " + source, e);
+            SidecarCache.closeQuietly(out);
+            out = null;
+            if (target != null)
+                target.delete();
+            return null;
+        } finally {
+            SidecarCache.closeQuietly(out);
+            SidecarCache.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Формат контейнера копии для типа дорожки
+     * @return OutputFormat или -1, если формат не поддерживается
+     */
+    private static int getOutputFormat(@Nullable String mime) {
+        if ("audio/mp4a-latm".equals(mime))
+            return MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4;
+        if (("audio/3gpp".equals(mime) || "audio/amr-wb".equals(mime))
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            return MediaMuxer.OutputFormat.MUXER_OUTPUT_3GPP;
+        return -1;
+    }
+
+    /**
+     * Имя файла копии: имя записи с суффиксом и расширением контейнера копии
+     */
+    @NonNull
+    private static String getTargetName(@NonNull File source, int outputFormat) {
+        return getTargetName(source, outputFormat == MediaMuxer.OutputFormat.MUXER_OUTPUT_3GPP ? ".3gp" : ".m4a");
+    }
+
+    @NonNull
+    private static String getTargetName(@NonNull File source, @NonNull String extension) {
+        String name = source.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        return baseName + TRIMMED_SUFFIX + extension;
+    }
+
+    /**
+     * Расширение имени файла вместе с точкой (пустое, если его нет)
+     */
+    @NonNull
+    private static String getExtension(@NonNull File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot) : "";
+    }
+}
@@ -0,0 +1,365 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Потоковая запись звука с микрофона в файл WAV
+ *
+ * Захват и запись на диск разделены: поток захвата с приоритетом звука читает AudioRecord
+ * и только копирует отсчеты в кольцевой буфер, поток записи забирает их большими блоками
+ * и пишет в файл последовательно. Буфер рассчитан на несколько секунд, поэтому задержки
+ * файловой системы не останавливают захват.
+ * Запись ведется одним файлом WAV или сегментами с журналом (SegmentedWavWriter), которые
+ * переживают сбой процесса и собираются в итоговый файл после остановки.
+ */
+public class StreamingRecorder {
+
+    private static final String LOG = "StreamingRecorder";
+
+    /**
+     * Частота дискретизации (единственная, поддерживаемая всеми устройствами)
+     */
+    public static final int SAMPLE_RATE = 44100;
+
+    /**
+     * Количество каналов
+     */
+    public static final int CHANNELS = 1;
+
+    /**
+     * Емкость кольцевого буфера в секундах записи
+     */
+    private static final int RING_BUFFER_SECONDS = 10;
+
+    /**
+     * Размер блока, которым отсчеты пишутся на диск
+     */
+    private static final int WRITE_CHUNK_SAMPLES = 32 * 1024;
+
+    /**
+     * Количество кадров уровня, которые могут ожидать чтения
+     */
+    private static final int LEVEL_FRAME_CAPACITY = 256;
+
+    /**
+     * Длина кадра уровня по умолчанию в миллисекундах
+     */
+    public static final int DEFAULT_LEVEL_INTERVAL_MS = 50;
+
+    /**
+     * Наибольшее время ожидания потока записи, если поток захвата его не разбудил
+     */
+    private static final long WRITER_WAIT_NS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Обработчик событий записи
+     */
+    private final OnRecorderListener onRecorderListener;
+
+    /**
+     * Кольцевой буфер между потоками захвата и записи
+     */
+    private final PcmRingBuffer ringBuffer = new PcmRingBuffer(SAMPLE_RATE * CHANNELS * RING_BUFFER_SECONDS);
+
+    /**
+     * Измерение уровня захваченного сигнала
+     */
+    private final LevelMeter levelMeter = new LevelMeter(LEVEL_FRAME_CAPACITY,
+            SAMPLE_RATE * CHANNELS * DEFAULT_LEVEL_INTERVAL_MS / 1000);
+
+    /**
+     * Количество байтов данных, записанных в файл
+     */
+    private volatile long bytesWritten;
+
+    /**
+     * Продолжается ли захват
+     */
+    private volatile boolean capturing;
+
+    /**
+     * Завершен ли захват (после этого в буфер больше ничего не пишется)
+     */
+    private volatile boolean captureFinished;
+
+    /**
+     * Ошибка захвата
+     */
+    private volatile boolean captureFailed;
+
+    /**
+     * Количество отсчетов, не поместившихся в буфер
+     */
+    private volatile long droppedSamples;
+
+    /**
+     * Поток записи на диск
+     */
+    private Thread writerThread;
+
+    /**
+     * Поток захвата
+     */
+    private Thread captureThread;
+
+    public StreamingRecorder(@NonNull OnRecorderListener onRecorderListener) {
+        this.onRecorderListener = onRecorderListener;
+    }
+
+    /**
+     * Запуск записи одним файлом
+     * @param file - файл записи
+     * @return true - если захват запущен
+     */
+    public synchronized boolean start(@NonNull File file) {
+        return start(file, null);
+    }
+
+    /**
+     * Запуск записи
+     * Метод не работает с диском: файл записи создается потоком записи,
+     * и если его не удалось создать, захват останавливается и обработчику сообщается об ошибке
+     * @param file - итоговый файл записи
+     * @param sessionDirectory - директория сегментов записи или null для записи одним файлом
+     * @return true - если захват запущен
+     */
+    public synchronized boolean start(@NonNull File file, @Nullable File sessionDirectory) {
+        if (isRecording())
+            return false;
+        int minBufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize == AudioRecord.ERROR || minBufferSize == AudioRecord.ERROR_BAD_VALUE) {
+            Log.e(LOG, "unsupported capture format");
+            return false;
+        }
+        final AudioRecord audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, minBufferSize * 4);
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            Log.e(LOG, "audio record not initialized");
+            audioRecord.release();
+            return false;
+        }
+
+        capturing = true;
+        captureFinished = false;
+        captureFailed = false;
+        droppedSamples = 0L;
+        bytesWritten = 0L;
+        ringBuffer.clear();
+        levelMeter.reset();
+
+        final int readSize = minBufferSize / 2;
+        writerThread = new Thread(new WriterRunnable(file, sessionDirectory), "RecorderWriter");
+        captureThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                capture(audioRecord, readSize);
+            }
+        }, "RecorderCapture");
+        writerThread.start();
+        captureThread.start();
+        return true;
+    }
+
+    /**
+     * Остановка записи
+     * Метод не ждет записи на диск: оставшиеся отсчеты дописываются потоком записи,
+     * после чего обработчику сообщается о завершении
+     */
+    public synchronized void stop() {
+        capturing = false;
+    }
+
+    /**
+     * Идет ли запись (до завершения записи на диск)
+     */
+    public synchronized boolean isRecording() {
+        return writerThread != null && writerThread.isAlive();
+    }
+
+    /**
+     * Количество отсчетов, потерянных из-за переполнения буфера
+     */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    /**
+     * Количество байтов данных, записанных в файл
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Заполненность кольцевого буфера (0..1)
+     */
+    public float getBufferFill() {
+        return (float) ringBuffer.available() / ringBuffer.capacity();
+    }
+
+    /**
+     * Установка длины кадра уровня
+     * @param intervalMs - длина кадра в миллисекундах
+     */
+    public void setLevelInterval(int intervalMs) {
+        levelMeter.setWindowSamples(SAMPLE_RATE * CHANNELS * intervalMs / 1000);
+    }
+
+    /**
+     * Измерение уровня, из которого читаются кадры уровня
+     * Кадры должен читать только один поток
+     */
+    @NonNull
+    public LevelMeter getLevelMeter() {
+        return levelMeter;
+    }
+
+    /**
+     * Перевод позиции в отсчетах во время от начала записи
+     * @param samples - позиция в отсчетах
+     * @return время в миллисекундах
+     */
+    public static long samplesToMillis(long samples) {
+        return samples * 1000L / (SAMPLE_RATE * CHANNELS);
+    }
+
+    /**
+     * Цикл захвата: отсчеты AudioRecord копируются в кольцевой буфер,
+     * поток записи будится, как только накопился блок для записи
+     */
+    private void capture(@NonNull AudioRecord audioRecord, int readSize) {
+        short[] samples = new short[readSize];
+        try {
+            audioRecord.startRecording();
+            while (capturing) {
+                int read = audioRecord.read(samples, 0, samples.length);
+                if (read < 0) {
+                    Log.e(LOG, "capture failed: " + read);
+                    captureFailed = true;
+                    break;
+                }
+                levelMeter.process(samples, 0, read);
+                int written = ringBuffer.write(samples, 0, read);
+                if (written < read) {
+                    droppedSamples += read - written;
+                    Log.w(LOG, "ring buffer overrun, dropped " + (read - written));
+                }
+                if (ringBuffer.available() >= WRITE_CHUNK_SAMPLES)
+                    LockSupport.unpark(writerThread);
+            }
+            audioRecord.stop();
+        } catch (IllegalStateException e) {
+            Log.e(LOG, "capture failed", e);
+            captureFailed = true;
+        } finally {
+            audioRecord.release();
+            captureFinished = true;
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * Ожидание завершения потока захвата (после него AudioRecord освобожден)
+     */
+    private void awaitCapture() {
+        try {
+            captureThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Запись отсчетов из кольцевого буфера на диск блоками WRITE_CHUNK_SAMPLES
+     * Файл записи создается в этом потоке; пока он создается, отсчеты накапливаются в буфере
+     */
+    private class WriterRunnable implements Runnable {
+
+        private final File file;
+
+        @Nullable
+        private final File sessionDirectory;
+
+        WriterRunnable(@NonNull File file, @Nullable File sessionDirectory) {
+            this.file = file;
+            this.sessionDirectory = sessionDirectory;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            final PcmSink pcmSink;
+            try {
+                pcmSink = sessionDirectory != null
+                        ? new SegmentedWavWriter(sessionDirectory, file, SAMPLE_RATE, CHANNELS)
+                        : new WavWriter(file, SAMPLE_RATE, CHANNELS);
+            } catch (IOException e) {
+                Log.e(LOG, "file not created: " + file, e);
+                capturing = false;
+                awaitCapture();
+                onRecorderListener.onRecordError(file);
+                return;
+            }
+            short[] samples = new short[WRITE_CHUNK_SAMPLES];
+            byte[] bytes = new byte[WRITE_CHUNK_SAMPLES * 2];
+            boolean failed = false;
+            try {
+                while (true) {
+                    /*
+                     * Признак завершения читается до размера буфера, чтобы не потерять отсчеты,
+                     * записанные между этими проверками
+                     * */
+                    boolean finished = captureFinished;
+                    int available = ringBuffer.available();
+                    if (available >= WRITE_CHUNK_SAMPLES || (finished && available > 0)) {
+                        int count = ringBuffer.read(samples, 0, Math.min(available, WRITE_CHUNK_SAMPLES));
+                        for (int i = 0; i < count; i++) {
+                            bytes[2 * i] = (byte) samples[i];
+                            bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+                        }
+                        pcmSink.write(bytes, 0, count * 2);
+                        bytesWritten = pcmSink.getDataLength();
+                    } else if (finished) {
+                        break;
+                    } else {
+                        LockSupport.parkNanos(this, WRITER_WAIT_NS);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(LOG, "write failed: " + file, e);
+                failed = true;
+                capturing = false;
+            } finally {
+                try {
+                    pcmSink.close();
+                } catch (IOException e) {
+                    Log.e(LOG, "close failed: " + file, e);
+                    failed = true;
+                }
+            }
+            if (failed) {
+                /*
+                 * Запись считается завершенной только после освобождения AudioRecord потоком захвата
+                 * */
+                awaitCapture();
+            }
+            if (failed || captureFailed)
+                onRecorderListener.onRecordError(file);
+            else
+                onRecorderListener.onRecordFinished(file);
+        }
+    }
+}
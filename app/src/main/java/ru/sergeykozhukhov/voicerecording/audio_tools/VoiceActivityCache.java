@@ -0,0 +1,140 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Дисковый кэш индексов участков речи
+ *
+ * Участки записываются в файл по мере того, как их находит VoiceActivityDetector,
+ * поэтому построение индекса не накапливает данные в памяти.
+ */
+public class VoiceActivityCache extends SidecarCache {
+
+    private static final String LOG = "VoiceActivityCache";
+
+    /**
+     * Имя директории кэша внутри кэша приложения
+     */
+    public static final String DIRECTORY_NAME = "voice_activity";
+
+    /**
+     * Сигнатура файла индекса
+     */
+    private static final int VAD_MAGIC = 0x56525641;
+
+    /**
+     * Версия формата
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Расширение файлов индекса
+     */
+    private static final String VAD_EXTENSION = ".vad";
+
+    /**
+     * Метка конца списка участков
+     */
+    private static final long END_OF_SEGMENTS = -1L;
+
+    public VoiceActivityCache(@NonNull File directory) {
+        super(directory, VAD_MAGIC, VAD_EXTENSION);
+    }
+
+    /**
+     * Чтение индекса записи
+     * @param audio - файл записи
+     * @return индекс или null, если его нет в кэше или запись изменилась
+     */
+    @Nullable
+    @WorkerThread
+    public VoiceActivityIndex read(@NonNull File audio) {
+        DataInputStream in = openForRead(audio);
+        if (in == null)
+            return null;
+        try {
+            if (in.readInt() != FORMAT_VERSION)
+                return null;
+            long[] starts = new long[16];
+            long[] ends = new long[16];
+            int count = 0;
+            for (long start = in.readLong(); start != END_OF_SEGMENTS; start = in.readLong()) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                starts[count] = start;
+                ends[count] = in.readLong();
+                count++;
+            }
+            long durationUs = in.readLong();
+            return new VoiceActivityIndex(durationUs, Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+        } catch (IOException e) {
+            Log.w(LOG, "index read failed: " + audio, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Построение индекса записи потоковым проходом по декодированным отсчетам
+     * @param audio - файл записи
+     * @param decoder - декодер этой записи
+     * @return true - если индекс построен и сохранен, false - если декодирование не удалось или было отменено
+     */
+    @WorkerThread
+    public boolean build(@NonNull File audio, @NonNull final PcmDecoder decoder) {
+        final DataOutputStream out;
+        try {
+            out = openForWrite(audio);
+            out.writeInt(FORMAT_VERSION);
+        } catch (IOException e) {
+            Log.e(LOG, "index write failed: " + audio, e);
+            return false;
+        }
+
+        final IOException[] writeError = new IOException[1];
+        VoiceActivityDetector detector = new VoiceActivityDetector(new OnVoiceSegmentListener() {
+            @Override
+            public void onSpeechSegment(long startUs, long endUs) {
+                try {
+                    out.writeLong(startUs);
+                    out.writeLong(endUs);
+                } catch (IOException e) {
+                    writeError[0] = e;
+                    decoder.cancel();
+                }
+            }
+        });
+
+        try {
+            if (!decoder.decode(detector)) {
+                abort(audio, out);
+                if (writeError[0] != null)
+                    Log.e(LOG, "index write failed: " + audio, writeError[0]);
+                return false;
+            }
+            long durationUs = detector.finish();
+            if (writeError[0] != null)
+                throw writeError[0];
+            out.writeLong(END_OF_SEGMENTS);
+            out.writeLong(durationUs);
+        } catch (IOException e) {
+            Log.w(LOG, "index build failed: " + audio, e);
+            abort(audio, out);
+            return false;
+        }
+        return commit(audio, out);
+    }
+}
@@ -0,0 +1,238 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Потоковое определение участков речи по энергии и частоте переходов через ноль
+ *
+ * Отсчеты сводятся в моно и разбиваются на кадры по 20 мс. Кадр считается речью,
+ * если его энергия заметно превышает уровень шума, либо энергия умеренная, а частота переходов
+ * через ноль характерна для шипящих звуков. Уровень шума - минимум энергии кадров за последние
+ * несколько секунд, хранящийся в кольцевом буфере фиксированного размера.
+ * Речь начинается после нескольких речевых кадров подряд и заканчивается после паузы,
+ * поэтому короткие щелчки и паузы между словами не дробят участки.
+ *
+ * Используемая память не зависит от длительности записи.
+ */
+public final class VoiceActivityDetector implements OnPcmDecodedListener {
+
+    /**
+     * Длительность кадра в микросекундах
+     */
+    public static final long FRAME_DURATION_US = 20000L;
+
+    /**
+     * Количество речевых кадров подряд, после которого начинается участок речи
+     */
+    private static final int ONSET_FRAMES = 3;
+
+    /**
+     * Количество неречевых кадров подряд, после которого участок речи заканчивается
+     */
+    private static final int HANGOVER_FRAMES = 20;
+
+    /**
+     * Размер окна оценки уровня шума в кадрах (5 секунд)
+     */
+    private static final int NOISE_WINDOW_FRAMES = 250;
+
+    /**
+     * Превышение уровня шума, при котором кадр считается речью, дБ
+     */
+    private static final double SPEECH_MARGIN_DB = 12.0;
+
+    /**
+     * Превышение уровня шума для кадров с частыми переходами через ноль, дБ
+     */
+    private static final double FRICATIVE_MARGIN_DB = 6.0;
+
+    /**
+     * Доля переходов через ноль, начиная с которой кадр похож на шипящий звук
+     */
+    private static final double FRICATIVE_ZERO_CROSSING_RATE = 0.3;
+
+    /**
+     * Энергия, ниже которой кадр всегда считается тишиной, дБ относительно полной шкалы
+     */
+    private static final double SILENCE_FLOOR_DB = -60.0;
+
+    /**
+     * Наибольший уровень шума, дБ (не дает принять за шум запись, которая начинается с речи)
+     */
+    private static final double NOISE_CEILING_DB = -40.0;
+
+    /**
+     * Энергия кадра из нулевых отсчетов, дБ
+     */
+    private static final double MIN_ENERGY_DB = -100.0;
+
+    /**
+     * Получатель участков речи
+     */
+    private final OnVoiceSegmentListener listener;
+
+    /**
+     * Отсчеты текущего кадра (моно)
+     */
+    private short[] frame = new short[0];
+
+    /**
+     * Количество отсчетов в текущем кадре
+     */
+    private int framePosition;
+
+    /**
+     * Кольцевой буфер энергии последних кадров для оценки уровня шума
+     */
+    private final double[] energyRing = new double[NOISE_WINDOW_FRAMES];
+
+    /**
+     * Позиция записи в кольцевом буфере
+     */
+    private int energyRingPosition;
+
+    /**
+     * Количество заполненных позиций кольцевого буфера
+     */
+    private int energyRingCount;
+
+    private int channels = 1;
+
+    /**
+     * Отсчет текущего канала, накапливаемый для сведения в моно
+     */
+    private int channelSum;
+
+    private int channelIndex;
+
+    /**
+     * Номер текущего кадра
+     */
+    private long frameIndex;
+
+    private boolean inSpeech;
+
+    /**
+     * Количество речевых кадров подряд вне участка речи
+     */
+    private int speechRun;
+
+    /**
+     * Количество неречевых кадров подряд внутри участка речи
+     */
+    private int silenceRun;
+
+    /**
+     * Номер первого кадра текущего участка речи
+     */
+    private long segmentStartFrame;
+
+    /**
+     * Номер последнего речевого кадра текущего участка
+     */
+    private long lastSpeechFrame;
+
+    public VoiceActivityDetector(@NonNull OnVoiceSegmentListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void onFormat(int sampleRate, int channels, long durationUs) {
+        this.channels = Math.max(channels, 1);
+        int frameSize = (int) Math.max(1L, sampleRate * FRAME_DURATION_US / 1000000L);
+        if (frame.length != frameSize) {
+            frame = new short[frameSize];
+            framePosition = 0;
+        }
+    }
+
+    @Override
+    public void onSamples(@NonNull short[] samples, int count, long presentationTimeUs) {
+        if (frame.length == 0)
+            return;
+        for (int i = 0; i < count; i++) {
+            channelSum += samples[i];
+            if (++channelIndex < channels)
+                continue;
+            frame[framePosition++] = (short) (channelSum / channels);
+            channelSum = 0;
+            channelIndex = 0;
+            if (framePosition == frame.length) {
+                processFrame();
+                framePosition = 0;
+            }
+        }
+    }
+
+    /**
+     * Завершение потока: незаконченный участок речи передается получателю
+     * @return длительность обработанного потока в микросекундах
+     */
+    public long finish() {
+        if (inSpeech) {
+            inSpeech = false;
+            listener.onSpeechSegment(segmentStartFrame * FRAME_DURATION_US, (lastSpeechFrame + 1) * FRAME_DURATION_US);
+        }
+        return frameIndex * FRAME_DURATION_US;
+    }
+
+    /**
+     * Классификация завершенного кадра и обновление состояния участков
+     */
+    private void processFrame() {
+        long energySum = 0L;
+        int zeroCrossings = 0;
+        short previous = frame[0];
+        for (short sample : frame) {
+            energySum += sample * sample;
+            if ((sample >= 0) != (previous >= 0))
+                zeroCrossings++;
+            previous = sample;
+        }
+        double meanSquare = (double) energySum / frame.length;
+        double energyDb = meanSquare > 0.0
+                ? 10.0 * Math.log10(meanSquare / ((double) Short.MAX_VALUE * Short.MAX_VALUE))
+                : MIN_ENERGY_DB;
+        double zeroCrossingRate = (double) zeroCrossings / frame.length;
+
+        double noiseDb = updateNoiseFloor(energyDb);
+        boolean speech = energyDb > SILENCE_FLOOR_DB
+                && (energyDb > noiseDb + SPEECH_MARGIN_DB
+                || (zeroCrossingRate > FRICATIVE_ZERO_CROSSING_RATE && energyDb > noiseDb + FRICATIVE_MARGIN_DB));
+
+        if (!inSpeech) {
+            speechRun = speech ? speechRun + 1 : 0;
+            if (speechRun >= ONSET_FRAMES) {
+                inSpeech = true;
+                segmentStartFrame = frameIndex - speechRun + 1;
+                lastSpeechFrame = frameIndex;
+                silenceRun = 0;
+                speechRun = 0;
+            }
+        } else if (speech) {
+            lastSpeechFrame = frameIndex;
+            silenceRun = 0;
+        } else if (++silenceRun > HANGOVER_FRAMES) {
+            inSpeech = false;
+            listener.onSpeechSegment(segmentStartFrame * FRAME_DURATION_US, (lastSpeechFrame + 1) * FRAME_DURATION_US);
+        }
+        frameIndex++;
+    }
+
+    /**
+     * Добавление энергии кадра в кольцевой буфер
+     * @return уровень шума - минимальная энергия кадров в окне, но не выше NOISE_CEILING_DB, дБ
+     */
+    private double updateNoiseFloor(double energyDb) {
+        energyRing[energyRingPosition] = energyDb;
+        energyRingPosition = (energyRingPosition + 1) % energyRing.length;
+        if (energyRingCount < energyRing.length)
+            energyRingCount++;
+        double min = NOISE_CEILING_DB;
+        for (int i = 0; i < energyRingCount; i++) {
+            if (energyRing[i] < min)
+                min = energyRing[i];
+        }
+        return min;
+    }
+}
@@ -0,0 +1,114 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Неизменяемый индекс участков речи записи
+ * Все, что не попало в участки речи, считается тишиной
+ */
+public final class VoiceActivityIndex {
+
+    /**
+     * Длительность записи в микросекундах
+     */
+    private final long durationUs;
+
+    /**
+     * Начала участков речи по возрастанию, мкс
+     */
+    private final long[] startsUs;
+
+    /**
+     * Концы участков речи, мкс
+     */
+    private final long[] endsUs;
+
+    /**
+     * Суммарная длительность речи до начала каждого участка, мкс
+     */
+    private final long[] speechBeforeUs;
+
+    VoiceActivityIndex(long durationUs, @NonNull long[] startsUs, @NonNull long[] endsUs) {
+        this.durationUs = durationUs;
+        this.startsUs = startsUs;
+        this.endsUs = endsUs;
+        speechBeforeUs = new long[startsUs.length + 1];
+        for (int i = 0; i < startsUs.length; i++) {
+            speechBeforeUs[i + 1] = speechBeforeUs[i] + endsUs[i] - startsUs[i];
+        }
+    }
+
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    public int getSegmentCount() {
+        return startsUs.length;
+    }
+
+    public long getStartUs(int segment) {
+        return startsUs[segment];
+    }
+
+    public long getEndUs(int segment) {
+        return endsUs[segment];
+    }
+
+    /**
+     * Есть ли в записи речь
+     */
+    public boolean hasSpeech() {
+        return startsUs.length > 0;
+    }
+
+    /**
+     * Суммарная длительность речи
+     * @return длительность в микросекундах
+     */
+    public long getSpeechDurationUs() {
+        return speechBeforeUs[startsUs.length];
+    }
+
+    /**
+     * Перевод позиции записи во время речи (длительность речи до позиции)
+     * @param positionUs - позиция записи в микросекундах
+     * @return время речи в микросекундах
+     */
+    public long toSpeechTimeUs(long positionUs) {
+        int segment = findSegment(positionUs);
+        if (segment == startsUs.length)
+            return getSpeechDurationUs();
+        return speechBeforeUs[segment] + Math.max(0L, positionUs - startsUs[segment]);
+    }
+
+    /**
+     * Перевод времени речи в позицию записи
+     * @param speechTimeUs - время речи в микросекундах
+     * @return позиция записи в микросекундах (внутри участка речи)
+     */
+    public long fromSpeechTimeUs(long speechTimeUs) {
+        if (startsUs.length == 0)
+            return Math.max(0L, Math.min(speechTimeUs, durationUs));
+        if (speechTimeUs >= getSpeechDurationUs())
+            return endsUs[startsUs.length - 1];
+        int segment = Arrays.binarySearch(speechBeforeUs, 0, startsUs.length, Math.max(0L, speechTimeUs));
+        if (segment < 0)
+            segment = -segment - 2;
+        return startsUs[segment] + Math.max(0L, speechTimeUs) - speechBeforeUs[segment];
+    }
+
+    /**
+     * Поиск участка речи, содержащего позицию или следующего за ней
+     * @param positionUs - позиция в микросекундах
+     * @return номер участка или getSegmentCount(), если после позиции речи нет
+     */
+    public int findSegment(long positionUs) {
+        int index = Arrays.binarySearch(endsUs, positionUs);
+        /*
+         * Позиция, совпадающая с концом участка, относится уже к следующему
+         * */
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+}
@@ -0,0 +1,41 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+/**
+ * Фоновое получение индекса участков речи записи
+ * Запись декодируется только если индекса еще нет в кэше
+ */
+public class VoiceActivityTask implements Callable<VoiceActivityIndex> {
+
+    /**
+     * Файл записи
+     */
+    private final File audio;
+
+    /**
+     * Кэш индексов
+     */
+    private final VoiceActivityCache voiceActivityCache;
+
+    public VoiceActivityTask(@NonNull File audio, @NonNull VoiceActivityCache voiceActivityCache) {
+        this.audio = audio;
+        this.voiceActivityCache = voiceActivityCache;
+    }
+
+    /**
+     * @return индекс или null, если запись не удалось декодировать
+     */
+    @Nullable
+    @Override
+    public VoiceActivityIndex call() {
+        VoiceActivityIndex index = voiceActivityCache.read(audio);
+        if (index == null && voiceActivityCache.build(audio, new PcmDecoder(audio)))
+            index = voiceActivityCache.read(audio);
+        return index;
+    }
+}
@@ -0,0 +1,148 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Запись 16-битного PCM в файл WAV
+ *
+ * Заголовок записывается сразу с нулевыми размерами и исправляется при закрытии.
+ * Если файл не был закрыт, AudioProbe берет размер данных по длине файла, поэтому запись остается читаемой.
+ */
+public class WavWriter implements PcmSink {
+
+    /**
+     * Размер заголовка WAV (RIFF, fmt, data)
+     */
+    static final int HEADER_SIZE = 44;
+
+    /**
+     * Разрядность отсчета
+     */
+    private static final int BITS_PER_SAMPLE = 16;
+
+    /**
+     * Файл записи
+     */
+    private final File file;
+
+    /**
+     * Поток записи данных
+     */
+    private final FileOutputStream out;
+
+    /**
+     * Количество записанных байтов данных
+     */
+    private long dataLength;
+
+    /**
+     * @param file - файл записи
+     * @param sampleRate - частота дискретизации
+     * @param channels - количество каналов
+     * @throws IOException - если файл не удалось создать
+     */
+    @WorkerThread
+    public WavWriter(@NonNull File file, int sampleRate, int channels) throws IOException {
+        this.file = file;
+        this.out = new FileOutputStream(file);
+        try {
+            out.write(createHeader(sampleRate, channels, 0L));
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Запись отсчетов, преобразованных в байты (little-endian)
+     */
+    @WorkerThread
+    @Override
+    public void write(@NonNull byte[] data, int offset, int length) throws IOException {
+        out.write(data, offset, length);
+        dataLength += length;
+    }
+
+    /**
+     * Количество записанных байтов данных
+     */
+    @Override
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * Закрытие файла и запись размеров в заголовок
+     * Данные сбрасываются на диск до закрытия, поэтому после возврата файл сохранен полностью
+     */
+    @WorkerThread
+    @Override
+    public void close() throws IOException {
+        try {
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        patchHeader(file, dataLength);
+    }
+
+    /**
+     * Запись размеров в заголовок файла WAV
+     * @param file - файл, записанный WavWriter
+     * @param dataLength - размер данных в байтах
+     */
+    @WorkerThread
+    static void patchHeader(@NonNull File file, long dataLength) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(4);
+            raf.write(intLe(HEADER_SIZE - 8 + dataLength));
+            raf.seek(HEADER_SIZE - 4);
+            raf.write(intLe(dataLength));
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Заголовок WAV
+     * @param dataLength - размер данных в байтах
+     */
+    @NonNull
+    private static byte[] createHeader(int sampleRate, int channels, long dataLength) {
+        int blockAlign = channels * BITS_PER_SAMPLE / 8;
+        byte[] header = new byte[HEADER_SIZE];
+        put(header, 0, "RIFF");
+        System.arraycopy(intLe(HEADER_SIZE - 8 + dataLength), 0, header, 4, 4);
+        put(header, 8, "WAVE");
+        put(header, 12, "fmt ");
+        System.arraycopy(intLe(16), 0, header, 16, 4);
+        header[20] = 1;
+        header[22] = (byte) channels;
+        System.arraycopy(intLe(sampleRate), 0, header, 24, 4);
+        System.arraycopy(intLe((long) sampleRate * blockAlign), 0, header, 28, 4);
+        header[32] = (byte) blockAlign;
+        header[34] = BITS_PER_SAMPLE;
+        put(header, 36, "data");
+        System.arraycopy(intLe(dataLength), 0, header, 40, 4);
+        return header;
+    }
+
+    private static void put(@NonNull byte[] header, int offset, @NonNull String fourCc) {
+        for (int i = 0; i < 4; i++) {
+            header[offset + i] = (byte) fourCc.charAt(i);
+        }
+    }
+
+    @NonNull
+    private static byte[] intLe(long value) {
+        return new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)};
+    }
+}
@@ -0,0 +1,109 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Построение пиков огибающей по отсчетам, поступающим от PcmDecoder
+ * Отсчеты всех каналов попадают в общий пик, отдельные массивы под каналы не создаются
+ */
+public final class WaveformBuilder implements OnPcmDecodedListener {
+
+    /**
+     * Начальная емкость массивов пиков (минута записи)
+     */
+    private static final int INITIAL_CAPACITY = 3000;
+
+    private byte[] peaksMin = new byte[INITIAL_CAPACITY];
+
+    private byte[] peaksMax = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Количество завершенных пиков
+     */
+    private int peakCount;
+
+    /**
+     * Количество отсчетов (с учетом всех каналов) в одном пике
+     */
+    private int samplesPerPeak;
+
+    /**
+     * Количество отсчетов, накопленных в текущем пике
+     */
+    private int pendingSamples;
+
+    private short pendingMin = Short.MAX_VALUE;
+
+    private short pendingMax = Short.MIN_VALUE;
+
+    /**
+     * Длительность потока, сообщенная декодером
+     */
+    private long durationUs;
+
+    /**
+     * Время окончания последней порции отсчетов
+     */
+    private long endTimeUs;
+
+    private int sampleRate;
+
+    private int channels;
+
+    @Override
+    public void onFormat(int sampleRate, int channels, long durationUs) {
+        this.sampleRate = sampleRate;
+        this.channels = Math.max(channels, 1);
+        if (durationUs > 0L)
+            this.durationUs = durationUs;
+        samplesPerPeak = (int) Math.max(1L, sampleRate * WaveformPeaks.BASE_PEAK_DURATION_US / 1000000L) * this.channels;
+    }
+
+    @Override
+    public void onSamples(@NonNull short[] samples, int count, long presentationTimeUs) {
+        if (samplesPerPeak == 0)
+            return;
+        for (int i = 0; i < count; i++) {
+            short sample = samples[i];
+            if (sample < pendingMin)
+                pendingMin = sample;
+            if (sample > pendingMax)
+                pendingMax = sample;
+            if (++pendingSamples == samplesPerPeak)
+                flushPeak();
+        }
+        if (sampleRate > 0)
+            endTimeUs = presentationTimeUs + (count / channels) * 1000000L / sampleRate;
+    }
+
+    /**
+     * Завершение текущего пика
+     */
+    private void flushPeak() {
+        if (peakCount == peaksMin.length) {
+            peaksMin = Arrays.copyOf(peaksMin, peakCount * 2);
+            peaksMax = Arrays.copyOf(peaksMax, peakCount * 2);
+        }
+        peaksMin[peakCount] = (byte) (pendingMin >> 8);
+        peaksMax[peakCount] = (byte) (pendingMax >> 8);
+        peakCount++;
+        pendingSamples = 0;
+        pendingMin = Short.MAX_VALUE;
+        pendingMax = Short.MIN_VALUE;
+    }
+
+    /**
+     * Получение пиков всех уровней по накопленным отсчетам
+     * @return пики
+     */
+    @NonNull
+    public WaveformPeaks build() {
+        if (pendingSamples > 0)
+            flushPeak();
+        long duration = durationUs > 0L ? durationUs : endTimeUs;
+        return WaveformPeaks.fromBaseLevel(duration,
+                Arrays.copyOf(peaksMin, peakCount), Arrays.copyOf(peaksMax, peakCount));
+    }
+}
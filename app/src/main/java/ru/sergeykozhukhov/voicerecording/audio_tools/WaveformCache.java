@@ -0,0 +1,79 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Дисковый кэш пиков огибающей
+ */
+public class WaveformCache extends SidecarCache {
+
+    private static final String LOG = "WaveformCache";
+
+    /**
+     * Сигнатура файла пиков
+     */
+    private static final int PEAKS_MAGIC = 0x56525046;
+
+    /**
+     * Расширение файлов пиков
+     */
+    private static final String PEAKS_EXTENSION = ".peaks";
+
+    public WaveformCache(@NonNull File directory) {
+        super(directory, PEAKS_MAGIC, PEAKS_EXTENSION);
+    }
+
+    /**
+     * Чтение пиков записи из кэша
+     * @param audio - файл записи
+     * @return пики или null, если их нет в кэше или запись изменилась
+     */
+    @Nullable
+    @WorkerThread
+    public WaveformPeaks read(@NonNull File audio) {
+        DataInputStream in = openForRead(audio);
+        if (in == null)
+            return null;
+        try {
+            return WaveformPeaks.readFrom(in);
+        } catch (IOException e) {
+            Log.w(LOG, "peaks read failed: " + audio, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Сохранение пиков записи
+     * @param audio - файл записи
+     * @param peaks - пики
+     */
+    @WorkerThread
+    public void write(@NonNull File audio, @NonNull WaveformPeaks peaks) {
+        DataOutputStream out;
+        try {
+            out = openForWrite(audio);
+        } catch (IOException e) {
+            Log.e(LOG, "peaks write failed: " + audio, e);
+            return;
+        }
+        try {
+            peaks.writeTo(out);
+        } catch (IOException e) {
+            Log.e(LOG, "peaks write failed: " + audio, e);
+            abort(audio, out);
+            return;
+        }
+        commit(audio, out);
+    }
+}
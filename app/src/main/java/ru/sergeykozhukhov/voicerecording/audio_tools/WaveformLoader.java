@@ -0,0 +1,248 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Фоновая загрузка пиков огибающей записей
+ *
+ * Пики берутся из кэша в памяти, затем из дискового кэша, а при их отсутствии запись декодируется и кэш заполняется,
+ * поэтому каждая запись декодируется не более одного раза. Одновременные запросы одной записи
+ * объединяются, а запросы, от которых отказались все обработчики, отменяются.
+ * Методы вызываются в главном потоке, результат передается в главном потоке.
+ */
+public class WaveformLoader {
+
+    private static final String LOG = "WaveformLoader";
+
+    /**
+     * Дисковый кэш пиков
+     */
+    private final WaveformCache waveformCache;
+
+    /**
+     * Поток декодирования (декодирование занимает процессор, поэтому записи обрабатываются по одной)
+     */
+    private final ExecutorService decodeExecutor;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Кэш пиков в памяти, позволяющий показывать недавно просмотренные записи без обращения к диску
+     */
+    private final RecordingDataCache dataCache = RecordingDataCache.getInstance();
+
+    /**
+     * Выполняемые запросы по файлам (не более одного на файл, для последней запрошенной версии)
+     */
+    private final Map<File, Request> requests = new HashMap<>();
+
+    /**
+     * Время изменения записей, которые не удалось декодировать
+     * Повторно такая запись декодируется только после ее изменения
+     */
+    private final Map<File, Long> failedFiles = new HashMap<>();
+
+    public WaveformLoader(@NonNull WaveformCache waveformCache) {
+        this.waveformCache = waveformCache;
+        decodeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "WaveformDecoder");
+            }
+        });
+    }
+
+    /**
+     * Запрос пиков записи
+     * @param file - файл записи
+     * @param lastModified - время изменения файла из снимка директории
+     * @param listener - обработчик результата
+     */
+    @MainThread
+    public void load(@NonNull File file, long lastModified, @NonNull OnWaveformLoadedListener listener) {
+        if (decodeExecutor.isShutdown())
+            return;
+        WaveformPeaks cached = dataCache.getPeaks(file, lastModified);
+        if (cached != null) {
+            listener.onWaveformLoaded(file, cached);
+            return;
+        }
+        Long failedLastModified = failedFiles.get(file);
+        if (failedLastModified != null && failedLastModified == lastModified) {
+            listener.onWaveformLoaded(file, null);
+            return;
+        }
+        Request request = requests.get(file);
+        if (request != null && request.lastModified != lastModified) {
+            /*
+             * Выполняется запрос другой версии файла: он отменяется, а его обработчики
+             * получат пики версии из нового запроса
+             * */
+            requests.remove(file);
+            request.cancel();
+            Request restarted = startRequest(file, lastModified);
+            restarted.listeners.addAll(request.listeners);
+            request = restarted;
+        } else if (request == null) {
+            request = startRequest(file, lastModified);
+        }
+        request.listeners.add(listener);
+    }
+
+    /**
+     * Запуск загрузки пиков версии файла
+     */
+    @NonNull
+    private Request startRequest(@NonNull File file, long lastModified) {
+        Request request = new Request(file, lastModified);
+        requests.put(file, request);
+        request.future = decodeExecutor.submit(request);
+        return request;
+    }
+
+    /**
+     * Отказ обработчика от результата
+     * Если от записи отказались все обработчики, ее загрузка отменяется
+     * @param file - файл записи
+     * @param listener - обработчик
+     */
+    @MainThread
+    public void cancel(@NonNull File file, @NonNull OnWaveformLoadedListener listener) {
+        Request request = requests.get(file);
+        if (request == null)
+            return;
+        request.listeners.remove(listener);
+        if (request.listeners.isEmpty()) {
+            requests.remove(file);
+            request.cancel();
+        }
+    }
+
+    /**
+     * Освобождение ресурсов, запросы после этого не выполняются
+     */
+    @MainThread
+    public void release() {
+        for (Request request : requests.values()) {
+            request.cancel();
+        }
+        requests.clear();
+        decodeExecutor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * Получение пиков из кэша или декодированием
+     * @return пики или null, если загрузка отменена или запись не удалось декодировать
+     */
+    @Nullable
+    @WorkerThread
+    private WaveformPeaks loadPeaks(@NonNull File file, @NonNull PcmDecoder decoder) {
+        WaveformPeaks peaks = waveformCache.read(file);
+        if (peaks != null)
+            return peaks;
+
+        WaveformBuilder builder = new WaveformBuilder();
+        try {
+            if (!decoder.decode(builder))
+                return null;
+        } catch (IOException e) {
+            Log.w(LOG, "decode failed: " + file, e);
+            return null;
+        }
+        peaks = builder.build();
+        waveformCache.write(file, peaks);
+        return peaks;
+    }
+
+    /**
+     * Передача результата обработчикам
+     */
+    @MainThread
+    private void deliver(@NonNull Request request, @Nullable WaveformPeaks peaks) {
+        if (requests.get(request.file) != request)
+            return;
+        requests.remove(request.file);
+        if (peaks == null) {
+            failedFiles.put(request.file, request.lastModified);
+        } else {
+            failedFiles.remove(request.file);
+            dataCache.putPeaks(request.file, request.lastModified, peaks);
+        }
+        for (OnWaveformLoadedListener listener : new ArrayList<>(request.listeners)) {
+            listener.onWaveformLoaded(request.file, peaks);
+        }
+    }
+
+    /**
+     * Загрузка пиков одной записи
+     */
+    private final class Request implements Runnable {
+
+        private final File file;
+
+        private final long lastModified;
+
+        private final PcmDecoder decoder;
+
+        /**
+         * Обработчики результата (изменяются только в главном потоке)
+         */
+        private final List<OnWaveformLoadedListener> listeners = new ArrayList<>();
+
+        private Future<?> future;
+
+        Request(@NonNull File file, long lastModified) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.decoder = new PcmDecoder(file);
+        }
+
+        @Override
+        public void run() {
+            final WaveformPeaks peaks = loadPeaks(file, decoder);
+            if (decoder.isCancelled())
+                return;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(Request.this, peaks);
+                }
+            });
+        }
+
+        /**
+         * Отмена ожидающей загрузки или прерывание декодирования
+         */
+        void cancel() {
+            decoder.cancel();
+            if (future != null)
+                future.cancel(false);
+        }
+    }
+}
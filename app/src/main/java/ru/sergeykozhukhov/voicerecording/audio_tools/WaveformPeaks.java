@@ -0,0 +1,189 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import androidx.annotation.NonNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Неизменяемые пики огибающей записи на нескольких уровнях масштаба
+ *
+ * Каждый пик хранит минимальное и максимальное значение отсчетов за свой промежуток времени
+ * (старшие 8 бит 16-битного отсчета). Уровень 0 самый подробный, каждый следующий уровень
+ * объединяет LEVEL_FACTOR пиков предыдущего.
+ */
+public final class WaveformPeaks {
+
+    /**
+     * Длительность пика самого подробного уровня в микросекундах
+     */
+    public static final long BASE_PEAK_DURATION_US = 20000L;
+
+    /**
+     * Во сколько раз длительность пика каждого уровня больше предыдущего
+     */
+    public static final int LEVEL_FACTOR = 4;
+
+    /**
+     * Количество пиков, при котором следующие уровни не строятся
+     */
+    private static final int MIN_LEVEL_PEAKS = 64;
+
+    /**
+     * Версия формата сериализации
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Длительность записи в микросекундах
+     */
+    private final long durationUs;
+
+    /**
+     * Минимальные значения пиков по уровням
+     */
+    private final byte[][] min;
+
+    /**
+     * Максимальные значения пиков по уровням
+     */
+    private final byte[][] max;
+
+    private WaveformPeaks(long durationUs, @NonNull byte[][] min, @NonNull byte[][] max) {
+        this.durationUs = durationUs;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Построение всех уровней по пикам самого подробного уровня
+     * @param durationUs - длительность записи в микросекундах
+     * @param baseMin - минимальные значения уровня 0
+     * @param baseMax - максимальные значения уровня 0
+     * @return пики всех уровней
+     */
+    @NonNull
+    static WaveformPeaks fromBaseLevel(long durationUs, @NonNull byte[] baseMin, @NonNull byte[] baseMax) {
+        int levels = 1;
+        for (int count = baseMin.length; count > MIN_LEVEL_PEAKS; count = (count + LEVEL_FACTOR - 1) / LEVEL_FACTOR) {
+            levels++;
+        }
+
+        byte[][] min = new byte[levels][];
+        byte[][] max = new byte[levels][];
+        min[0] = baseMin;
+        max[0] = baseMax;
+        for (int level = 1; level < levels; level++) {
+            byte[] prevMin = min[level - 1];
+            byte[] prevMax = max[level - 1];
+            int count = (prevMin.length + LEVEL_FACTOR - 1) / LEVEL_FACTOR;
+            min[level] = new byte[count];
+            max[level] = new byte[count];
+            for (int i = 0; i < count; i++) {
+                byte lo = Byte.MAX_VALUE;
+                byte hi = Byte.MIN_VALUE;
+                int end = Math.min((i + 1) * LEVEL_FACTOR, prevMin.length);
+                for (int j = i * LEVEL_FACTOR; j < end; j++) {
+                    if (prevMin[j] < lo)
+                        lo = prevMin[j];
+                    if (prevMax[j] > hi)
+                        hi = prevMax[j];
+                }
+                min[level][i] = lo;
+                max[level][i] = hi;
+            }
+        }
+        return new WaveformPeaks(durationUs, min, max);
+    }
+
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    public int getLevelCount() {
+        return min.length;
+    }
+
+    public int getPeakCount(int level) {
+        return min[level].length;
+    }
+
+    /**
+     * Длительность одного пика уровня
+     * @param level - уровень
+     * @return длительность в микросекундах
+     */
+    public long getPeakDurationUs(int level) {
+        long duration = BASE_PEAK_DURATION_US;
+        for (int i = 0; i < level; i++) {
+            duration *= LEVEL_FACTOR;
+        }
+        return duration;
+    }
+
+    public byte getMin(int level, int index) {
+        return min[level][index];
+    }
+
+    public byte getMax(int level, int index) {
+        return max[level][index];
+    }
+
+    /**
+     * Выбор наименее подробного уровня, у которого на каждую точку ширины приходится хотя бы один пик
+     * @param width - ширина области отрисовки в точках
+     * @return уровень
+     */
+    public int selectLevel(int width) {
+        int level = 0;
+        while (level + 1 < min.length && min[level + 1].length >= width) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Размер данных в байтах
+     */
+    public int getByteCount() {
+        int count = 0;
+        for (byte[] level : min) {
+            count += level.length * 2;
+        }
+        return count;
+    }
+
+    /**
+     * Запись пиков в поток
+     * @param out - поток
+     */
+    void writeTo(@NonNull DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(durationUs);
+        out.writeInt(min[0].length);
+        out.write(min[0]);
+        out.write(max[0]);
+    }
+
+    /**
+     * Чтение пиков из потока, уровни кроме самого подробного строятся заново
+     * @param in - поток
+     * @return пики
+     * @throws IOException - если формат не поддерживается или данные повреждены
+     */
+    @NonNull
+    static WaveformPeaks readFrom(@NonNull DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION)
+            throw new IOException("unsupported peaks version");
+        long durationUs = in.readLong();
+        int count = in.readInt();
+        if (count < 0 || durationUs < 0L)
+            throw new IOException("corrupted peaks");
+        byte[] baseMin = new byte[count];
+        byte[] baseMax = new byte[count];
+        in.readFully(baseMin);
+        in.readFully(baseMax);
+        return fromBaseLevel(durationUs, baseMin, baseMax);
+    }
+}
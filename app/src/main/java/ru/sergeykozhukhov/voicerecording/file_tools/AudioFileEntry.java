@@ -0,0 +1,154 @@
+package ru.sergeykozhukhov.voicerecording.file_tools;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+
+/**
+ * Неизменяемый снимок сведений о файле директории голосовых записей
+ */
+public final class AudioFileEntry {
+
+    /**
+     * Длительность, которая еще не была определена
+     */
+    public static final long DURATION_UNKNOWN = -1L;
+
+    /**
+     * Длительность, которую не удалось определить по заголовкам файла
+     */
+    public static final long DURATION_UNAVAILABLE = -2L;
+
+    /**
+     * Файл
+     */
+    private final File file;
+
+    /**
+     * Имя файла внутри директории
+     */
+    private final String name;
+
+    /**
+     * Отображаемое имя (имя файла без расширения)
+     */
+    private final String displayName;
+
+    /**
+     * Является ли объект папкой
+     */
+    private final boolean directory;
+
+    /**
+     * Размер файла в байтах
+     */
+    private final long length;
+
+    /**
+     * Время последнего изменения файла в миллисекундах
+     */
+    private final long lastModified;
+
+    /**
+     * Длительность записи в миллисекундах
+     */
+    private final long duration;
+
+    public AudioFileEntry(@NonNull File file, boolean directory, long length, long lastModified, long duration) {
+        this.file = file;
+        this.name = file.getName();
+        this.displayName = directory ? name : removeExtension(name);
+        this.directory = directory;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.duration = duration;
+    }
+
+    /**
+     * Получение снимка по файлу (единственное место, где производится обращение к файловой системе)
+     * @param file - файл директории
+     * @return снимок сведений о файле
+     */
+    @NonNull
+    public static AudioFileEntry fromFile(@NonNull File file) {
+        return new AudioFileEntry(file, file.isDirectory(), file.length(), file.lastModified(), DURATION_UNKNOWN);
+    }
+
+    /**
+     * Копия снимка с установленной длительностью
+     * @param duration - длительность в миллисекундах
+     * @return новый снимок
+     */
+    @NonNull
+    public AudioFileEntry withDuration(long duration) {
+        return new AudioFileEntry(file, directory, length, lastModified, duration);
+    }
+
+    /**
+     * Совпадает ли снимок с текущим состоянием файла
+     * @param file - файл директории
+     * @return true - если время изменения и размер не поменялись
+     */
+    public boolean isSameAs(@NonNull File file) {
+        return lastModified == file.lastModified() && length == file.length();
+    }
+
+    /**
+     * Описывают ли два снимка одно и то же состояние файла
+     * @param entry - другой снимок
+     * @return true - если совпадают файл, время изменения и размер
+     */
+    public boolean isSameAs(@NonNull AudioFileEntry entry) {
+        return file.equals(entry.file) && lastModified == entry.lastModified && length == entry.length;
+    }
+
+    /**
+     * Требуется ли определить длительность записи
+     * @return true - если объект является файлом и его длительность еще не определялась
+     */
+    public boolean needsDuration() {
+        return !directory && duration == DURATION_UNKNOWN;
+    }
+
+    /**
+     * Получение имени файла без расширения
+     * @param name - имя файла
+     * @return имя без расширения или исходное имя, если расширения нет
+     */
+    @NonNull
+    private static String removeExtension(@NonNull String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    @NonNull
+    public File getFile() {
+        return file;
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    @NonNull
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+}
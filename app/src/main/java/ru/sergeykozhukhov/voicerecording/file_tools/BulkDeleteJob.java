@@ -0,0 +1,226 @@
+package ru.sergeykozhukhov.voicerecording.file_tools;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Задание массового удаления файлов
+ *
+ * Файлы удаляются пачками в нескольких фоновых потоках. Ошибка удаления отдельного файла
+ * не останавливает задание, а попадает в итоговый отчет.
+ * Перед началом удаления список файлов записывается в журнал, который удаляется после завершения задания,
+ * поэтому задание, прерванное завершением процесса, может быть продолжено по журналу.
+ * Повторное удаление уже удаленного файла считается успешным.
+ */
+public class BulkDeleteJob {
+
+    private static final String LOG = "BulkDeleteJob";
+
+    /**
+     * Количество файлов в пачке
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Количество потоков удаления
+     */
+    private static final int THREAD_COUNT = 4;
+
+    /**
+     * Журнал задания
+     */
+    private final File journalFile;
+
+    /**
+     * Обработчик хода удаления (вызывается в потоках удаления)
+     */
+    private final OnBulkDeleteListener listener;
+
+    /**
+     * Количество обработанных файлов
+     */
+    private final AtomicInteger processed = new AtomicInteger();
+
+    /**
+     * Количество незавершенных пачек
+     */
+    private final AtomicInteger pendingBatches = new AtomicInteger();
+
+    /**
+     * Пути файлов, которые не удалось удалить
+     */
+    private final ConcurrentLinkedQueue<String> failedPaths = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Количество файлов в задании
+     */
+    private int total;
+
+    /**
+     * Потоки удаления
+     */
+    private ExecutorService executor;
+
+    public BulkDeleteJob(@NonNull File journalFile, @NonNull OnBulkDeleteListener listener) {
+        this.journalFile = journalFile;
+        this.listener = listener;
+    }
+
+    /**
+     * Есть ли незавершенное задание, записанное в журнал
+     * @param journalFile - журнал задания
+     */
+    public static boolean hasPendingJob(@NonNull File journalFile) {
+        return journalFile.exists();
+    }
+
+    /**
+     * Запуск удаления файлов
+     * @param files - файлы для удаления
+     */
+    public void start(@NonNull List<File> files) {
+        List<String> paths = new ArrayList<>(files.size());
+        for (File file : files) {
+            paths.add(file.getPath());
+        }
+        if (!writeJournal(paths))
+            Log.w(LOG, "journal is not written, the job can not be resumed");
+        run(paths);
+    }
+
+    /**
+     * Продолжение задания, записанного в журнал
+     */
+    public void resume() {
+        List<String> paths = readJournal();
+        if (paths == null) {
+            journalFile.delete();
+            paths = new ArrayList<>();
+        }
+        run(paths);
+    }
+
+    /**
+     * Удаление файлов пачками
+     * @param paths - пути файлов для удаления
+     */
+    private void run(@NonNull List<String> paths) {
+        total = paths.size();
+        if (paths.isEmpty()) {
+            finish();
+            return;
+        }
+
+        executor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "BulkDelete-" + count.incrementAndGet());
+            }
+        });
+
+        int batchCount = (paths.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        pendingBatches.set(batchCount);
+        for (int i = 0; i < batchCount; i++) {
+            final List<String> batch = paths.subList(i * BATCH_SIZE, Math.min((i + 1) * BATCH_SIZE, paths.size()));
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deleteBatch(batch);
+                }
+            });
+        }
+    }
+
+    /**
+     * Удаление пачки файлов
+     * @param batch - пути файлов пачки
+     */
+    private void deleteBatch(@NonNull List<String> batch) {
+        for (String path : batch) {
+            File file = new File(path);
+            if (!file.delete() && file.exists()) {
+                failedPaths.add(path);
+                Log.e(LOG, "delete failed: " + path);
+            }
+        }
+        listener.onProgress(processed.addAndGet(batch.size()), total);
+
+        if (pendingBatches.decrementAndGet() == 0) {
+            executor.shutdown();
+            finish();
+        }
+    }
+
+    /**
+     * Завершение задания: удаление журнала и передача отчета
+     */
+    private void finish() {
+        if (journalFile.exists() && !journalFile.delete())
+            Log.e(LOG, "journal is not deleted");
+        listener.onFinished(new BulkDeleteReport(total, new ArrayList<>(failedPaths)));
+    }
+
+    /**
+     * Запись журнала задания
+     * @param paths - пути файлов для удаления
+     * @return true - если журнал записан
+     */
+    private boolean writeJournal(@NonNull List<String> paths) {
+        File tmpFile = new File(journalFile.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile))) {
+            for (String path : paths) {
+                writer.write(path);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            Log.e(LOG, "journal write failed", e);
+            return false;
+        }
+        return tmpFile.renameTo(journalFile);
+    }
+
+    /**
+     * Чтение журнала задания
+     * @return пути файлов для удаления или null, если журнал не прочитан
+     */
+    @Nullable
+    private List<String> readJournal() {
+        List<String> paths = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(journalFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty())
+                    paths.add(line);
+            }
+        } catch (IOException e) {
+            Log.e(LOG, "journal read failed", e);
+            return null;
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,50 @@
+package ru.sergeykozhukhov.voicerecording.file_tools;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Итог массового удаления файлов
+ */
+public final class BulkDeleteReport {
+
+    /**
+     * Количество файлов в задании
+     */
+    private final int total;
+
+    /**
+     * Пути файлов, которые не удалось удалить
+     */
+    private final List<String> failedPaths;
+
+    BulkDeleteReport(int total, @NonNull List<String> failedPaths) {
+        this.total = total;
+        this.failedPaths = Collections.unmodifiableList(failedPaths);
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Количество удаленных файлов
+     */
+    public int getDeletedCount() {
+        return total - failedPaths.size();
+    }
+
+    @NonNull
+    public List<String> getFailedPaths() {
+        return failedPaths;
+    }
+
+    /**
+     * Удалены ли все файлы задания
+     */
+    public boolean isSuccessful() {
+        return failedPaths.isEmpty();
+    }
+}
@@ -0,0 +1,115 @@
+package ru.sergeykozhukhov.voicerecording.file_tools;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Наблюдатель за директорией голосовых записей
+ *
+ * События файловой системы приходят в отдельном потоке FileObserver, накапливаются
+ * и передаются одной пачкой в поток handler, когда события перестают поступать.
+ * Если события поступают непрерывно (например, идет запись файла), пачка передается
+ * не реже, чем раз в MAX_DELAY миллисекунд.
+ */
+public class DirectoryWatcher extends FileObserver {
+
+    /**
+     * Отслеживаемые события
+     */
+    private static final int EVENTS = CREATE | CLOSE_WRITE | DELETE | MOVED_FROM | MOVED_TO;
+
+    /**
+     * Время ожидания новых событий перед передачей пачки
+     */
+    private static final long DEBOUNCE_DELAY = 300L;
+
+    /**
+     * Максимальная задержка передачи первого события пачки
+     */
+    private static final long MAX_DELAY = 1000L;
+
+    /**
+     * Обработчик пачки изменений
+     */
+    public interface OnChangedListener {
+        /**
+         * Изменение файлов директории
+         * @param names - имена файлов, по которым поступали события
+         */
+        void onChanged(@NonNull Set<String> names);
+    }
+
+    /**
+     * Поток, в который передаются пачки изменений
+     */
+    private final Handler handler;
+
+    /**
+     * Обработчик пачки изменений
+     */
+    private final OnChangedListener onChangedListener;
+
+    /**
+     * Имена файлов, по которым поступили события с момента передачи прошлой пачки
+     */
+    private Set<String> pendingNames = new HashSet<>();
+
+    /**
+     * Время поступления первого события текущей пачки
+     */
+    private long firstEventTime;
+
+    /**
+     * Передача накопленной пачки изменений
+     */
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Set<String> names;
+            synchronized (DirectoryWatcher.this) {
+                names = pendingNames;
+                pendingNames = new HashSet<>();
+            }
+            if (!names.isEmpty())
+                onChangedListener.onChanged(names);
+        }
+    };
+
+    @SuppressWarnings("deprecation")
+    public DirectoryWatcher(@NonNull File directory, @NonNull Handler handler, @NonNull OnChangedListener onChangedListener) {
+        super(directory.getPath(), EVENTS);
+        this.handler = handler;
+        this.onChangedListener = onChangedListener;
+    }
+
+    @Override
+    public void onEvent(int event, @Nullable String path) {
+        if (path == null || (event & EVENTS) == 0)
+            return;
+
+        long now = SystemClock.uptimeMillis();
+        long delay;
+        synchronized (this) {
+            if (pendingNames.isEmpty())
+                firstEventTime = now;
+            pendingNames.add(path);
+            delay = Math.max(0L, Math.min(DEBOUNCE_DELAY, firstEventTime + MAX_DELAY - now));
+        }
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, delay);
+    }
+
+    @Override
+    public void stopWatching() {
+        super.stopWatching();
+        handler.removeCallbacks(flushRunnable);
+    }
+}
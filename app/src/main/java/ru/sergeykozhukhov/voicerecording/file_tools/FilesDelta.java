@@ -0,0 +1,63 @@
+package ru.sergeykozhukhov.voicerecording.file_tools;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Набор изменений директории голосовых записей, накопленный за один период наблюдения
+ */
+public final class FilesDelta {
+
+    /**
+     * Добавленные файлы
+     */
+    private final List<AudioFileEntry> added = new ArrayList<>();
+
+    /**
+     * Удаленные файлы
+     */
+    private final List<AudioFileEntry> removed = new ArrayList<>();
+
+    /**
+     * Измененные файлы
+     */
+    private final List<AudioFileEntry> modified = new ArrayList<>();
+
+    void addAdded(@NonNull AudioFileEntry entry) {
+        added.add(entry);
+    }
+
+    void addRemoved(@NonNull AudioFileEntry entry) {
+        removed.add(entry);
+    }
+
+    void addModified(@NonNull AudioFileEntry entry) {
+        modified.add(entry);
+    }
+
+    @NonNull
+    public List<AudioFileEntry> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    @NonNull
+    public List<AudioFileEntry> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    @NonNull
+    public List<AudioFileEntry> getModified() {
+        return Collections.unmodifiableList(modified);
+    }
+
+    /**
+     * Есть ли в наборе изменения
+     * @return true - если изменений нет
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+    }
+}
@@ -0,0 +1,21 @@
+package ru.sergeykozhukhov.voicerecording.file_tools;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Обработчик хода массового удаления файлов
+ */
+public interface OnBulkDeleteListener {
+    /**
+     * Завершение очередной пачки файлов
+     * @param processed - количество обработанных файлов (удаленных и неудаленных)
+     * @param total - количество файлов в задании
+     */
+    void onProgress(int processed, int total);
+
+    /**
+     * Завершение задания
+     * @param report - итог удаления со списком файлов, которые не удалось удалить
+     */
+    void onFinished(@NonNull BulkDeleteReport report);
+}
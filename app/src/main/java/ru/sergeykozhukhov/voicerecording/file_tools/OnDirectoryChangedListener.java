@@ -0,0 +1,14 @@
+package ru.sergeykozhukhov.voicerecording.file_tools;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Обработчик изменений директории голосовых записей
+ */
+public interface OnDirectoryChangedListener {
+    /**
+     * Изменение содержимого директории
+     * @param delta - добавленные, удаленные и измененные файлы
+     */
+    void onDirectoryChanged(@NonNull FilesDelta delta);
+}
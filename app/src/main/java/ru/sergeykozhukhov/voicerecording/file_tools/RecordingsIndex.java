@@ -0,0 +1,396 @@
+package ru.sergeykozhukhov.voicerecording.file_tools;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Индекс директории голосовых записей, хранящийся на диске
+ *
+ * Содержит имя, размер, время изменения и длительность каждого файла.
+ * Загружается с диска при первом обращении и сверяется с директорией инкрементально:
+ * если время изменения директории не поменялось, обращения к файловой системе не производятся,
+ * иначе повторно снимаются сведения только о новых и измененных файлах.
+ *
+ * Время изменения директории меняется только при добавлении, удалении и переименовании файлов,
+ * поэтому изменения содержимого уже существующих файлов этим индексом не отслеживаются.
+ */
+public class RecordingsIndex {
+
+    private static final String LOG = "RecordingsIndex";
+
+    /**
+     * Сигнатура файла индекса
+     */
+    private static final int INDEX_MAGIC = 0x56524958;
+
+    /**
+     * Версия формата файла индекса
+     */
+    private static final int INDEX_VERSION = 1;
+
+    /**
+     * Время изменения директории, которое еще не было получено
+     */
+    private static final long NOT_SCANNED = -1L;
+
+    /**
+     * Промежуток, в течение которого время изменения директории считается ненадежным
+     * (у многих файловых систем точность времени изменения - секунда)
+     */
+    private static final long MODIFIED_TIME_GRANULARITY = 2000L;
+
+    /**
+     * Файл, в котором хранится индекс
+     */
+    private final File indexFile;
+
+    /**
+     * Индексируемая директория
+     */
+    private File directory;
+
+    /**
+     * Время изменения директории на момент последней сверки
+     */
+    private long directoryLastModified = NOT_SCANNED;
+
+    /**
+     * Сведения о файлах директории, упорядоченные по имени
+     */
+    private final TreeMap<String, AudioFileEntry> entries = new TreeMap<>();
+
+    /**
+     * Есть ли изменения, не сохраненные на диск
+     */
+    private boolean dirty;
+
+    /**
+     * Был ли индекс загружен с диска
+     */
+    private boolean loaded;
+
+    public RecordingsIndex(@NonNull File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    @Nullable
+    public synchronized File getDirectory() {
+        ensureLoaded();
+        return directory;
+    }
+
+    /**
+     * Установка индексируемой директории
+     * Если директория отличается от прежней, индекс очищается
+     * @param directory - директория голосовых записей
+     */
+    public synchronized void setDirectory(@Nullable File directory) {
+        ensureLoaded();
+        if (directory == null ? this.directory == null : directory.equals(this.directory))
+            return;
+        this.directory = directory;
+        clear();
+    }
+
+    /**
+     * Очистка индекса, следующая сверка выполнит полный просмотр директории
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        entries.clear();
+        directoryLastModified = NOT_SCANNED;
+        dirty = true;
+    }
+
+    /**
+     * Загрузка индекса с диска при первом обращении
+     * Выполняется под блокировкой индекса, поэтому ни одна операция не увидит незагруженный индекс
+     */
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+        loaded = true;
+        load();
+    }
+
+    /**
+     * Загрузка индекса с диска
+     * Поврежденный или устаревший файл индекса игнорируется
+     */
+    private void load() {
+        if (!indexFile.exists())
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION)
+                return;
+            File storedDirectory = new File(in.readUTF());
+            long storedLastModified = in.readLong();
+            int count = in.readInt();
+
+            TreeMap<String, AudioFileEntry> loaded = new TreeMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                boolean isDirectory = in.readBoolean();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                long duration = in.readLong();
+                loaded.put(name, new AudioFileEntry(new File(storedDirectory, name), isDirectory, length, lastModified, duration));
+            }
+
+            directory = storedDirectory;
+            directoryLastModified = storedLastModified;
+            entries.clear();
+            entries.putAll(loaded);
+            dirty = false;
+        } catch (IOException e) {
+            Log.e(LOG, "index load failed", e);
+        }
+    }
+
+    /**
+     * Сохранение индекса на диск, если он был изменен
+     * Запись производится во временный файл, который затем переименовывается
+     */
+    public synchronized void save() {
+        ensureLoaded();
+        if (!dirty || directory == null)
+            return;
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeUTF(directory.getPath());
+            out.writeLong(directoryLastModified);
+            out.writeInt(entries.size());
+            for (AudioFileEntry entry : entries.values()) {
+                out.writeUTF(entry.getName());
+                out.writeBoolean(entry.isDirectory());
+                out.writeLong(entry.getLength());
+                out.writeLong(entry.getLastModified());
+                out.writeLong(entry.getDuration());
+            }
+        } catch (IOException e) {
+            Log.e(LOG, "index save failed", e);
+            return;
+        }
+        if (tmpFile.renameTo(indexFile)) {
+            dirty = false;
+        } else {
+            Log.e(LOG, "index rename failed");
+        }
+    }
+
+    /**
+     * Сверка индекса с директорией
+     * @return true - если индекс изменился
+     */
+    public synchronized boolean reconcile() {
+        ensureLoaded();
+        if (directory == null)
+            return false;
+
+        long lastModified = directory.lastModified();
+        if (lastModified != 0L && lastModified == directoryLastModified)
+            return false;
+
+        File[] files = directory.listFiles();
+        if (files == null)
+            return false;
+
+        boolean changed = entries.size() != files.length;
+        TreeMap<String, AudioFileEntry> actual = new TreeMap<>();
+        for (File file : files) {
+            AudioFileEntry entry = entries.get(file.getName());
+            if (entry == null || !entry.isSameAs(file)) {
+                entry = AudioFileEntry.fromFile(file);
+                changed = true;
+            }
+            actual.put(entry.getName(), entry);
+        }
+
+        /*
+         * Если директория изменилась только что, изменения в ту же секунду могут не отразиться
+         * на времени ее изменения, поэтому следующая сверка выполнит просмотр повторно
+         * */
+        boolean reliable = System.currentTimeMillis() - lastModified > MODIFIED_TIME_GRANULARITY;
+        directoryLastModified = reliable ? lastModified : NOT_SCANNED;
+
+        if (changed) {
+            entries.clear();
+            entries.putAll(actual);
+        }
+        dirty = true;
+        return changed;
+    }
+
+    /**
+     * Применение к индексу изменений, о которых сообщил наблюдатель за директорией
+     *
+     * Сведения снимаются только с перечисленных файлов. Так как наблюдатель сообщает
+     * обо всех последующих изменениях, текущее время изменения директории принимается без проверки точности.
+     * @param names - имена файлов, по которым поступали события
+     * @return набор изменений индекса
+     */
+    @NonNull
+    public synchronized FilesDelta apply(@NonNull Collection<String> names) {
+        ensureLoaded();
+        FilesDelta delta = new FilesDelta();
+        if (directory == null)
+            return delta;
+
+        for (String name : names) {
+            File file = new File(directory, name);
+            AudioFileEntry entry = entries.get(name);
+            if (file.exists()) {
+                if (entry == null) {
+                    entry = AudioFileEntry.fromFile(file);
+                    entries.put(name, entry);
+                    delta.addAdded(entry);
+                } else if (!entry.isSameAs(file)) {
+                    entry = AudioFileEntry.fromFile(file);
+                    entries.put(name, entry);
+                    delta.addModified(entry);
+                }
+            } else if (entry != null) {
+                entries.remove(name);
+                delta.addRemoved(entry);
+            }
+        }
+
+        if (directoryLastModified != NOT_SCANNED)
+            directoryLastModified = directory.lastModified();
+        dirty = true;
+        return delta;
+    }
+
+    /**
+     * Удаление всех сведений после того, как все содержимое директории было перемещено
+     * Следующая сверка выполнит полный просмотр новой директории
+     * @return набор изменений, в котором все прежние файлы отмечены удаленными
+     */
+    @NonNull
+    public synchronized FilesDelta removeAll() {
+        ensureLoaded();
+        FilesDelta delta = new FilesDelta();
+        for (AudioFileEntry entry : entries.values()) {
+            delta.addRemoved(entry);
+        }
+        clear();
+        return delta;
+    }
+
+    /**
+     * Получение суммарного размера файлов
+     * @return размер в байтах
+     */
+    public synchronized long getTotalLength() {
+        ensureLoaded();
+        long length = 0L;
+        for (AudioFileEntry entry : entries.values()) {
+            length += entry.getLength();
+        }
+        return length;
+    }
+
+    /**
+     * Обновление длительности записи
+     * @param name - имя файла
+     * @param duration - длительность в миллисекундах
+     */
+    public synchronized void setDuration(@NonNull String name, long duration) {
+        ensureLoaded();
+        AudioFileEntry entry = entries.get(name);
+        if (entry != null && entry.getDuration() != duration) {
+            entries.put(name, entry.withDuration(duration));
+            dirty = true;
+        }
+    }
+
+    /**
+     * Получение файлов, длительность которых еще не определялась
+     * @return снимки сведений о файлах
+     */
+    @NonNull
+    public synchronized List<AudioFileEntry> getEntriesWithoutDuration() {
+        ensureLoaded();
+        List<AudioFileEntry> result = new ArrayList<>();
+        for (AudioFileEntry entry : entries.values()) {
+            if (entry.needsDuration())
+                result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * Применение длительностей, определенных вне блокировки индекса
+     * Длительность не применяется, если файл успел измениться или был удален
+     * @param probed - снимки с установленной длительностью
+     * @return набор изменений, в котором обновленные файлы отмечены измененными
+     */
+    @NonNull
+    public synchronized FilesDelta applyDurations(@NonNull Collection<AudioFileEntry> probed) {
+        ensureLoaded();
+        FilesDelta delta = new FilesDelta();
+        for (AudioFileEntry entry : probed) {
+            AudioFileEntry current = entries.get(entry.getName());
+            if (current != null && current.isSameAs(entry) && current.getDuration() != entry.getDuration()) {
+                entries.put(entry.getName(), entry);
+                delta.addModified(entry);
+            }
+        }
+        if (!delta.isEmpty())
+            dirty = true;
+        return delta;
+    }
+
+    /**
+     * Получение страницы сведений о файлах, упорядоченных по имени
+     * Страница берется из упорядоченного индекса по диапазону ключей, полный список не строится
+     * @param afterName - имя последнего файла предыдущей страницы или null для первой страницы
+     * @param limit - наибольшее количество сведений на странице
+     * @return сведения о файлах, следующих за afterName
+     */
+    @NonNull
+    public synchronized List<AudioFileEntry> getPage(@Nullable String afterName, int limit) {
+        ensureLoaded();
+        NavigableMap<String, AudioFileEntry> range = afterName != null ? entries.tailMap(afterName, false) : entries;
+        List<AudioFileEntry> page = new ArrayList<>(Math.min(limit, entries.size()));
+        for (AudioFileEntry entry : range.values()) {
+            if (page.size() >= limit)
+                break;
+            page.add(entry);
+        }
+        return page;
+    }
+
+    /**
+     * Получение всех файлов индекса
+     * Используется массовым удалением, которое в любом случае записывает в журнал путь каждого файла
+     * @return файлы, упорядоченные по имени
+     */
+    @NonNull
+    public synchronized List<File> getAllFiles() {
+        ensureLoaded();
+        List<File> files = new ArrayList<>(entries.size());
+        for (AudioFileEntry entry : entries.values()) {
+            files.add(entry.getFile());
+        }
+        return files;
+    }
+}
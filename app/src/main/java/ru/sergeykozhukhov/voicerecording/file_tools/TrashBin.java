@@ -0,0 +1,385 @@
+package ru.sergeykozhukhov.voicerecording.file_tools;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Корзина удаленных голосовых записей
+ *
+ * Корзина находится рядом с директорией записей (в той же файловой системе), поэтому удаление
+ * всех записей из отдельной директории записей - это одно атомарное переименование директории в корзину
+ * и создание новой пустой директории. Если записи хранятся в общей директории, в корзину по одному
+ * перемещаются только файлы, а сама директория не переименовывается.
+ * Каждое удаление записывается в журнал операций, что позволяет его отменить.
+ * Файлы из корзины физически удаляются позже, при очистке по возрасту и общему размеру.
+ *
+ * Формат журнала - строки, разделенные табуляцией:
+ * T id время размер исходный_путь - перемещение в корзину,
+ * U id - отмена перемещения,
+ * P id - очистка.
+ */
+public class TrashBin {
+
+    private static final String LOG = "TrashBin";
+
+    /**
+     * Максимальный возраст операции в корзине
+     */
+    public static final long MAX_AGE = 7L * 24L * 60L * 60L * 1000L;
+
+    /**
+     * Максимальный общий размер корзины в байтах
+     */
+    public static final long MAX_SIZE = 200L * 1024L * 1024L;
+
+    /**
+     * Имя журнала операций
+     */
+    private static final String LOG_FILE_NAME = "operations.log";
+
+    private static final String RECORD_TRASH = "T";
+    private static final String RECORD_UNDO = "U";
+    private static final String RECORD_PURGE = "P";
+
+    /**
+     * Операция перемещения в корзину
+     */
+    private static final class Operation {
+
+        /**
+         * Идентификатор, он же имя папки операции в корзине
+         */
+        final String id;
+
+        /**
+         * Время операции
+         */
+        final long time;
+
+        /**
+         * Размер перемещенных файлов в байтах
+         */
+        final long size;
+
+        /**
+         * Исходная директория
+         */
+        final File original;
+
+        Operation(@NonNull String id, long time, long size, @NonNull File original) {
+            this.id = id;
+            this.time = time;
+            this.size = size;
+            this.original = original;
+        }
+    }
+
+    /**
+     * Корневая папка корзины
+     */
+    private final File trashRoot;
+
+    /**
+     * Журнал операций
+     */
+    private final File logFile;
+
+    /**
+     * Операции, которые еще можно отменить, от старых к новым
+     */
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * Является ли директория записей отдельной директорией приложения, которую можно переименовать целиком
+     */
+    private final boolean dedicated;
+
+    /**
+     * Был ли прочитан журнал операций
+     */
+    private boolean loaded;
+
+    /**
+     * @param directory - директория записей
+     * @param dedicated - true, если директория содержит только записи приложения;
+     *                  иначе (например, корень хранилища) директория никогда не переименовывается
+     */
+    public TrashBin(@NonNull File directory, boolean dedicated) {
+        File parent = directory.getAbsoluteFile().getParentFile();
+        trashRoot = new File(parent != null ? parent : directory, "." + directory.getName() + "_trash");
+        logFile = new File(trashRoot, LOG_FILE_NAME);
+        this.dedicated = dedicated;
+    }
+
+    /**
+     * Перемещается ли содержимое директории одним переименованием самой директории
+     * В этом случае после перемещения наблюдение нужно перезапустить для новой директории
+     */
+    public boolean isDedicated() {
+        return dedicated;
+    }
+
+    /**
+     * Доступна ли корзина (можно ли создать ее рядом с директорией записей)
+     */
+    public synchronized boolean isAvailable() {
+        return trashRoot.isDirectory() || trashRoot.mkdirs();
+    }
+
+    /**
+     * Перемещение всего содержимого директории в корзину
+     * Отдельная директория записей переименовывается в папку корзины, на ее месте создается новая пустая директория.
+     * Из общей директории в папку корзины по одному перемещаются только файлы.
+     * @param directory - директория записей
+     * @param size - размер содержимого директории в байтах (для политики очистки)
+     * @return true - если содержимое перемещено, false - если директория не тронута
+     * или в ней остались файлы, которые не удалось переместить
+     */
+    public synchronized boolean moveDirectoryContents(@NonNull File directory, long size) {
+        ensureLoaded();
+        if (!isAvailable())
+            return false;
+
+        long time = System.currentTimeMillis();
+        String id = String.valueOf(time);
+        for (int i = 1; new File(trashRoot, id).exists(); i++) {
+            id = time + "_" + i;
+        }
+
+        File target = new File(trashRoot, id);
+        if (!dedicated)
+            return moveFiles(directory, target, new Operation(id, time, size, directory));
+
+        if (!directory.renameTo(target))
+            return false;
+        if (!directory.mkdir()) {
+            if (!target.renameTo(directory))
+                Log.e(LOG, "directory is not restored: " + target);
+            return false;
+        }
+
+        addOperation(new Operation(id, time, size, directory));
+        return true;
+    }
+
+    /**
+     * Перемещение файлов общей директории в папку корзины по одному
+     * Операция записывается в журнал до перемещения, чтобы файлы, перемещенные до сбоя, можно было вернуть
+     * @param directory - директория записей
+     * @param target - папка операции в корзине
+     * @param operation - операция перемещения
+     * @return true - если перемещены все файлы
+     */
+    private boolean moveFiles(@NonNull File directory, @NonNull File target, @NonNull Operation operation) {
+        File[] files = directory.listFiles();
+        if (files == null || !target.mkdir())
+            return false;
+
+        addOperation(operation);
+        int moved = 0;
+        int failed = 0;
+        for (File file : files) {
+            if (!file.isFile())
+                continue;
+            if (file.renameTo(new File(target, file.getName())))
+                moved++;
+            else
+                failed++;
+        }
+
+        if (moved == 0) {
+            target.delete();
+            operations.remove(operation);
+            appendRecord(RECORD_UNDO + "\t" + operation.id);
+            return false;
+        }
+        if (failed > 0)
+            Log.w(LOG, "files are not moved to trash: " + failed);
+        return failed == 0;
+    }
+
+    /**
+     * Добавление операции в список отменяемых и в журнал
+     */
+    private void addOperation(@NonNull Operation operation) {
+        operations.add(operation);
+        appendRecord(RECORD_TRASH + "\t" + operation.id + "\t" + operation.time + "\t" + operation.size + "\t" + operation.original.getPath());
+    }
+
+    /**
+     * Можно ли отменить удаление
+     */
+    public synchronized boolean canUndo() {
+        ensureLoaded();
+        return !operations.isEmpty();
+    }
+
+    /**
+     * Отмена последнего удаления
+     * Файлы возвращаются в исходную директорию по одному, файлы с совпадающими именами остаются в корзине
+     * @return количество возвращенных файлов или -1, если отменять нечего
+     */
+    public synchronized int undoLast() {
+        ensureLoaded();
+        if (operations.isEmpty())
+            return -1;
+
+        Operation operation = operations.get(operations.size() - 1);
+        File source = new File(trashRoot, operation.id);
+        File[] files = source.listFiles();
+        int restored = 0;
+        if (files != null) {
+            if (!operation.original.isDirectory() && !operation.original.mkdirs())
+                return -1;
+            for (File file : files) {
+                File destination = new File(operation.original, file.getName());
+                if (!destination.exists() && file.renameTo(destination))
+                    restored++;
+            }
+        }
+
+        String[] left = source.list();
+        if (left == null || left.length == 0) {
+            source.delete();
+            operations.remove(operation);
+            appendRecord(RECORD_UNDO + "\t" + operation.id);
+        }
+        return restored;
+    }
+
+    /**
+     * Отбор операций для очистки: операций старше MAX_AGE и самых старых операций,
+     * пока общий размер корзины превышает MAX_SIZE
+     * Последняя операция по размеру не отбирается, чтобы удаление, превышающее MAX_SIZE,
+     * можно было отменить сразу после него
+     * Отобранные операции больше нельзя отменить
+     * @param now - текущее время
+     */
+    public synchronized void expire(long now) {
+        ensureLoaded();
+        long totalSize = 0L;
+        for (Operation operation : operations) {
+            totalSize += operation.size;
+        }
+
+        List<Operation> expired = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i++) {
+            Operation operation = operations.get(i);
+            boolean newest = i == operations.size() - 1;
+            if (now - operation.time > MAX_AGE || (totalSize > MAX_SIZE && !newest)) {
+                expired.add(operation);
+                totalSize -= operation.size;
+            }
+        }
+
+        for (Operation operation : expired) {
+            operations.remove(operation);
+            appendRecord(RECORD_PURGE + "\t" + operation.id);
+        }
+    }
+
+    /**
+     * Получение папок корзины, не относящихся ни к одной отменяемой операции
+     * (отобранные для очистки и оставшиеся после прерванной очистки)
+     * @return папки для физического удаления
+     */
+    @NonNull
+    public synchronized List<File> getPurgeableFolders() {
+        ensureLoaded();
+        Set<String> live = new HashSet<>();
+        for (Operation operation : operations) {
+            live.add(operation.id);
+        }
+
+        List<File> folders = new ArrayList<>();
+        File[] children = trashRoot.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory() && !live.contains(child.getName()))
+                    folders.add(child);
+            }
+        }
+        return folders;
+    }
+
+    /**
+     * Чтение журнала операций при первом обращении
+     */
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!logFile.exists())
+            return;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (RECORD_TRASH.equals(fields[0]) && fields.length == 5) {
+                    operations.add(new Operation(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]), new File(fields[4])));
+                } else if ((RECORD_UNDO.equals(fields[0]) || RECORD_PURGE.equals(fields[0])) && fields.length == 2) {
+                    Operation operation = findOperation(fields[1]);
+                    if (operation != null)
+                        operations.remove(operation);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.e(LOG, "operations log read failed", e);
+        }
+        compactLog();
+    }
+
+    @Nullable
+    private Operation findOperation(@NonNull String id) {
+        for (Operation operation : operations) {
+            if (operation.id.equals(id))
+                return operation;
+        }
+        return null;
+    }
+
+    /**
+     * Перезапись журнала, в котором остаются только отменяемые операции
+     */
+    private void compactLog() {
+        File tmpFile = new File(logFile.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile))) {
+            for (Operation operation : operations) {
+                writer.write(RECORD_TRASH + "\t" + operation.id + "\t" + operation.time + "\t" + operation.size + "\t" + operation.original.getPath());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            Log.e(LOG, "operations log compaction failed", e);
+            return;
+        }
+        if (!tmpFile.renameTo(logFile))
+            Log.e(LOG, "operations log rename failed");
+    }
+
+    /**
+     * Добавление записи в журнал операций
+     * @param record - запись
+     */
+    private void appendRecord(@NonNull String record) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(logFile, true))) {
+            writer.write(record);
+            writer.newLine();
+        } catch (IOException e) {
+            Log.e(LOG, "operations log write failed", e);
+        }
+    }
+}
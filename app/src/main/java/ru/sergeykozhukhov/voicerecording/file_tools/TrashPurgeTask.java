@@ -0,0 +1,112 @@
+package ru.sergeykozhukhov.voicerecording.file_tools;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Очистка корзины: отбор устаревших операций и физическое удаление их файлов
+ *
+ * Файлы удаляются заданием массового удаления с собственным журналом, поэтому очистка,
+ * прерванная завершением процесса, продолжается при следующем запуске.
+ * Выполняется в фоновом потоке с низким приоритетом.
+ */
+public class TrashPurgeTask implements Runnable {
+
+    private static final String LOG = "TrashPurgeTask";
+
+    /**
+     * Корзина
+     */
+    private final TrashBin trashBin;
+
+    /**
+     * Журнал задания удаления файлов корзины
+     */
+    private final File journalFile;
+
+    public TrashPurgeTask(@NonNull TrashBin trashBin, @NonNull File journalFile) {
+        this.trashBin = trashBin;
+        this.journalFile = journalFile;
+    }
+
+    @Override
+    public void run() {
+        if (BulkDeleteJob.hasPendingJob(journalFile))
+            runJob(null);
+
+        trashBin.expire(System.currentTimeMillis());
+
+        for (File folder : trashBin.getPurgeableFolders()) {
+            List<File> files = new ArrayList<>();
+            List<File> folders = new ArrayList<>();
+            collect(folder, files, folders);
+
+            if (!files.isEmpty())
+                runJob(files);
+
+            /*
+             * Папки удаляются после файлов, от вложенных к внешним
+             * */
+            for (int i = folders.size() - 1; i >= 0; i--) {
+                if (!folders.get(i).delete())
+                    Log.e(LOG, "folder is not deleted: " + folders.get(i));
+            }
+        }
+    }
+
+    /**
+     * Выполнение задания удаления с ожиданием его завершения
+     * @param files - файлы для удаления или null для продолжения задания по журналу
+     */
+    private void runJob(List<File> files) {
+        final CountDownLatch finished = new CountDownLatch(1);
+        BulkDeleteJob job = new BulkDeleteJob(journalFile, new OnBulkDeleteListener() {
+            @Override
+            public void onProgress(int processed, int total) {
+            }
+
+            @Override
+            public void onFinished(@NonNull BulkDeleteReport report) {
+                if (!report.isSuccessful())
+                    Log.e(LOG, "not purged: " + report.getFailedPaths().size());
+                finished.countDown();
+            }
+        });
+
+        if (files == null)
+            job.resume();
+        else
+            job.start(files);
+
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Сбор файлов и папок дерева
+     * @param folder - корень дерева
+     * @param files - найденные файлы
+     * @param folders - найденные папки (внешние раньше вложенных)
+     */
+    private void collect(@NonNull File folder, @NonNull List<File> files, @NonNull List<File> folders) {
+        folders.add(folder);
+        File[] children = folder.listFiles();
+        if (children == null)
+            return;
+        for (File child : children) {
+            if (child.isDirectory())
+                collect(child, files, folders);
+            else
+                files.add(child);
+        }
+    }
+}
@@ -8,21 +8,55 @@ import android.app.Service;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import ru.sergeykozhukhov.voicerecording.MainActivity;
 import ru.sergeykozhukhov.voicerecording.R;
+import ru.sergeykozhukhov.voicerecording.audio_tools.AudioInfo;
+import ru.sergeykozhukhov.voicerecording.audio_tools.AudioProbe;
+import ru.sergeykozhukhov.voicerecording.audio_tools.RecordingDataCache;
+import ru.sergeykozhukhov.voicerecording.audio_tools.SeekTable;
+import ru.sergeykozhukhov.voicerecording.audio_tools.SeekTableCache;
+import ru.sergeykozhukhov.voicerecording.audio_tools.SeekTableTask;
+import ru.sergeykozhukhov.voicerecording.audio_tools.SilenceTrimmer;
+import ru.sergeykozhukhov.voicerecording.audio_tools.VoiceActivityCache;
+import ru.sergeykozhukhov.voicerecording.audio_tools.VoiceActivityIndex;
+import ru.sergeykozhukhov.voicerecording.audio_tools.VoiceActivityTask;
+import ru.sergeykozhukhov.voicerecording.file_tools.AudioFileEntry;
+import ru.sergeykozhukhov.voicerecording.file_tools.BulkDeleteJob;
+import ru.sergeykozhukhov.voicerecording.file_tools.BulkDeleteReport;
+import ru.sergeykozhukhov.voicerecording.file_tools.DirectoryWatcher;
+import ru.sergeykozhukhov.voicerecording.file_tools.FilesDelta;
+import ru.sergeykozhukhov.voicerecording.file_tools.OnBulkDeleteListener;
+import ru.sergeykozhukhov.voicerecording.file_tools.OnDirectoryChangedListener;
+import ru.sergeykozhukhov.voicerecording.file_tools.RecordingsIndex;
+import ru.sergeykozhukhov.voicerecording.file_tools.TrashBin;
+import ru.sergeykozhukhov.voicerecording.file_tools.TrashPurgeTask;
 
 /**
  * Сервис для взаимодействия с файлами
@@ -39,6 +73,31 @@ public class FileManagerService extends Service {
      */
     private static final int NOTIFICATION_ID = 1;
 
+    /**
+     * Имя файла индекса директории голосовых записей
+     */
+    private static final String INDEX_FILE_NAME = "recordings.idx";
+
+    /**
+     * Имя файла журнала массового удаления
+     */
+    private static final String BULK_DELETE_JOURNAL_FILE_NAME = "bulk_delete.journal";
+
+    /**
+     * Имя файла журнала очистки корзины
+     */
+    private static final String TRASH_PURGE_JOURNAL_FILE_NAME = "trash_purge.journal";
+
+    /**
+     * Имя директории для копий записей без тишины по краям
+     */
+    private static final String TRIMMED_DIRECTORY_NAME = "trimmed";
+
+    /**
+     * Количество потоков для работы с файловой системой
+     */
+    private static final int IO_THREAD_COUNT = 2;
+
     /**
      * Класс, позволяющий получить ссылку на FileManagerService
      */
@@ -47,13 +106,95 @@ public class FileManagerService extends Service {
     /**
      * Директория голосовых записей
      */
-    private File directoryAudioFiles;
+    private volatile File directoryAudioFiles;
+
+    /**
+     * Индекс директории голосовых записей
+     */
+    private RecordingsIndex recordingsIndex;
+
+    /**
+     * Наблюдатель за директорией голосовых записей
+     */
+    private DirectoryWatcher directoryWatcher;
+
+    /**
+     * Обработчики изменений директории
+     */
+    private final List<OnDirectoryChangedListener> onDirectoryChangedListeners = new ArrayList<>();
+
+    /**
+     * Главный поток, в который передаются изменения директории и результаты операций
+     */
+    private Handler mainHandler;
+
+    /**
+     * Ограниченный пул потоков для работы с файловой системой
+     */
+    private ExecutorService ioExecutor;
+
+    /**
+     * Поток с низким приоритетом для очистки корзины
+     */
+    private ExecutorService purgeExecutor;
+
+    /**
+     * Поток с низким приоритетом для анализа записей (таблицы перемотки, участки речи)
+     */
+    private ExecutorService analysisExecutor;
+
+    /**
+     * Кэш индексов участков речи
+     */
+    private VoiceActivityCache voiceActivityCache;
+
+    /**
+     * Кэш таблиц перемотки записей
+     */
+    private SeekTableCache seekTableCache;
+
+    /**
+     * Корзина удаленных записей установленной директории
+     */
+    private volatile TrashBin trashBin;
+
+    /**
+     * Текущее задание массового удаления (null, если удаление не производится)
+     */
+    private volatile BulkDeleteJob bulkDeleteJob;
+
+    /**
+     * Выполняется ли операция удаления всех файлов (перемещение в корзину или запуск массового удаления)
+     * Устанавливается до запуска операции и сбрасывается только по ее завершении
+     */
+    private final AtomicBoolean deleting = new AtomicBoolean();
+
+    /**
+     * Обработчик хода массового удаления
+     */
+    private OnBulkDeleteListener onBulkDeleteListener;
+
+    /**
+     * Операции, результат которых еще не передан
+     */
+    private final Set<FileTask<?>> pendingTasks = Collections.synchronizedSet(new HashSet<FileTask<?>>());
 
     @Override
     public void onCreate() {
         super.onCreate();
         mLocalFilerManagerServiceBinder = new LocalFilerManagerServiceBinder();
+        mainHandler = new Handler(Looper.getMainLooper());
+        ioExecutor = Executors.newFixedThreadPool(IO_THREAD_COUNT,
+                new IoThreadFactory("FileManagerIO", Process.THREAD_PRIORITY_BACKGROUND));
+        purgeExecutor = Executors.newSingleThreadExecutor(
+                new IoThreadFactory("TrashPurge", Process.THREAD_PRIORITY_LOWEST));
+        analysisExecutor = Executors.newSingleThreadExecutor(
+                new IoThreadFactory("RecordingAnalysis", Process.THREAD_PRIORITY_LOWEST));
+        voiceActivityCache = new VoiceActivityCache(new File(getCacheDir(), VoiceActivityCache.DIRECTORY_NAME));
+        seekTableCache = new SeekTableCache(new File(getCacheDir(), SeekTableCache.DIRECTORY_NAME));
+        recordingsIndex = new RecordingsIndex(new File(getFilesDir(), INDEX_FILE_NAME));
         createNotificationChannel();
+        resumeBulkDelete();
     }
 
     @Override
@@ -66,10 +207,27 @@ public class FileManagerService extends Service {
 
     @Override
     public void onDestroy() {
+        stopWatching();
+        cancelPendingTasks();
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                recordingsIndex.save();
+            }
+        });
+        ioExecutor.shutdown();
+        purgeExecutor.shutdown();
+        analysisExecutor.shutdownNow();
         super.onDestroy();
     }
 
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        RecordingDataCache.getInstance().trimMemory(level);
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -79,7 +237,7 @@ public class FileManagerService extends Service {
 
     @Override
     public boolean onUnbind(Intent intent) {
-
+        cancelPendingTasks();
         return super.onUnbind(intent);
     }
 
@@ -121,47 +279,580 @@ public class FileManagerService extends Service {
     }
 
     public void setDirectoryAudioFiles(File directoryAudioFiles) {
+        if (directoryWatcher != null && directoryAudioFiles != null && directoryAudioFiles.equals(this.directoryAudioFiles))
+            return;
         this.directoryAudioFiles = directoryAudioFiles;
+        trashBin = directoryAudioFiles != null
+                ? new TrashBin(directoryAudioFiles, MainActivity.DIRECTORY_AUDIO_FILES_NAME.equals(directoryAudioFiles.getName()))
+                : null;
+        startWatching();
+        purgeTrash();
+    }
+
+    public void addOnDirectoryChangedListener(@NonNull OnDirectoryChangedListener listener) {
+        if (!onDirectoryChangedListeners.contains(listener))
+            onDirectoryChangedListeners.add(listener);
+    }
+
+    public void removeOnDirectoryChangedListener(@NonNull OnDirectoryChangedListener listener) {
+        onDirectoryChangedListeners.remove(listener);
     }
 
     /**
-     * Получение списка файлов установленной директории
-     * @return список файлов директории
+     * Запуск наблюдения за установленной директорией
      */
-    public List<File> getFiles() {
+    private void startWatching() {
+        stopWatching();
+        if (directoryAudioFiles == null)
+            return;
 
-        if (directoryAudioFiles != null) {
-            updateNotification(createNotification());
-            File[] files = directoryAudioFiles.listFiles();
-            if (files == null)
-                return null;
-            return new ArrayList<>(Arrays.asList(files));
+        directoryWatcher = new DirectoryWatcher(directoryAudioFiles, mainHandler, new DirectoryWatcher.OnChangedListener() {
+            @Override
+            public void onChanged(@NonNull final Set<String> names) {
+                ioExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        recordingsIndex.setDirectory(directoryAudioFiles);
+                        final FilesDelta delta = recordingsIndex.apply(names);
+                        if (!delta.isEmpty()) {
+                            mainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    dispatchDirectoryChanged(delta);
+                                }
+                            });
+                            probeDurations();
+                            indexRecordings(delta);
+                        }
+                    }
+                });
+            }
+        });
+        directoryWatcher.startWatching();
+    }
+
+    /**
+     * Передача изменений директории обработчикам
+     * @param delta - набор изменений
+     */
+    private void dispatchDirectoryChanged(@NonNull FilesDelta delta) {
+        RecordingDataCache.getInstance().invalidate(delta);
+        for (OnDirectoryChangedListener listener : new ArrayList<>(onDirectoryChangedListeners)) {
+            listener.onDirectoryChanged(delta);
+        }
+    }
+
+    /**
+     * Остановка наблюдения за директорией
+     */
+    private void stopWatching() {
+        if (directoryWatcher != null) {
+            directoryWatcher.stopWatching();
+            directoryWatcher = null;
         }
-        return null;
+    }
+
+    /**
+     * Асинхронное получение первой страницы файлов установленной директории
+     * Страница берется из индекса, который предварительно сверяется с директорией
+     * @param limit - наибольшее количество файлов на странице
+     * @param listener - обработчик сведений о файлах страницы
+     * @return операция, которую можно отменить
+     */
+    public Future<List<AudioFileEntry>> getFilesAsync(final int limit, @Nullable OnFileManagerResultListener<List<AudioFileEntry>> listener) {
+        return submit(new Callable<List<AudioFileEntry>>() {
+            @Override
+            public List<AudioFileEntry> call() {
+                return reconcileFiles() ? recordingsIndex.getPage(null, limit) : null;
+            }
+        }, listener);
+    }
+
+    /**
+     * Асинхронное получение страницы файлов из индекса без сверки с директорией
+     * Используется для загрузки следующих страниц и после получения изменений от наблюдателя,
+     * когда индекс уже актуален
+     * @param afterName - имя последнего файла предыдущей страницы или null для первой страницы
+     * @param limit - наибольшее количество файлов на странице
+     * @param listener - обработчик сведений о файлах страницы
+     * @return операция, которую можно отменить
+     */
+    public Future<List<AudioFileEntry>> getIndexedFilesAsync(@Nullable final String afterName, final int limit,
+                                                             @Nullable OnFileManagerResultListener<List<AudioFileEntry>> listener) {
+        return submit(new Callable<List<AudioFileEntry>>() {
+            @Override
+            public List<AudioFileEntry> call() {
+                File directory = directoryAudioFiles;
+                if (directory == null)
+                    return null;
+                recordingsIndex.setDirectory(directory);
+                return recordingsIndex.getPage(afterName, limit);
+            }
+        }, listener);
+    }
+
+    public void setOnBulkDeleteListener(@Nullable OnBulkDeleteListener onBulkDeleteListener) {
+        this.onBulkDeleteListener = onBulkDeleteListener;
+    }
+
+    /**
+     * Производится ли в данный момент массовое удаление
+     */
+    public boolean isDeleting() {
+        return deleting.get() || bulkDeleteJob != null;
     }
 
     /**
      * Удаление всех файлов установленной директории
-     * @return true - если все файлы успешно удалены или папка изначально была пустая
-     *         false - если минимум один из файлов не удален или директория не является папкой
-     */
-    public boolean deleteFromExternalStorage() {
-        if (directoryAudioFiles.isDirectory()) {
-            File[] files = directoryAudioFiles.listFiles();
-            if (files != null){
-                for (File child : files) {
-                    boolean success = child.delete();
-                    Log.e("FileManagerService", "delete result: " + success);
-                    if (!success) {
-                        return false;
+     *
+     * Если корзина доступна, содержимое директории перемещается в нее (отдельная директория записей -
+     * одним переименованием), удаление можно отменить, а физическое удаление выполняется позже при очистке корзины.
+     * Иначе запускается массовое удаление, ход и итог которого передаются обработчику массового удаления.
+     * Отключение activity отменяет только передачу результата, сама операция выполняется до конца.
+     * @param listener - обработчик результата: true - файлы перемещены в корзину, false - запущено массовое удаление
+     * @return true - если удаление запущено, false - если удаление уже производится или директория не установлена
+     */
+    public boolean deleteFromExternalStorageAsync(@Nullable OnFileManagerResultListener<Boolean> listener) {
+        final File directory = directoryAudioFiles;
+        final TrashBin trash = trashBin;
+        if (directory == null || trash == null || bulkDeleteJob != null || !deleting.compareAndSet(false, true))
+            return false;
+
+        submit(ioExecutor, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                try {
+                    return moveToTrashOrDelete(directory, trash);
+                } finally {
+                    deleting.set(false);
+                }
+            }
+        }, listener, false);
+        return true;
+    }
+
+    /**
+     * Перемещение файлов директории в корзину, а если это невозможно - запуск массового удаления
+     * Выполняется в пуле потоков для работы с файловой системой
+     * @return true - если файлы перемещены в корзину
+     */
+    @WorkerThread
+    private boolean moveToTrashOrDelete(@NonNull File directory, @NonNull TrashBin trash) {
+        recordingsIndex.setDirectory(directory);
+        boolean trashed = trash.moveDirectoryContents(directory, recordingsIndex.getTotalLength());
+        if (trashed) {
+            /*
+             * Из общей директории файлы перемещаются по одному, и об их удалении сообщает наблюдатель
+             * */
+            final FilesDelta delta = trash.isDedicated() ? recordingsIndex.removeAll() : null;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    /*
+                     * Сервис мог быть уничтожен, пока операция выполнялась
+                     * */
+                    if (ioExecutor.isShutdown())
+                        return;
+                    if (delta != null) {
+                        /*
+                         * Прежняя директория теперь находится в корзине,
+                         * поэтому наблюдение перезапускается для новой
+                         * */
+                        startWatching();
+                        dispatchDirectoryChanged(delta);
                     }
+                    purgeTrash();
                 }
+            });
+        } else {
+            List<File> files = reconcileFiles() ? recordingsIndex.getAllFiles() : new ArrayList<File>();
+            createBulkDeleteJob().start(files);
+        }
+        return trashed;
+    }
+
+    /**
+     * Асинхронная отмена последнего удаления
+     * Возвращенные файлы попадают в список через наблюдателя за директорией
+     * @param listener - обработчик количества возвращенных файлов (-1, если отменять нечего)
+     * @return операция, которую можно отменить
+     */
+    public Future<Integer> undoLastDeleteAsync(@Nullable OnFileManagerResultListener<Integer> listener) {
+        final TrashBin trash = trashBin;
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return trash != null ? trash.undoLast() : -1;
+            }
+        }, listener);
+    }
+
+    /**
+     * Запуск очистки корзины в потоке с низким приоритетом
+     */
+    private void purgeTrash() {
+        TrashBin trash = trashBin;
+        if (trash != null)
+            purgeExecutor.execute(new TrashPurgeTask(trash, new File(getFilesDir(), TRASH_PURGE_JOURNAL_FILE_NAME)));
+    }
+
+    /**
+     * Продолжение массового удаления, прерванного завершением процесса
+     */
+    private void resumeBulkDelete() {
+        if (!BulkDeleteJob.hasPendingJob(getBulkDeleteJournalFile()))
+            return;
+
+        final BulkDeleteJob job = createBulkDeleteJob();
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                job.resume();
+            }
+        });
+    }
+
+    /**
+     * Создание задания массового удаления, передающего свой ход в главный поток
+     * @return задание массового удаления
+     */
+    @NonNull
+    private BulkDeleteJob createBulkDeleteJob() {
+        bulkDeleteJob = new BulkDeleteJob(getBulkDeleteJournalFile(), new OnBulkDeleteListener() {
+            @Override
+            public void onProgress(final int processed, final int total) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (onBulkDeleteListener != null)
+                            onBulkDeleteListener.onProgress(processed, total);
+                    }
+                });
+            }
+
+            @Override
+            public void onFinished(@NonNull final BulkDeleteReport report) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        bulkDeleteJob = null;
+                        if (onBulkDeleteListener != null)
+                            onBulkDeleteListener.onFinished(report);
+                    }
+                });
             }
+        });
+        return bulkDeleteJob;
+    }
+
+    @NonNull
+    private File getBulkDeleteJournalFile() {
+        return new File(getFilesDir(), BULK_DELETE_JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * Сверка индекса с установленной директорией
+     * Выполняется в пуле потоков для работы с файловой системой
+     * @return true - если директория установлена
+     */
+    @WorkerThread
+    private boolean reconcileFiles() {
+
+        File directory = directoryAudioFiles;
+        if (directory != null) {
+            updateNotification(createNotification());
+            recordingsIndex.setDirectory(directory);
+            if (recordingsIndex.reconcile())
+                recordingsIndex.save();
+            probeDurationsAsync();
             return true;
         }
         return false;
     }
 
+    /**
+     * Запуск определения длительности записей в пуле потоков, чтобы не задерживать получение страницы
+     */
+    private void probeDurationsAsync() {
+        if (ioExecutor.isShutdown())
+            return;
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                probeDurations();
+            }
+        });
+    }
+
+    /**
+     * Определение длительности записей, для которых она еще не определялась
+     *
+     * Читаются только заголовки файлов, MediaPlayer не создается. Результат сохраняется в индексе,
+     * поэтому каждый файл просматривается один раз; обработчики получают обновленные записи как измененные.
+     * Повторный запуск безопасен: уже примененные длительности индекс пропускает.
+     */
+    @WorkerThread
+    private void probeDurations() {
+        List<AudioFileEntry> entries = recordingsIndex.getEntriesWithoutDuration();
+        if (entries.isEmpty())
+            return;
+
+        RecordingDataCache dataCache = RecordingDataCache.getInstance();
+        List<AudioFileEntry> probed = new ArrayList<>(entries.size());
+        for (AudioFileEntry entry : entries) {
+            AudioInfo info = dataCache.getAudioInfo(entry.getFile(), entry.getLastModified());
+            if (info == null) {
+                info = AudioProbe.probe(entry.getFile());
+                if (info != null)
+                    dataCache.putAudioInfo(entry.getFile(), entry.getLastModified(), info);
+            }
+            probed.add(entry.withDuration(info != null ? info.getDurationMs() : AudioFileEntry.DURATION_UNAVAILABLE));
+        }
+
+        final FilesDelta delta = recordingsIndex.applyDurations(probed);
+        if (delta.isEmpty())
+            return;
+        recordingsIndex.save();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                dispatchDirectoryChanged(delta);
+            }
+        });
+    }
+
+    /**
+     * Построение таблиц перемотки и индексов участков речи для добавленных и измененных записей
+     * Выполняется в отдельном потоке, так как требует чтения и декодирования записей.
+     * Таблица перемотки строится первой: для нее достаточно прохода по заголовкам кадров.
+     * @param delta - набор изменений директории
+     */
+    private void indexRecordings(@NonNull FilesDelta delta) {
+        if (analysisExecutor.isShutdown())
+            return;
+        List<AudioFileEntry> entries = new ArrayList<>(delta.getAdded());
+        entries.addAll(delta.getModified());
+        for (AudioFileEntry entry : entries) {
+            if (entry.isDirectory() || entry.getLength() == 0L)
+                continue;
+            analysisExecutor.execute(new FutureTask<>(new SeekTableTask(entry.getFile(), seekTableCache)));
+            analysisExecutor.execute(new FutureTask<>(new VoiceActivityTask(entry.getFile(), voiceActivityCache)));
+        }
+        for (final AudioFileEntry entry : delta.getRemoved()) {
+            analysisExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    seekTableCache.remove(entry.getFile());
+                    voiceActivityCache.remove(entry.getFile());
+                }
+            });
+        }
+    }
+
+    /**
+     * Асинхронное получение индекса участков речи записи
+     * @param audio - файл записи
+     * @param listener - обработчик индекса (null, если запись не удалось декодировать)
+     * @return операция, которую можно отменить
+     */
+    public Future<VoiceActivityIndex> queryVoiceActivityAsync(@NonNull File audio, @Nullable OnFileManagerResultListener<VoiceActivityIndex> listener) {
+        return submit(analysisExecutor, new VoiceActivityTask(audio, voiceActivityCache), listener);
+    }
+
+    /**
+     * Асинхронное получение таблицы перемотки записи
+     * @param audio - файл записи
+     * @param listener - обработчик таблицы (null, если запись не является потоком кадров AMR или ADTS)
+     * @return операция, которую можно отменить
+     */
+    public Future<SeekTable> querySeekTableAsync(@NonNull File audio, @Nullable OnFileManagerResultListener<SeekTable> listener) {
+        return submit(analysisExecutor, new SeekTableTask(audio, seekTableCache), listener);
+    }
+
+    /**
+     * Асинхронное создание копии записи без тишины в начале и в конце
+     * Копии сохраняются вне директории записей, чтобы не попадать в список и не обрабатываться повторно
+     * @param audio - файл записи
+     * @param listener - обработчик файла копии (null, если речи нет, формат не поддерживается или копирование не удалось)
+     * @return операция, которую можно отменить
+     */
+    public Future<File> trimSilenceAsync(@NonNull final File audio, @Nullable OnFileManagerResultListener<File> listener) {
+        return submit(analysisExecutor, new Callable<File>() {
+            @Override
+            public File call() {
+                VoiceActivityIndex index = new VoiceActivityTask(audio, voiceActivityCache).call();
+                if (index == null)
+                    return null;
+                SeekTable seekTable = new SeekTableTask(audio, seekTableCache).call();
+                return SilenceTrimmer.trim(audio, getTrimmedDirectory(), index, seekTable);
+            }
+        }, listener);
+    }
+
+    /**
+     * Директория для копий записей без тишины
+     */
+    @NonNull
+    private File getTrimmedDirectory() {
+        File directory = getExternalFilesDir(TRIMMED_DIRECTORY_NAME);
+        return directory != null ? directory : new File(getFilesDir(), TRIMMED_DIRECTORY_NAME);
+    }
+
+    /**
+     * Запуск операции в пуле потоков для работы с файловой системой
+     * @param callable - операция
+     * @param listener - обработчик результата, вызываемый в главном потоке
+     * @return операция, которую можно отменить
+     */
+    private <T> Future<T> submit(@NonNull Callable<T> callable, @Nullable OnFileManagerResultListener<T> listener) {
+        return submit(ioExecutor, callable, listener, true);
+    }
+
+    /**
+     * Запуск операции в заданном потоке
+     * @param executor - исполнитель операции
+     * @param callable - операция
+     * @param listener - обработчик результата, вызываемый в главном потоке
+     * @return операция, которую можно отменить
+     */
+    private <T> Future<T> submit(@NonNull ExecutorService executor, @NonNull Callable<T> callable,
+                                 @Nullable OnFileManagerResultListener<T> listener) {
+        return submit(executor, callable, listener, true);
+    }
+
+    /**
+     * Запуск операции в заданном потоке
+     * @param executor - исполнитель операции
+     * @param callable - операция
+     * @param listener - обработчик результата, вызываемый в главном потоке
+     * @param interruptible - false для операций, изменяющих файлы: отмена такой операции
+     *                      отменяет только передачу результата, сама операция выполняется до конца
+     * @return операция, которую можно отменить
+     */
+    private <T> Future<T> submit(@NonNull ExecutorService executor, @NonNull Callable<T> callable,
+                                 @Nullable OnFileManagerResultListener<T> listener, boolean interruptible) {
+        FileTask<T> task = new FileTask<>(callable, listener, interruptible);
+        pendingTasks.add(task);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Отмена всех операций, результат которых еще не передан
+     */
+    private void cancelPendingTasks() {
+        List<FileTask<?>> tasks;
+        synchronized (pendingTasks) {
+            tasks = new ArrayList<>(pendingTasks);
+            pendingTasks.clear();
+        }
+        for (FileTask<?> task : tasks) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Операция с файловой системой, результат которой передается в главный поток
+     * Результат не передается, если операция была отменена, в том числе уже после ее завершения
+     */
+    private class FileTask<T> extends FutureTask<T> {
+
+        /**
+         * Обработчик результата
+         */
+        private final OnFileManagerResultListener<T> listener;
+
+        /**
+         * Можно ли прервать саму операцию (иначе отмена отменяет только передачу результата)
+         */
+        private final boolean interruptible;
+
+        /**
+         * Была ли операция отменена
+         */
+        private volatile boolean cancelled;
+
+        FileTask(@NonNull Callable<T> callable, @Nullable OnFileManagerResultListener<T> listener, boolean interruptible) {
+            super(callable);
+            this.listener = listener;
+            this.interruptible = interruptible;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            if (!interruptible)
+                return false;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            if (cancelled || listener == null) {
+                pendingTasks.remove(this);
+                return;
+            }
+
+            T result = null;
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                Log.e("FileManagerService", "task failed", e.getCause());
+            } catch (Exception e) {
+                pendingTasks.remove(this);
+                return;
+            }
+
+            /*
+             * Операция остается в списке ожидающих до передачи результата,
+             * чтобы отключение activity отменило и уже завершенную операцию
+             * */
+            final T finalResult = result;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    pendingTasks.remove(FileTask.this);
+                    if (!cancelled)
+                        listener.onResult(finalResult);
+                }
+            });
+        }
+    }
+
+    /**
+     * Фабрика фоновых потоков для работы с файловой системой
+     */
+    private static class IoThreadFactory implements ThreadFactory {
+
+        /**
+         * Префикс имени потоков
+         */
+        private final String name;
+
+        /**
+         * Приоритет потоков
+         */
+        private final int priority;
+
+        private int count;
+
+        IoThreadFactory(@NonNull String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(priority);
+                    runnable.run();
+                }
+            }, name + "-" + (++count));
+        }
+    }
+
     /**
      * Класс, позволяющий получить ссылку на сервис FileManagerService
      */
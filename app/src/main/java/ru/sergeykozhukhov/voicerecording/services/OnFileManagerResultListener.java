@@ -0,0 +1,14 @@
+package ru.sergeykozhukhov.voicerecording.services;
+
+/**
+ * Обработчик результата асинхронной операции FileManagerService
+ * Вызывается в главном потоке, если операция не была отменена
+ * @param <T> - тип результата
+ */
+public interface OnFileManagerResultListener<T> {
+    /**
+     * Получение результата операции
+     * @param result - результат операции (null, если операция завершилась ошибкой)
+     */
+    void onResult(T result);
+}
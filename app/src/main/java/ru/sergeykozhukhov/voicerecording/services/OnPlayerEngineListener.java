@@ -0,0 +1,22 @@
+package ru.sergeykozhukhov.voicerecording.services;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Обработчик событий PlayerEngine
+ * Методы вызываются в потоке проигрывателя
+ */
+public interface OnPlayerEngineListener {
+    /**
+     * Изменение состояния проигрывателя, позиции после перемещения или скорости воспроизведения
+     * @param state - состояние проигрывателя
+     * @param playerState - состояние для передачи клиентам
+     */
+    void onStateChanged(@NonNull PlayerEngine.State state, @NonNull PlayerState playerState);
+
+    /**
+     * Смена отображаемой секунды воспроизведения
+     * @param playerState - состояние с текущей позицией
+     */
+    void onProgress(@NonNull PlayerState playerState);
+}
@@ -0,0 +1,215 @@
+package ru.sergeykozhukhov.voicerecording.services;
+
+import android.os.Build;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Разделяемая между процессами область памяти с состоянием воспроизведения
+ *
+ * PlayerService записывает в нее позицию, длительность и состояние проигрывателя,
+ * activity читает ее на каждом кадре без обращения к binder.
+ * Запись защищена счетчиком последовательности (seqlock): во время записи счетчик нечетный,
+ * читатель повторяет чтение, если счетчик изменился или контрольная сумма не совпала.
+ * Контрольная сумма нужна потому, что для отображенной памяти нет барьеров между процессами.
+ *
+ * Позиция записывается вместе с моментом записи (SystemClock.uptimeMillis, общий для всех процессов)
+ * и скоростью воспроизведения, поэтому читатель сам экстраполирует позицию между записями.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O_MR1)
+public class PlaybackProgressMemory {
+
+    private static final String LOG = "PlaybackProgressMemory";
+
+    /**
+     * Имя области памяти
+     */
+    private static final String NAME = "playback_progress";
+
+    private static final int OFFSET_SEQUENCE = 0;
+    private static final int OFFSET_STATE = 4;
+    private static final int OFFSET_POSITION = 8;
+    private static final int OFFSET_DURATION = 16;
+    private static final int OFFSET_UPTIME = 24;
+    private static final int OFFSET_RATE = 32;
+    private static final int OFFSET_CHECKSUM = 40;
+
+    /**
+     * Размер записи в байтах
+     */
+    private static final int SIZE = 48;
+
+    /**
+     * Количество попыток чтения согласованной записи
+     */
+    private static final int READ_ATTEMPTS = 4;
+
+    /**
+     * Область памяти
+     */
+    private final SharedMemory sharedMemory;
+
+    /**
+     * Отображение области памяти в адресное пространство процесса
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Последнее согласованно прочитанное состояние
+     */
+    private int state = PlayerState.STATE_STOPPED;
+    private long position;
+    private long duration;
+    private long uptime;
+    private float rate = 1f;
+
+    private PlaybackProgressMemory(@NonNull SharedMemory sharedMemory, @NonNull ByteBuffer buffer) {
+        this.sharedMemory = sharedMemory;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Создание области памяти для записи (на стороне сервиса)
+     * @return область памяти или null, если ее не удалось создать
+     */
+    @Nullable
+    public static PlaybackProgressMemory create() {
+        try {
+            SharedMemory sharedMemory = SharedMemory.create(NAME, SIZE);
+            return new PlaybackProgressMemory(sharedMemory, sharedMemory.mapReadWrite());
+        } catch (ErrnoException e) {
+            Log.e(LOG, "create failed", e);
+            return null;
+        }
+    }
+
+    /**
+     * Подключение к области памяти, полученной от сервиса, только для чтения
+     * @param sharedMemory - область памяти
+     * @return область памяти или null, если ее не удалось отобразить
+     */
+    @Nullable
+    public static PlaybackProgressMemory open(@NonNull SharedMemory sharedMemory) {
+        try {
+            return new PlaybackProgressMemory(sharedMemory, sharedMemory.mapReadOnly());
+        } catch (ErrnoException e) {
+            Log.e(LOG, "map failed", e);
+            sharedMemory.close();
+            return null;
+        }
+    }
+
+    /**
+     * Область памяти для передачи в другой процесс
+     */
+    @NonNull
+    public SharedMemory getSharedMemory() {
+        return sharedMemory;
+    }
+
+    /**
+     * Запись состояния воспроизведения
+     * @param state - состояние (PlayerState.STATE_*)
+     * @param position - позиция воспроизведения в миллисекундах
+     * @param duration - длительность файла в миллисекундах
+     * @param uptime - момент получения позиции (SystemClock.uptimeMillis)
+     * @param rate - скорость воспроизведения
+     */
+    public void write(int state, long position, long duration, long uptime, float rate) {
+        if (buffer == null)
+            return;
+        int sequence = buffer.getInt(OFFSET_SEQUENCE) + 1;
+        if ((sequence & 1) == 0)
+            sequence++;
+        buffer.putInt(OFFSET_SEQUENCE, sequence);
+        buffer.putInt(OFFSET_STATE, state);
+        buffer.putLong(OFFSET_POSITION, position);
+        buffer.putLong(OFFSET_DURATION, duration);
+        buffer.putLong(OFFSET_UPTIME, uptime);
+        buffer.putFloat(OFFSET_RATE, rate);
+        buffer.putLong(OFFSET_CHECKSUM, checksum(sequence + 1, state, position, duration, uptime, rate));
+        buffer.putInt(OFFSET_SEQUENCE, sequence + 1);
+    }
+
+    /**
+     * Чтение согласованного состояния воспроизведения
+     * Если за READ_ATTEMPTS попыток прочитать запись не удалось, сохраняется предыдущее состояние
+     * @return true - если состояние было прочитано
+     */
+    public boolean read() {
+        if (buffer == null)
+            return false;
+        for (int i = 0; i < READ_ATTEMPTS; i++) {
+            int sequence = buffer.getInt(OFFSET_SEQUENCE);
+            if ((sequence & 1) != 0)
+                continue;
+            int readState = buffer.getInt(OFFSET_STATE);
+            long readPosition = buffer.getLong(OFFSET_POSITION);
+            long readDuration = buffer.getLong(OFFSET_DURATION);
+            long readUptime = buffer.getLong(OFFSET_UPTIME);
+            float readRate = buffer.getFloat(OFFSET_RATE);
+            long readChecksum = buffer.getLong(OFFSET_CHECKSUM);
+            if (buffer.getInt(OFFSET_SEQUENCE) != sequence
+                    || readChecksum != checksum(sequence, readState, readPosition, readDuration, readUptime, readRate))
+                continue;
+            state = readState;
+            position = readPosition;
+            duration = readDuration;
+            uptime = readUptime;
+            rate = readRate;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Контрольная сумма записи
+     */
+    private static long checksum(int sequence, int state, long position, long duration, long uptime, float rate) {
+        long hash = sequence;
+        hash = hash * 31L + state;
+        hash = hash * 31L + position;
+        hash = hash * 31L + duration;
+        hash = hash * 31L + uptime;
+        hash = hash * 31L + Float.floatToIntBits(rate);
+        return hash;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Позиция воспроизведения на заданный момент
+     * Во время воспроизведения позиция экстраполируется от момента последней записи
+     * @param now - текущий момент (SystemClock.uptimeMillis)
+     * @return позиция в миллисекундах, не превышающая длительность
+     */
+    public long getPosition(long now) {
+        if (state != PlayerState.STATE_PLAYING)
+            return position;
+        return Math.min(duration, position + (long) (Math.max(0L, now - uptime) * rate));
+    }
+
+    /**
+     * Освобождение отображения и области памяти
+     */
+    public void close() {
+        if (buffer != null) {
+            SharedMemory.unmap(buffer);
+            buffer = null;
+        }
+        sharedMemory.close();
+    }
+}
@@ -0,0 +1,560 @@
+package ru.sergeykozhukhov.voicerecording.services;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.sergeykozhukhov.voicerecording.audio_tools.AudioInfo;
+import ru.sergeykozhukhov.voicerecording.audio_tools.AudioPlayer;
+import ru.sergeykozhukhov.voicerecording.audio_tools.AudioProbe;
+import ru.sergeykozhukhov.voicerecording.audio_tools.OnAudioPlayerListener;
+import ru.sergeykozhukhov.voicerecording.audio_tools.VoiceActivityCache;
+import ru.sergeykozhukhov.voicerecording.audio_tools.VoiceActivityIndex;
+
+/**
+ * Проигрыватель PlayerService, работающий в отдельном потоке
+ *
+ * Вся работа с MediaPlayer и обновление прогресса выполняются в потоке проигрывателя,
+ * поэтому медленная подготовка файла не задерживает основной поток сервиса.
+ * Команды могут поступать из любого потока и ставятся в очередь потока проигрывателя.
+ * Команды, потерявшие смысл до выполнения, из очереди удаляются:
+ * новое воспроизведение отменяет ожидающие паузу, перемещение и остановку,
+ * остановка отменяет ожидающие воспроизведение, паузу и перемещение,
+ * из нескольких перемещений и смен скорости выполняется только последнее,
+ * две ожидающие паузы (пауза и возобновление) взаимно отменяются.
+ *
+ * В режиме пропуска тишины проигрыватель перемещается через участки без речи по индексу
+ * участков речи, а позиция и длительность передаются клиентам во времени речи.
+ */
+public class PlayerEngine {
+
+    private static final String LOG = "PlayerEngine";
+
+    /**
+     * Состояние проигрывателя
+     */
+    public enum State {
+        IDLE,
+        PREPARING,
+        PLAYING,
+        PAUSED,
+        STOPPED,
+        ERROR
+    }
+
+    private static final int MSG_PLAY = 1;
+    private static final int MSG_PAUSE = 2;
+    private static final int MSG_STOP = 3;
+    private static final int MSG_SEEK = 4;
+    private static final int MSG_RATE = 5;
+    private static final int MSG_PROGRESS_MODE = 6;
+    private static final int MSG_TICK = 7;
+    private static final int MSG_RELEASE = 8;
+    private static final int MSG_SKIP_SILENCE = 9;
+
+    /**
+     * Шаг обновления прогресса, пока клиенты получают прогресс через binder
+     */
+    private static final long TICK_PERIOD_FAST = 100L;
+
+    /**
+     * Шаг обновления прогресса, пока отображается только уведомление
+     * (обновление производится на границе секунды воспроизведения)
+     */
+    private static final long TICK_PERIOD_NOTIFICATION = 1000L;
+
+    /**
+     * Наименьшая длительность тишины, через которую выполняется перемещение, в миллисекундах
+     * (перемещение через более короткую паузу заметнее самой паузы)
+     */
+    private static final long MIN_SKIPPED_SILENCE = 250L;
+
+    /**
+     * Поток проигрывателя
+     */
+    private final HandlerThread engineThread;
+
+    /**
+     * Очередь команд потока проигрывателя
+     */
+    private final Handler engineHandler;
+
+    /**
+     * Обработчик событий проигрывателя
+     */
+    private final OnPlayerEngineListener onPlayerEngineListener;
+
+    /**
+     * Область памяти, в которую записывается прогресс (null, если недоступна)
+     */
+    private final PlaybackProgressMemory progressMemory;
+
+    /**
+     * Аудиоплеер (используется только в потоке проигрывателя)
+     */
+    private final AudioPlayer audioPlayer;
+
+    /**
+     * Кэш индексов участков речи (null, если пропуск тишины недоступен)
+     */
+    private final VoiceActivityCache voiceActivityCache;
+
+    /**
+     * Был ли проигрыватель освобожден
+     */
+    private volatile boolean released = false;
+
+    /**
+     * Текущее состояние
+     */
+    private State state = State.IDLE;
+
+    /**
+     * Длительность воспроизводимого файла
+     */
+    private long duration;
+
+    /**
+     * Нужно ли частое обновление прогресса
+     */
+    private boolean fastProgress = false;
+
+    /**
+     * Оставшиеся секунды, переданные при последнем обновлении прогресса
+     */
+    private long lastTickSeconds = -1L;
+
+    /**
+     * Включен ли режим пропуска тишины
+     */
+    private boolean skipSilence = false;
+
+    /**
+     * Индекс участков речи воспроизводимого файла (null, если индекс еще не построен)
+     */
+    private VoiceActivityIndex voiceActivity;
+
+    /**
+     * @param progressMemory - область памяти для прогресса, владение которой переходит проигрывателю
+     * @param voiceActivityCache - кэш индексов участков речи для режима пропуска тишины
+     * @param onPlayerEngineListener - обработчик событий проигрывателя
+     */
+    public PlayerEngine(@Nullable PlaybackProgressMemory progressMemory, @Nullable VoiceActivityCache voiceActivityCache,
+                        @NonNull OnPlayerEngineListener onPlayerEngineListener) {
+        this.progressMemory = progressMemory;
+        this.voiceActivityCache = voiceActivityCache;
+        this.onPlayerEngineListener = onPlayerEngineListener;
+
+        engineThread = new HandlerThread("PlayerEngine", Process.THREAD_PRIORITY_AUDIO);
+        engineThread.start();
+        engineHandler = new Handler(engineThread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                handleCommand(msg);
+                return true;
+            }
+        });
+        audioPlayer = new AudioPlayer(engineHandler, onAudioPlayerListener);
+    }
+
+    /**
+     * Воспроизведение очереди файлов
+     * @param files - файлы в порядке воспроизведения
+     * @param startIndex - позиция файла, с которого начинается воспроизведение
+     */
+    public synchronized void play(@NonNull List<File> files, int startIndex) {
+        if (released || startIndex < 0 || startIndex >= files.size())
+            return;
+        engineHandler.removeMessages(MSG_PLAY);
+        engineHandler.removeMessages(MSG_PAUSE);
+        engineHandler.removeMessages(MSG_SEEK);
+        engineHandler.removeMessages(MSG_STOP);
+        engineHandler.obtainMessage(MSG_PLAY, startIndex, 0, new ArrayList<>(files)).sendToTarget();
+    }
+
+    /**
+     * Пауза, если файл воспроизводится, и возобновление, если приостановлен
+     */
+    public synchronized void pause() {
+        if (released)
+            return;
+        if (engineHandler.hasMessages(MSG_PAUSE))
+            engineHandler.removeMessages(MSG_PAUSE);
+        else
+            engineHandler.sendEmptyMessage(MSG_PAUSE);
+    }
+
+    /**
+     * Остановка воспроизведения
+     */
+    public synchronized void stop() {
+        if (released)
+            return;
+        engineHandler.removeMessages(MSG_PLAY);
+        engineHandler.removeMessages(MSG_PAUSE);
+        engineHandler.removeMessages(MSG_SEEK);
+        if (!engineHandler.hasMessages(MSG_STOP))
+            engineHandler.sendEmptyMessage(MSG_STOP);
+    }
+
+    /**
+     * Перемещение к позиции воспроизводимого файла
+     * @param position - позиция в миллисекундах
+     */
+    public synchronized void seekTo(long position) {
+        if (released)
+            return;
+        engineHandler.removeMessages(MSG_SEEK);
+        engineHandler.obtainMessage(MSG_SEEK, position).sendToTarget();
+    }
+
+    /**
+     * Изменение скорости воспроизведения
+     * @param rate - скорость воспроизведения
+     */
+    public synchronized void setPlaybackRate(float rate) {
+        if (released || rate <= 0f)
+            return;
+        engineHandler.removeMessages(MSG_RATE);
+        engineHandler.obtainMessage(MSG_RATE, rate).sendToTarget();
+    }
+
+    /**
+     * Включение и выключение режима пропуска тишины
+     * @param enabled - пропускать ли участки без речи
+     */
+    public synchronized void setSkipSilence(boolean enabled) {
+        if (released)
+            return;
+        engineHandler.removeMessages(MSG_SKIP_SILENCE);
+        engineHandler.obtainMessage(MSG_SKIP_SILENCE, enabled ? 1 : 0, 0).sendToTarget();
+    }
+
+    /**
+     * Смена частоты обновления прогресса
+     * @param fast - нужно ли частое обновление (клиенты получают прогресс через binder)
+     */
+    public synchronized void setFastProgress(boolean fast) {
+        if (released)
+            return;
+        engineHandler.removeMessages(MSG_PROGRESS_MODE);
+        engineHandler.obtainMessage(MSG_PROGRESS_MODE, fast ? 1 : 0, 0).sendToTarget();
+    }
+
+    /**
+     * Остановка воспроизведения, освобождение ресурсов и завершение потока проигрывателя
+     */
+    public synchronized void release() {
+        if (released)
+            return;
+        released = true;
+        engineHandler.removeCallbacksAndMessages(null);
+        engineHandler.sendEmptyMessage(MSG_RELEASE);
+    }
+
+    /**
+     * Выполнение команды в потоке проигрывателя
+     * @param msg - команда
+     */
+    @SuppressWarnings("unchecked")
+    private void handleCommand(@NonNull Message msg) {
+        switch (msg.what) {
+            case MSG_PLAY:
+                onPlay((List<File>) msg.obj, msg.arg1);
+                break;
+            case MSG_PAUSE:
+                onPause();
+                break;
+            case MSG_STOP:
+                onStop(State.STOPPED);
+                break;
+            case MSG_SEEK:
+                onSeek((Long) msg.obj);
+                break;
+            case MSG_RATE:
+                onRate((Float) msg.obj);
+                break;
+            case MSG_PROGRESS_MODE:
+                fastProgress = msg.arg1 != 0;
+                if (state == State.PLAYING)
+                    scheduleTick(0L);
+                break;
+            case MSG_TICK:
+                onTick();
+                break;
+            case MSG_SKIP_SILENCE:
+                onSkipSilence(msg.arg1 != 0);
+                break;
+            case MSG_RELEASE:
+                onStop(State.STOPPED);
+                audioPlayer.release();
+                if (progressMemory != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1)
+                    progressMemory.close();
+                engineThread.quitSafely();
+                break;
+            default:
+        }
+    }
+
+    private void onPlay(@NonNull List<File> files, int startIndex) {
+        engineHandler.removeMessages(MSG_TICK);
+        audioPlayer.setQueue(files, startIndex);
+        audioPlayer.start();
+        /*
+         * Длительность по заголовкам файла известна до подготовки MediaPlayer и передается клиентам
+         * в состоянии подготовки, после подготовки она уточняется в onStarted
+         * */
+        AudioInfo info = AudioProbe.probe(files.get(startIndex));
+        duration = info != null ? info.getDurationMs() : 0L;
+        voiceActivity = null;
+        setState(State.PREPARING, 0L);
+    }
+
+    private void onPause() {
+        if (state == State.PLAYING) {
+            audioPlayer.pause();
+            engineHandler.removeMessages(MSG_TICK);
+            setState(State.PAUSED, audioPlayer.getCurrentPosition());
+        } else if (state == State.PAUSED) {
+            audioPlayer.pause();
+            setState(State.PLAYING, audioPlayer.getCurrentPosition());
+            scheduleTick(0L);
+        }
+    }
+
+    /**
+     * Остановка воспроизведения
+     * @param newState - STOPPED или ERROR
+     */
+    private void onStop(@NonNull State newState) {
+        engineHandler.removeMessages(MSG_TICK);
+        if (state == State.PREPARING || state == State.PLAYING || state == State.PAUSED) {
+            audioPlayer.stop();
+            setState(newState, 0L);
+        }
+    }
+
+    /**
+     * Перемещение
+     * @param position - позиция в координатах клиентов (во времени речи в режиме пропуска тишины)
+     */
+    private void onSeek(long position) {
+        if (state != State.PLAYING && state != State.PAUSED)
+            return;
+        long target = toFilePosition(Math.max(0L, Math.min(position, getReportedDuration())));
+        audioPlayer.seekTo(target);
+        setState(state, target);
+        if (state == State.PLAYING)
+            scheduleTick(0L);
+    }
+
+    private void onRate(float rate) {
+        audioPlayer.setPlaybackRate(rate);
+        if (state != State.PLAYING && state != State.PAUSED)
+            return;
+        setState(state, audioPlayer.getCurrentPosition());
+        if (state == State.PLAYING)
+            scheduleTick(0L);
+    }
+
+    private void onSkipSilence(boolean enabled) {
+        if (skipSilence == enabled)
+            return;
+        skipSilence = enabled;
+        if (state != State.PLAYING && state != State.PAUSED)
+            return;
+        /*
+         * Координаты позиции у клиентов меняются, поэтому состояние передается заново
+         * */
+        setState(state, audioPlayer.getCurrentPosition());
+        if (state == State.PLAYING)
+            scheduleTick(0L);
+    }
+
+    /**
+     * Обработчик событий аудиоплеера (вызывается в потоке проигрывателя)
+     */
+    private final OnAudioPlayerListener onAudioPlayerListener = new OnAudioPlayerListener() {
+        @Override
+        public void onStarted(@NonNull File file, long fileDuration) {
+            Log.d(LOG, "Duration: " + fileDuration);
+            duration = fileDuration;
+            voiceActivity = voiceActivityCache != null ? voiceActivityCache.read(file) : null;
+            setState(State.PLAYING, 0L);
+            scheduleTick(0L);
+        }
+
+        @Override
+        public void onCompleted(@NonNull File file) {
+            Log.d(LOG, "COMPLETED: " + file.getName());
+            engineHandler.removeMessages(MSG_TICK);
+            setState(State.STOPPED, 0L);
+        }
+
+        @Override
+        public void onError(@NonNull File file, boolean queueContinues) {
+            Log.d(LOG, "ERROR: " + file.getName());
+            /*
+             * Состояние следующего файла очереди передается при его запуске (onStarted)
+             * */
+            if (!queueContinues) {
+                engineHandler.removeMessages(MSG_TICK);
+                setState(State.ERROR, 0L);
+            }
+        }
+    };
+
+    /**
+     * Смена состояния, запись его в область памяти и передача обработчику
+     * @param newState - новое состояние
+     * @param position - позиция воспроизведения в миллисекундах
+     */
+    private void setState(@NonNull State newState, long position) {
+        state = newState;
+        lastTickSeconds = -1L;
+        PlayerState playerState = createPlayerState(position);
+        publishProgress(playerState);
+        onPlayerEngineListener.onStateChanged(newState, playerState);
+    }
+
+    /**
+     * Планирование обновления прогресса
+     * @param delay - задержка в миллисекундах
+     */
+    private void scheduleTick(long delay) {
+        engineHandler.removeMessages(MSG_TICK);
+        engineHandler.sendEmptyMessageDelayed(MSG_TICK, delay);
+    }
+
+    /**
+     * Обновление прогресса по текущей позиции проигрывателя
+     *
+     * При частом обновлении обработчик получает прогресс на каждом обновлении, чтобы клиенты,
+     * получающие его через binder, отображали позицию с точностью до миллисекунд,
+     * иначе только при смене оставшейся секунды, и следующее обновление планируется
+     * ровно на границу следующей секунды воспроизведения.
+     * В режиме пропуска тишины обновление также планируется на конец текущего участка речи,
+     * где проигрыватель перемещается к началу следующего участка.
+     */
+    private void onTick() {
+        if (state != State.PLAYING)
+            return;
+        long position = audioPlayer.getCurrentPosition();
+        long speechEnd = -1L;
+        if (isSkippingSilence()) {
+            int segment = voiceActivity.findSegment(position * 1000L);
+            if (segment == voiceActivity.getSegmentCount()) {
+                if (duration - position >= MIN_SKIPPED_SILENCE) {
+                    /*
+                     * Речи до конца файла больше нет: события следующего файла или завершения очереди
+                     * сменят состояние и запланируют обновление сами
+                     * */
+                    audioPlayer.finishCurrent();
+                    return;
+                }
+            } else {
+                long speechStart = voiceActivity.getStartUs(segment) / 1000L;
+                if (speechStart - position >= MIN_SKIPPED_SILENCE) {
+                    audioPlayer.seekTo(speechStart);
+                    position = speechStart;
+                }
+                speechEnd = voiceActivity.getEndUs(segment) / 1000L;
+            }
+        }
+
+        PlayerState playerState = createPlayerState(position);
+        publishProgress(playerState);
+
+        long leftMillis = Math.max(0L, playerState.getDuration() - playerState.getPosition());
+        long leftSeconds = leftMillis / 1000L;
+        if (fastProgress || leftSeconds != lastTickSeconds) {
+            lastTickSeconds = leftSeconds;
+            onPlayerEngineListener.onProgress(playerState);
+        }
+
+        float rate = audioPlayer.getPlaybackRate();
+        long delay = fastProgress
+                ? TICK_PERIOD_FAST
+                : Math.max(1L, (long) ((leftMillis % TICK_PERIOD_NOTIFICATION + 1L) / rate));
+        if (speechEnd > position)
+            delay = Math.min(delay, Math.max(1L, (long) ((speechEnd - position) / rate)));
+        scheduleTick(delay);
+    }
+
+    /**
+     * Действует ли пропуск тишины для воспроизводимого файла
+     */
+    private boolean isSkippingSilence() {
+        return skipSilence && voiceActivity != null && voiceActivity.hasSpeech();
+    }
+
+    /**
+     * Длительность в координатах клиентов
+     * @return длительность речи в режиме пропуска тишины, иначе длительность файла, в миллисекундах
+     */
+    private long getReportedDuration() {
+        return isSkippingSilence() ? voiceActivity.getSpeechDurationUs() / 1000L : duration;
+    }
+
+    /**
+     * Перевод позиции файла в координаты клиентов
+     * @param position - позиция файла в миллисекундах
+     */
+    private long toReportedPosition(long position) {
+        return isSkippingSilence() ? voiceActivity.toSpeechTimeUs(position * 1000L) / 1000L : position;
+    }
+
+    /**
+     * Перевод позиции в координатах клиентов в позицию файла
+     * @param position - позиция в координатах клиентов в миллисекундах
+     */
+    private long toFilePosition(long position) {
+        return isSkippingSilence() ? voiceActivity.fromSpeechTimeUs(position * 1000L) / 1000L : position;
+    }
+
+    /**
+     * Состояние для передачи клиентам
+     * @param position - позиция воспроизведения файла в миллисекундах
+     */
+    @NonNull
+    private PlayerState createPlayerState(long position) {
+        int clientState;
+        switch (state) {
+            case PLAYING:
+                clientState = PlayerState.STATE_PLAYING;
+                break;
+            case PAUSED:
+                clientState = PlayerState.STATE_PAUSED;
+                break;
+            case PREPARING:
+                clientState = PlayerState.STATE_PREPARING;
+                break;
+            default:
+                clientState = PlayerState.STATE_STOPPED;
+        }
+        File file = audioPlayer.getAudioFile();
+        return new PlayerState(clientState, file != null ? file.getPath() : null,
+                toReportedPosition(position), getReportedDuration(), audioPlayer.getPlaybackRate());
+    }
+
+    /**
+     * Запись состояния воспроизведения в область памяти, читаемую клиентами
+     * @param playerState - состояние
+     */
+    private void publishProgress(@NonNull PlayerState playerState) {
+        if (progressMemory != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1)
+            progressMemory.write(playerState.getState(), playerState.getPosition(),
+                    playerState.getDuration(), SystemClock.uptimeMillis(), playerState.getRate());
+    }
+}
@@ -9,11 +9,9 @@ import android.content.Intent;
 import android.nfc.Tag;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.CountDownTimer;
 import android.os.Handler;
 import android.os.IBinder;
-import android.os.Message;
-import android.os.Messenger;
+import android.os.RemoteCallbackList;
 import android.os.RemoteException;
 import android.util.Log;
 import android.widget.RemoteViews;
@@ -24,18 +22,19 @@ import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-import ru.sergeykozhukhov.voicerecording.audio_tools.AudioPlayer;
 import ru.sergeykozhukhov.voicerecording.MainActivity;
 import ru.sergeykozhukhov.voicerecording.R;
-
-import static ru.sergeykozhukhov.voicerecording.MainActivity.BUNDLE_KEY_FILE;
-import static ru.sergeykozhukhov.voicerecording.MainActivity.MSG_PAUSE_PLAYER;
-import static ru.sergeykozhukhov.voicerecording.MainActivity.MSG_PLAY_PLAYER;
-import static ru.sergeykozhukhov.voicerecording.MainActivity.MSG_STOP_PLAYER;
+import ru.sergeykozhukhov.voicerecording.audio_tools.VoiceActivityCache;
 
 /**
  * Сервис воспроизведения записей
+ *
+ * Воспроизведение выполняется PlayerEngine в отдельном потоке, основной поток сервиса
+ * занимается только уведомлением и передачей состояния клиентам.
  */
 public class PlayerService extends Service {
 
@@ -46,11 +45,6 @@ public class PlayerService extends Service {
      */
     private static final String CHANNEL_ID = "CHANNEL_ID_2";
 
-    /**
-     * Шаг таймера
-     */
-    private static final long TIMER_PERIOD = 1000L;
-
     /**
      * Идентификатор уведомления
      */
@@ -67,59 +61,76 @@ public class PlayerService extends Service {
     public static final String ACTION_PAUSE = "PLAYER_SERVICE_ACTION_PAUSE";
 
     /**
-     * Сообщение activity на каждую секунду работы звука
+     * Идентификатор для получения/передачи клиенту области памяти с прогрессом воспроизведения
      */
-    public static final int MSG_PLAYER_TICK = 4;
+    public static final String BUNDLE_PROGRESS_MEMORY = "BUNDLE_PROGRESS_MEMORY";
 
     /**
-     * Сообщение activity на получение длительности аудиофайла
+     * Основной поток сервиса
      */
-    public static final int MSG_PLAYER_GOT_DURATION = 5;
+    private final Handler mainHandler = new Handler();
 
     /**
-     * Сообщение activity об остановки звука
+     * Клиенты, получающие состояние проигрывателя
+     * Клиенты, процесс которых завершился, удаляются из списка автоматически
      */
-    public static final int MSG_PLAYER_STOPPED = 6;
+    private final RemoteCallbackList<IPlayerCallbackAIDL> playerCallbacks = new RemoteCallbackList<IPlayerCallbackAIDL>() {
+        @Override
+        public void onCallbackDied(IPlayerCallbackAIDL callback) {
+            mainHandler.post(clientsChangedRunnable);
+        }
+    };
 
     /**
-     * Сообщение activity о воспроизведении звука
+     * Обновление частоты прогресса после изменения списка клиентов
      */
-    public static final int MSG_PLAYER_STARTED_PLAY = 7;
+    private final Runnable clientsChangedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onClientsChanged();
+        }
+    };
 
     /**
-     * Идентификатор для получения/передачи в activity оставшихся секунд до окончания таймера
+     * Состояния, ожидающие передачи клиентам
      */
-    public static final String BUNDLE_CURRENT_PROGRESS = "BUNDLE_CURRENT_PROGRESS";
+    private final ArrayList<PlayerState> pendingStates = new ArrayList<>();
 
     /**
-     * Идентификатор для получения/передачи в activity длительности звукого файла
+     * Передача клиентам накопленных состояний одним вызовом
      */
-    public static final String BUNDLE_FILE_DURATION = "BUNDLE_FILE_DURATION";
+    private final Runnable dispatchStatesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPendingStates();
+        }
+    };
 
     /**
-     * Обработчик поступающих сообщений от activity
+     * Проигрыватель, работающий в отдельном потоке
      */
-    private Messenger mServiceMessenger = new Messenger(new MessengerHandler());
+    private PlayerEngine playerEngine;
 
     /**
-     * Обработчик отправляемых сообщений в activity
+     * Прололжительность таймера
      */
-    private Messenger mainActivityMessenger;
+    private long audioFileDuration;
 
     /**
-     * Аудиоплеер
+     * Есть ли подключенные клиенты (activity видна пользователю)
      */
-    private AudioPlayer audioPlayer;
+    private boolean isClientVisible = false;
 
     /**
-     * Прололжительность таймера
+     * Область памяти, через которую клиенты получают прогресс без вызовов binder (API 27+)
+     * Принадлежит playerEngine, который записывает в нее прогресс и освобождает ее
      */
-    private long audioFileDuration;
+    private volatile PlaybackProgressMemory progressMemory;
 
     /**
-     * Счетчик обратного отсчета (таймер)
+     * Последнее состояние проигрывателя, полученное от playerEngine
      */
-    private CountDownTimer mCountDownTimer;
+    private PlayerState lastPlayerState;
 
     /**
      * Находится ли аудиоплеер в состоянии паузы
@@ -132,22 +143,77 @@ public class PlayerService extends Service {
     private boolean isStartPlayer = false;
 
     /**
-     * Оставшееся время таймера
+     * Менеджер уведомлений
+     */
+    private NotificationManagerCompat notificationManager;
+
+    /**
+     * Builder уведомления, создаваемый один раз
+     */
+    private NotificationCompat.Builder notificationBuilder;
+
+    /**
+     * Действие кнопки остановки в уведомлении
+     */
+    private PendingIntent pendingIntentStopService;
+
+    /**
+     * Действие кнопки паузы в уведомлении
+     */
+    private PendingIntent pendingIntentPauseService;
+
+    /**
+     * Секунды, отображаемые в уведомлении
      */
-    private long leftTime;
+    private long notifiedSeconds = -1L;
+
+    /**
+     * Процент, отображаемый в уведомлении
+     */
+    private int notifiedPercent = -1;
 
     @Override
     public void onCreate() {
         super.onCreate();
 
         createNotificationChannel();
+        initNotification();
         initData();
     }
 
     private void initData(){
-        audioPlayer = new AudioPlayer();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1)
+            progressMemory = PlaybackProgressMemory.create();
+        VoiceActivityCache voiceActivityCache = new VoiceActivityCache(new File(getCacheDir(), VoiceActivityCache.DIRECTORY_NAME));
+        playerEngine = new PlayerEngine(progressMemory, voiceActivityCache, onPlayerEngineListener);
     }
 
+    /**
+     * Обработчик событий проигрывателя
+     * События поступают в потоке проигрывателя и переносятся в основной поток сервиса
+     */
+    private final OnPlayerEngineListener onPlayerEngineListener = new OnPlayerEngineListener() {
+        @Override
+        public void onStateChanged(@NonNull final PlayerEngine.State state, @NonNull final PlayerState playerState) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onPlayerStateChanged(state, playerState);
+                }
+            });
+        }
+
+        @Override
+        public void onProgress(@NonNull final PlayerState playerState) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onPlayerProgress(playerState);
+                }
+            });
+        }
+    };
+
     /**
      * Запуск серсива с уведомлением или завершение его в случае отмены пользователем.
      *
@@ -165,9 +231,9 @@ public class PlayerService extends Service {
     public int onStartCommand(Intent intent, int flags, int startId) {
 
         if (ACTION_STOP.equals(intent.getAction())) {
-            stopAudioFile();
+            playerEngine.stop();
         } else if(ACTION_PAUSE.equals(intent.getAction())) {
-            pauseAudioFile();
+            playerEngine.pause();
         }
         else{
             Log.d(LOG, "OTHER");
@@ -178,7 +244,10 @@ public class PlayerService extends Service {
     @Override
     public void onDestroy() {
         Log.d(LOG, "ON_DESTROY");
-        stopAudioFile();
+        playerEngine.release();
+        mainHandler.removeCallbacksAndMessages(null);
+        stopForeground(true);
+        playerCallbacks.kill();
 
         super.onDestroy();
     }
@@ -187,7 +256,7 @@ public class PlayerService extends Service {
     @Override
     public IBinder onBind(Intent intent) {
         Log.d(LOG, "ON_BIND");
-        return mServiceMessenger.getBinder();
+        return playerBinder;
     }
 
     @Override
@@ -197,9 +266,76 @@ public class PlayerService extends Service {
     }
 
     /**
-     * Функция, создающая Notification.
-     * @param currentTime - текущий показатель времени, отображаемый в тексте.
-     * @return сконфигурированный объект Notification.
+     * Интерфейс управления проигрывателем для клиентов
+     * Команды из потоков binder передаются в очередь playerEngine, не задерживая основной поток
+     */
+    private final IPlayerServiceAIDL.Stub playerBinder = new IPlayerServiceAIDL.Stub() {
+        @Override
+        public void play(String path) {
+            if (path != null)
+                playerEngine.play(Collections.singletonList(new File(path)), 0);
+        }
+
+        @Override
+        public void playQueue(List<String> paths, int startIndex) {
+            if (paths == null)
+                return;
+            ArrayList<File> files = new ArrayList<>(paths.size());
+            for (String path : paths) {
+                files.add(new File(path));
+            }
+            playerEngine.play(files, startIndex);
+        }
+
+        @Override
+        public void pause() {
+            playerEngine.pause();
+        }
+
+        @Override
+        public void stop() {
+            playerEngine.stop();
+        }
+
+        @Override
+        public void seekTo(long position) {
+            playerEngine.seekTo(position);
+        }
+
+        @Override
+        public void setPlaybackRate(float rate) {
+            playerEngine.setPlaybackRate(rate);
+        }
+
+        @Override
+        public Bundle getProgressMemory() {
+            Bundle bundle = new Bundle();
+            if (progressMemory != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1)
+                bundle.putParcelable(BUNDLE_PROGRESS_MEMORY, progressMemory.getSharedMemory());
+            return bundle;
+        }
+
+        @Override
+        public void registerCallback(IPlayerCallbackAIDL callback) {
+            if (callback != null && playerCallbacks.register(callback))
+                mainHandler.post(clientsChangedRunnable);
+        }
+
+        @Override
+        public void unregisterCallback(IPlayerCallbackAIDL callback) {
+            if (callback != null && playerCallbacks.unregister(callback))
+                mainHandler.post(clientsChangedRunnable);
+        }
+
+        @Override
+        public void setSkipSilence(boolean enabled) {
+            playerEngine.setSkipSilence(enabled);
+        }
+    };
+
+    /**
+     * Создание неизменяемых частей уведомления: builder и PendingIntent кнопок.
+     * Создаются один раз за время жизни сервиса и используются при каждом обновлении.
      *
      * ### Notification ###
      *
@@ -235,21 +371,37 @@ public class PlayerService extends Service {
      * - PendingIntent.getService - получение PendingIntent, который позволяет запустить службу, подобно вызову startService()
      * Аргументы для сервиса получаются путем извлечения данных из переданного intent
      */
-    private Notification createNotification(long currentTime) {
-
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID);
+    private void initNotification() {
+        notificationManager = NotificationManagerCompat.from(this);
 
         Intent intent = new Intent(this, MainActivity.class);
         PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, intent, 0);
 
         Intent intentStopService = new Intent(this, PlayerService.class);
         intentStopService.setAction(ACTION_STOP);
-        PendingIntent pendingIntentStopService = PendingIntent.getService(this, 0, intentStopService, 0);
+        pendingIntentStopService = PendingIntent.getService(this, 0, intentStopService, 0);
 
         Intent intentPauseService = new Intent(this, PlayerService.class);
         intentPauseService.setAction(ACTION_PAUSE);
-        PendingIntent pendingIntentPauseService = PendingIntent.getService(this, 0, intentPauseService, 0);
+        pendingIntentPauseService = PendingIntent.getService(this, 0, intentPauseService, 0);
 
+        notificationBuilder = new NotificationCompat.Builder(this, CHANNEL_ID);
+        notificationBuilder.setContentTitle(getString(R.string.player_service_notif_titile))
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setStyle(new NotificationCompat.DecoratedCustomViewStyle())
+                .setOnlyAlertOnce(true)
+                .setContentIntent(pendingIntent);
+    }
+
+    /**
+     * Функция, создающая Notification.
+     * @param currentTime - текущий показатель времени, отображаемый в тексте.
+     * @return сконфигурированный объект Notification.
+     *
+     * RemoteViews накапливает все примененные к нему действия, поэтому при изменении
+     * отображаемых значений создается новый RemoteViews, а builder и PendingIntent берутся готовые.
+     */
+    private Notification createNotification(long currentTime) {
         int percentTime = secondsToPercent(currentTime);
 
         RemoteViews remoteViews = new RemoteViews(getPackageName(), R.layout.custom_notification);
@@ -258,14 +410,10 @@ public class PlayerService extends Service {
         remoteViews.setProgressBar(R.id.notif_indicator_progress_bar,100, percentTime,false);
         remoteViews.setTextViewText(R.id.notif_time_text_view, String.valueOf(currentTime));
 
-
-        builder.setContentTitle(getString(R.string.player_service_notif_titile))
-                .setSmallIcon(R.mipmap.ic_launcher)
-                .setCustomContentView(remoteViews)
-                .setStyle(new NotificationCompat.DecoratedCustomViewStyle())
-                .setOnlyAlertOnce(true)
-                .setContentIntent(pendingIntent);
-        return builder.build();
+        notifiedSeconds = currentTime;
+        notifiedPercent = percentTime;
+        notificationBuilder.setCustomContentView(remoteViews);
+        return notificationBuilder.build();
     }
 
     /**
@@ -303,153 +451,119 @@ public class PlayerService extends Service {
     }
 
     /**
-     * Запуск таймера.
-     *
-     * Производится обновление уведомлений с учетом времени на каждом шаге таймера.
-     *
-     * @param time - время таймера
-     * @param period - шаг отсчета
-     *
-     * ### CountDownTimer ###
-     *
-     * Параметры конструктора: продолжительность таймера и шаг отсчета.
-     * OnTick(...) - действия каждый шаг отсчета.
-     * OnFinish() - действие по завершению таймера.
-     *
-     *
-     */
-    private void startCountdownTimer(long time, long period) {
-        mCountDownTimer = new CountDownTimer(time, period) {
-            @Override
-            public void onTick(long millisUntilFinished) {
-                updateNotification(createNotification(millsToSeconds(millisUntilFinished)));
-                sendCurrentSecond(millsToSeconds(millisUntilFinished));
-                leftTime = millisUntilFinished;
-                Log.d(LOG, "TIMER_TICK: ["+millsToSeconds(millisUntilFinished)+"] -> {"+millisUntilFinished+"}");
-            }
-            @Override
-            public void onFinish() {
-                stopAudioFile();
-                Log.d(LOG, "TIMER_FINISH");
-            }
-        };
-
-        mCountDownTimer.start();
-        sendFileDuration();
-    }
-
-    /**
-     * Отправление уведомления пользователю.
-     * @param notification - уведомление для отображения.
-     *
-     * NotificationManagerCompat.from(Context context) - получение NotificationManager из библиотеки совместимости
-     * для указанного контекста.
-     *
-     * notificationManager.notify(...) - отправление уведомления для показа пользователю.
-     * Параметры: идентификатор уведомления и само уведомление.
-     */
-    private void updateNotification(@NonNull Notification notification) {
-        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(this);
-        notificationManager.notify(NOTIFICATION_ID, notification);
+     * Обработка смены состояния проигрывателя
+     * @param state - состояние проигрывателя
+     * @param playerState - состояние для передачи клиентам
+     */
+    private void onPlayerStateChanged(@NonNull PlayerEngine.State state, @NonNull PlayerState playerState) {
+        switch (state) {
+            case PLAYING:
+            case PAUSED:
+                audioFileDuration = playerState.getDuration();
+                isPause = state == PlayerEngine.State.PAUSED;
+                long leftSeconds = millsToSeconds(Math.max(0L, audioFileDuration - playerState.getPosition()));
+                if (isStartPlayer) {
+                    updateNotification(leftSeconds);
+                } else {
+                    startForeground(NOTIFICATION_ID, createNotification(leftSeconds));
+                    isStartPlayer = true;
+                }
+                break;
+            case STOPPED:
+            case ERROR:
+                isStartPlayer = false;
+                isPause = false;
+                stopForeground(true);
+                notifiedSeconds = -1L;
+                notifiedPercent = -1;
+                Log.d(LOG, "STOP");
+                break;
+            case PREPARING:
+                /*
+                 * Клиентам передается длительность, определенная до подготовки файла,
+                 * уведомление предыдущего файла остается до начала воспроизведения
+                 * */
+                audioFileDuration = playerState.getDuration();
+                break;
+            default:
+                return;
+        }
+        lastPlayerState = playerState;
+        dispatchState(playerState);
     }
 
     /**
-     * Остановка таймера.
+     * Обработка смены отображаемой секунды воспроизведения
+     * @param playerState - состояние с текущей позицией
      */
-    private void stopCountdownTimer() {
-        if (mCountDownTimer != null && isStartPlayer) {
-            mCountDownTimer.cancel();
-            mCountDownTimer = null;
-        }
+    private void onPlayerProgress(@NonNull PlayerState playerState) {
+        if (!isStartPlayer)
+            return;
+        updateNotification(millsToSeconds(Math.max(0L, audioFileDuration - playerState.getPosition())));
+        lastPlayerState = playerState;
+        if (progressMemory == null && isClientVisible)
+            dispatchState(playerState);
     }
 
     /**
-     * Передача сигнала о начале воспроизведения файла
+     * Постановка состояния в очередь передачи клиентам
+     * Состояния, накопленные за один проход основного потока, передаются одним вызовом
+     * @param state - состояние проигрывателя
      */
-    private void sendPlayAudioFile(){
-        Message message = Message.obtain(null, MSG_PLAYER_STARTED_PLAY);
-
-        if (mainActivityMessenger != null){
-            try {
-                mainActivityMessenger.send(message);
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-        }
+    private void dispatchState(@NonNull PlayerState state) {
+        if (pendingStates.isEmpty())
+            mainHandler.post(dispatchStatesRunnable);
+        pendingStates.add(state);
     }
 
     /**
-     * Передача сигнала об окончании работы проигрывателя
+     * Передача накопленных состояний всем клиентам
      */
-    private void sendStopAudioFile(){
-        Message message = Message.obtain(null, MSG_PLAYER_STOPPED);
+    private void dispatchPendingStates() {
+        if (pendingStates.isEmpty())
+            return;
+        List<PlayerState> states = new ArrayList<>(pendingStates);
+        pendingStates.clear();
 
-        if (mainActivityMessenger != null){
+        int count = playerCallbacks.beginBroadcast();
+        for (int i = 0; i < count; i++) {
             try {
-                mainActivityMessenger.send(message);
+                playerCallbacks.getBroadcastItem(i).onStateChanged(states);
             } catch (RemoteException e) {
                 e.printStackTrace();
             }
         }
+        playerCallbacks.finishBroadcast();
     }
 
     /**
-     * Воспроизведение звукового файла
-     * @param file - аудио файл
-     */
-    private void startAudioFile(File file){
-        if(isStartPlayer){
-            Log.d(LOG, "isStartPlayer: "+String.valueOf(isStartPlayer));
-            stopAudioFile();
-        }
-
-        audioPlayer.setAudioFile(file);
-        audioPlayer.start();
-        audioFileDuration = audioPlayer.getMediaPlayer().getDuration();
-        Log.d(LOG, "Duration: "+String.valueOf(audioFileDuration));
-
-        startCountdownTimer(audioFileDuration, TIMER_PERIOD);
-        startForeground(NOTIFICATION_ID, createNotification(1000));
-        isStartPlayer = true;
-        sendPlayAudioFile();
-    }
-
-    /**
-     * Пауза работы проигрывателя, если он воспроизведен и
-     * возобновление его работы, если приостановлен
-     */
-    private void pauseAudioFile(){
-        Log.d(LOG, "PAUSE");
-        if (!isPause)
-        {
-            isPause = true;
-            stopCountdownTimer();
-            Log.d(LOG, "PAUSE - false");
-
-        }else {
-            isPause = false;
-            startCountdownTimer(leftTime, TIMER_PERIOD);
-            Log.d(LOG, "PAUSE - true");
-        }
-        audioPlayer.pause();
+     * Изменение списка клиентов, от которого зависит частота обновления прогресса
+     * Новым клиентам передается последнее состояние проигрывателя
+     *
+     * Клиент, читающий область памяти, сам экстраполирует позицию на каждом кадре,
+     * поэтому частые обновления нужны только при передаче прогресса через binder
+     */
+    private void onClientsChanged() {
+        isClientVisible = playerCallbacks.getRegisteredCallbackCount() > 0;
+        playerEngine.setFastProgress(isClientVisible && progressMemory == null);
+        if (isClientVisible && isStartPlayer && lastPlayerState != null)
+            dispatchState(lastPlayerState);
     }
 
     /**
-     * Остановка проигрывателя
+     * Отправление уведомления пользователю, если отображаемые в нем значения изменились.
+     * @param currentTime - текущий показатель времени, отображаемый в тексте.
+     *
+     * NotificationManagerCompat.from(Context context) - получение NotificationManager из библиотеки совместимости
+     * для указанного контекста.
+     *
+     * notificationManager.notify(...) - отправление уведомления для показа пользователю.
+     * Параметры: идентификатор уведомления и само уведомление.
      */
-    private void stopAudioFile(){
-
-        audioPlayer.stop();
-        stopCountdownTimer();
-
-        isStartPlayer = false;
-        if (isPause) {
-            isPause = false;
-        }
-
-        sendStopAudioFile();
-        stopForeground( true );
-        Log.d(LOG, "STOP");
+    private void updateNotification(long currentTime) {
+        if (currentTime == notifiedSeconds && secondsToPercent(currentTime) == notifiedPercent)
+            return;
+        notificationManager.notify(NOTIFICATION_ID, createNotification(currentTime));
     }
 
     /**
@@ -468,77 +582,9 @@ public class PlayerService extends Service {
      * @return процент выполнения таймера
      */
     private int secondsToPercent(long sec){
-        Log.d(LOG, String.valueOf((int)((millsToSeconds(audioFileDuration)-sec)*100/millsToSeconds(audioFileDuration))));
-        return (int)((millsToSeconds(audioFileDuration)-sec)*100/millsToSeconds(audioFileDuration));
-    }
-
-    /**
-     * Передача секунд, оставшихся до окончания таймера
-     * @param time - оставшееся время в секундах
-     */
-    private void sendCurrentSecond(long time) {
-        Message message = Message.obtain(null, MSG_PLAYER_TICK);
-
-        Bundle bundle = new Bundle();
-        bundle.putLong(BUNDLE_CURRENT_PROGRESS, time);
-
-        message.setData(bundle);
-
-        if (mainActivityMessenger != null) {
-            try {
-                mainActivityMessenger.send(message);
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-        }
-    }
-
-    /**
-     * Передача длительности установленного звукового файла
-     */
-    private void sendFileDuration(){
-        Message message = Message.obtain(null, MSG_PLAYER_GOT_DURATION);
-
-        Bundle bundle = new Bundle();
-        bundle.putLong(BUNDLE_FILE_DURATION, audioFileDuration);
-
-        message.setData(bundle);
-
-        if (mainActivityMessenger != null){
-            try {
-                mainActivityMessenger.send(message);
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-        }
-    }
-
-    /**
-     * Класс для обработки сообщений от activity
-     */
-    public class MessengerHandler extends Handler {
-        @Override
-        public void handleMessage(@NonNull Message msg) {
-            super.handleMessage(msg);
-
-            switch (msg.what) {
-                case MSG_PLAY_PLAYER:
-                    Log.d(LOG, "START_WORK_MSG_PLAY");
-
-                    File file = (File)msg.getData().getSerializable(BUNDLE_KEY_FILE);
-                    mainActivityMessenger = msg.replyTo;
-                    startAudioFile(file);
-
-                    Log.d(LOG, "STOP_WORK_MSG_PLAY");
-                    break;
-                case MSG_PAUSE_PLAYER:
-                    pauseAudioFile();
-                    break;
-                case MSG_STOP_PLAYER:
-                    stopAudioFile();
-                    break;
-                default:
-            }
-        }
+        long durationSeconds = millsToSeconds(audioFileDuration);
+        if (durationSeconds == 0L)
+            return 100;
+        return (int)((durationSeconds-sec)*100/durationSeconds);
     }
 }
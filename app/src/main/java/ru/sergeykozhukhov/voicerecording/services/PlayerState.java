@@ -0,0 +1,121 @@
+package ru.sergeykozhukhov.voicerecording.services;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Состояние проигрывателя, передаваемое клиентам PlayerService
+ */
+public class PlayerState implements Parcelable {
+
+    /**
+     * Воспроизведение остановлено
+     */
+    public static final int STATE_STOPPED = 0;
+
+    /**
+     * Файл воспроизводится
+     */
+    public static final int STATE_PLAYING = 1;
+
+    /**
+     * Воспроизведение приостановлено
+     */
+    public static final int STATE_PAUSED = 2;
+
+    /**
+     * Файл подготавливается к воспроизведению, длительность определена по заголовкам файла
+     */
+    public static final int STATE_PREPARING = 3;
+
+    /**
+     * Состояние (STATE_*)
+     */
+    private final int state;
+
+    /**
+     * Путь к воспроизводимому файлу
+     */
+    private final String path;
+
+    /**
+     * Позиция воспроизведения в миллисекундах
+     */
+    private final long position;
+
+    /**
+     * Длительность файла в миллисекундах
+     */
+    private final long duration;
+
+    /**
+     * Скорость воспроизведения
+     */
+    private final float rate;
+
+    public PlayerState(int state, @Nullable String path, long position, long duration, float rate) {
+        this.state = state;
+        this.path = path;
+        this.position = position;
+        this.duration = duration;
+        this.rate = rate;
+    }
+
+    private PlayerState(@NonNull Parcel in) {
+        state = in.readInt();
+        path = in.readString();
+        position = in.readLong();
+        duration = in.readLong();
+        rate = in.readFloat();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(state);
+        dest.writeString(path);
+        dest.writeLong(position);
+        dest.writeLong(duration);
+        dest.writeFloat(rate);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<PlayerState> CREATOR = new Creator<PlayerState>() {
+        @Override
+        public PlayerState createFromParcel(Parcel in) {
+            return new PlayerState(in);
+        }
+
+        @Override
+        public PlayerState[] newArray(int size) {
+            return new PlayerState[size];
+        }
+    };
+
+    public int getState() {
+        return state;
+    }
+
+    @Nullable
+    public String getPath() {
+        return path;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public float getRate() {
+        return rate;
+    }
+}
@@ -0,0 +1,111 @@
+package ru.sergeykozhukhov.voicerecording.services;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Кадр уровня записи и состояния записи, передаваемый клиентам RecorderService
+ */
+public class RecorderLevel implements Parcelable {
+
+    /**
+     * Среднеквадратичный уровень сигнала (0..1)
+     */
+    private final float rms;
+
+    /**
+     * Пиковый уровень сигнала (0..1)
+     */
+    private final float peak;
+
+    /**
+     * Время от начала записи до конца кадра в миллисекундах
+     */
+    private final long elapsed;
+
+    /**
+     * Количество байтов, записанных в файл
+     */
+    private final long bytesWritten;
+
+    /**
+     * Заполненность буфера между захватом и записью на диск (0..1)
+     */
+    private final float bufferFill;
+
+    /**
+     * Количество отсчетов, потерянных из-за переполнения буфера с начала записи
+     */
+    private final long droppedSamples;
+
+    public RecorderLevel(float rms, float peak, long elapsed, long bytesWritten, float bufferFill, long droppedSamples) {
+        this.rms = rms;
+        this.peak = peak;
+        this.elapsed = elapsed;
+        this.bytesWritten = bytesWritten;
+        this.bufferFill = bufferFill;
+        this.droppedSamples = droppedSamples;
+    }
+
+    private RecorderLevel(@NonNull Parcel in) {
+        rms = in.readFloat();
+        peak = in.readFloat();
+        elapsed = in.readLong();
+        bytesWritten = in.readLong();
+        bufferFill = in.readFloat();
+        droppedSamples = in.readLong();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeFloat(rms);
+        dest.writeFloat(peak);
+        dest.writeLong(elapsed);
+        dest.writeLong(bytesWritten);
+        dest.writeFloat(bufferFill);
+        dest.writeLong(droppedSamples);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<RecorderLevel> CREATOR = new Creator<RecorderLevel>() {
+        @Override
+        public RecorderLevel createFromParcel(Parcel in) {
+            return new RecorderLevel(in);
+        }
+
+        @Override
+        public RecorderLevel[] newArray(int size) {
+            return new RecorderLevel[size];
+        }
+    };
+
+    public float getRms() {
+        return rms;
+    }
+
+    public float getPeak() {
+        return peak;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public float getBufferFill() {
+        return bufferFill;
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+}
@@ -0,0 +1,385 @@
+package ru.sergeykozhukhov.voicerecording.services;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import ru.sergeykozhukhov.recorderservice.IRecorderListenerAIDL;
+import ru.sergeykozhukhov.recorderservice.IRecorderServiceAIDL;
+import ru.sergeykozhukhov.voicerecording.MainActivity;
+import ru.sergeykozhukhov.voicerecording.R;
+import ru.sergeykozhukhov.voicerecording.audio_tools.LevelMeter;
+import ru.sergeykozhukhov.voicerecording.audio_tools.OnRecorderListener;
+import ru.sergeykozhukhov.voicerecording.audio_tools.SegmentedWavWriter;
+import ru.sergeykozhukhov.voicerecording.audio_tools.StreamingRecorder;
+
+/**
+ * Встроенный сервис записи голоса
+ *
+ * Реализует тот же IRecorderServiceAIDL, что и сервис отдельного приложения,
+ * и используется, если то приложение не установлено. Запись выполняет StreamingRecorder
+ * сегментами с журналом: сессии, прерванные завершением процесса, восстанавливаются
+ * при следующем создании сервиса, а их итоговые файлы собираются после этого в фоне.
+ * На время записи сервис запускается и становится foreground, чтобы запись не прерывалась
+ * после отключения клиентов.
+ *
+ * Клиенты, зарегистрировавшие обработчик, получают кадры уровня записи пакетами:
+ * кадры накапливаются измерителем уровня в потоке захвата и передаются отдельным потоком
+ * не чаще одного вызова за MIN_DISPATCH_INTERVAL_MS.
+ */
+public class RecorderService extends Service {
+
+    private static final String LOG = "RecorderService";
+
+    /**
+     * Идентификатор канала уведомлений
+     */
+    private static final String CHANNEL_ID = "CHANNEL_ID_3";
+
+    /**
+     * Идентификатор уведомления
+     */
+    private static final int NOTIFICATION_ID = 3;
+
+    /**
+     * Шаблон имени файла записи
+     */
+    private static final String FILE_NAME_PATTERN = "'Record_'yyyyMMdd_HHmmss'.wav'";
+
+    /**
+     * Наименьшая и наибольшая длина кадра уровня, которую может запросить клиент (мс)
+     */
+    private static final int MIN_LEVEL_INTERVAL_MS = 10;
+    private static final int MAX_LEVEL_INTERVAL_MS = 1000;
+
+    /**
+     * Наименьший интервал между передачами пакетов кадров уровня (мс)
+     */
+    private static final long MIN_DISPATCH_INTERVAL_MS = 100L;
+
+    /**
+     * Наибольшее количество кадров уровня в одном пакете
+     */
+    private static final int MAX_LEVELS_PER_BATCH = 64;
+
+    /**
+     * Основной поток сервиса
+     */
+    private final Handler mainHandler = new Handler();
+
+    /**
+     * Клиенты, получающие кадры уровня записи
+     * Вместе с обработчиком хранится запрошенная длина кадра
+     */
+    private final RemoteCallbackList<IRecorderListenerAIDL> recorderListeners = new RemoteCallbackList<IRecorderListenerAIDL>() {
+        @Override
+        public void onCallbackDied(IRecorderListenerAIDL listener, Object cookie) {
+            meterHandler.post(updateLevelIntervalRunnable);
+        }
+    };
+
+    /**
+     * Поток передачи кадров уровня клиентам
+     */
+    private HandlerThread meterThread;
+
+    /**
+     * Обработчик потока передачи кадров уровня
+     */
+    private Handler meterHandler;
+
+    /**
+     * Длина кадра уровня, общая для всех клиентов (наименьшая из запрошенных)
+     */
+    private int levelInterval = StreamingRecorder.DEFAULT_LEVEL_INTERVAL_MS;
+
+    /**
+     * Буферы для чтения кадров уровня (используются только потоком передачи)
+     */
+    private final float[] rmsLevels = new float[MAX_LEVELS_PER_BATCH];
+    private final float[] peakLevels = new float[MAX_LEVELS_PER_BATCH];
+    private final long[] levelEnds = new long[MAX_LEVELS_PER_BATCH];
+
+    /**
+     * Потоковая запись звука
+     */
+    private StreamingRecorder streamingRecorder;
+
+    /**
+     * Директория для сохранения записей
+     */
+    private volatile File directory;
+
+    /**
+     * Директория сессий сегментированной записи
+     */
+    private File sessionsDirectory;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        streamingRecorder = new StreamingRecorder(onRecorderListener);
+        meterThread = new HandlerThread("RecorderMeter", Process.THREAD_PRIORITY_BACKGROUND);
+        meterThread.start();
+        meterHandler = new Handler(meterThread.getLooper());
+        sessionsDirectory = new File(getFilesDir(), SegmentedWavWriter.SESSIONS_DIRECTORY_NAME);
+        recoverSessions();
+        createNotificationChannel();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        startForeground(NOTIFICATION_ID, createNotification());
+        return START_NOT_STICKY;
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return recorderBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        streamingRecorder.stop();
+        recorderListeners.kill();
+        meterThread.quitSafely();
+        super.onDestroy();
+    }
+
+    /**
+     * Реализация интерфейса сервиса записи
+     * Вызовы клиентов своего процесса выполняются в их потоке, поэтому методы не работают с диском:
+     * файл записи создается потоком записи, а ошибка его создания сообщается через onRecordError
+     */
+    private final IRecorderServiceAIDL.Stub recorderBinder = new IRecorderServiceAIDL.Stub() {
+        @Override
+        public void setDirectory(String path) {
+            directory = new File(path);
+        }
+
+        @Override
+        public void startRecord() {
+            File target = directory;
+            if (target == null) {
+                Log.e(LOG, "directory is not set");
+                return;
+            }
+            String name = new SimpleDateFormat(FILE_NAME_PATTERN, Locale.US).format(new Date());
+            File file = new File(target, name);
+            File sessionDirectory = new File(sessionsDirectory, name.substring(0, name.lastIndexOf('.')));
+            if (streamingRecorder.start(file, sessionDirectory)) {
+                startService(new Intent(RecorderService.this, RecorderService.class));
+                meterHandler.removeCallbacks(dispatchLevelsRunnable);
+                meterHandler.post(dispatchLevelsRunnable);
+            }
+        }
+
+        @Override
+        public void stopRecord() {
+            streamingRecorder.stop();
+        }
+
+        @Override
+        public void registerListener(IRecorderListenerAIDL listener, int intervalMs) {
+            int interval = Math.max(MIN_LEVEL_INTERVAL_MS, Math.min(intervalMs, MAX_LEVEL_INTERVAL_MS));
+            recorderListeners.register(listener, interval);
+            meterHandler.post(updateLevelIntervalRunnable);
+        }
+
+        @Override
+        public void unregisterListener(IRecorderListenerAIDL listener) {
+            recorderListeners.unregister(listener);
+            meterHandler.post(updateLevelIntervalRunnable);
+        }
+    };
+
+    /**
+     * Пересчет длины кадра уровня после изменения списка клиентов
+     */
+    private final Runnable updateLevelIntervalRunnable = new Runnable() {
+        @Override
+        public void run() {
+            int interval = MAX_LEVEL_INTERVAL_MS;
+            int count = recorderListeners.beginBroadcast();
+            for (int i = 0; i < count; i++) {
+                interval = Math.min(interval, (Integer) recorderListeners.getBroadcastCookie(i));
+            }
+            recorderListeners.finishBroadcast();
+            levelInterval = count > 0 ? interval : StreamingRecorder.DEFAULT_LEVEL_INTERVAL_MS;
+            streamingRecorder.setLevelInterval(levelInterval);
+        }
+    };
+
+    /**
+     * Передача накопленных кадров уровня клиентам
+     * Повторяется, пока идет запись; после остановки передаются оставшиеся кадры
+     */
+    private final Runnable dispatchLevelsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            boolean recording = streamingRecorder.isRecording();
+            dispatchLevels();
+            if (recording)
+                meterHandler.postDelayed(this, Math.max(MIN_DISPATCH_INTERVAL_MS, levelInterval));
+        }
+    };
+
+    /**
+     * Чтение кадров уровня и передача их клиентам одним вызовом
+     * Если клиентов нет, кадры только забираются, чтобы измеритель не переполнялся
+     */
+    private void dispatchLevels() {
+        LevelMeter levelMeter = streamingRecorder.getLevelMeter();
+        List<RecorderLevel> levels = new ArrayList<>();
+        long bytesWritten = streamingRecorder.getBytesWritten();
+        float bufferFill = streamingRecorder.getBufferFill();
+        long droppedSamples = streamingRecorder.getDroppedSamples();
+        int count;
+        do {
+            count = levelMeter.drain(rmsLevels, peakLevels, levelEnds, MAX_LEVELS_PER_BATCH);
+            for (int i = 0; i < count; i++) {
+                levels.add(new RecorderLevel(rmsLevels[i], peakLevels[i], StreamingRecorder.samplesToMillis(levelEnds[i]),
+                        bytesWritten, bufferFill, droppedSamples));
+            }
+        } while (count == MAX_LEVELS_PER_BATCH);
+        if (levels.isEmpty())
+            return;
+
+        int listenerCount = recorderListeners.beginBroadcast();
+        for (int i = 0; i < listenerCount; i++) {
+            try {
+                recorderListeners.getBroadcastItem(i).onLevels(levels);
+            } catch (RemoteException e) {
+                Log.w(LOG, "listener failed", e);
+            }
+        }
+        recorderListeners.finishBroadcast();
+    }
+
+    /**
+     * Обработчик событий записи
+     * События поступают в потоке записи на диск и переносятся в основной поток сервиса
+     */
+    private final OnRecorderListener onRecorderListener = new OnRecorderListener() {
+        @Override
+        public void onRecordFinished(@NonNull File file) {
+            Log.d(LOG, "record finished: " + file.getName());
+            mainHandler.post(stopForegroundRunnable);
+        }
+
+        @Override
+        public void onRecordError(@NonNull File file) {
+            Log.e(LOG, "record failed: " + file.getName());
+            mainHandler.post(stopForegroundRunnable);
+        }
+    };
+
+    /**
+     * Завершение foreground после окончания записи
+     * Сервис продолжает работать, пока к нему подключены клиенты
+     */
+    private final Runnable stopForegroundRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (streamingRecorder.isRecording())
+                return;
+            stopForeground(true);
+            stopSelf();
+        }
+    };
+
+    /**
+     * Восстановление сессий записи, прерванных завершением процесса
+     * Список сессий берется до того, как сервис может начать новую запись.
+     * Восстановление исправляет только последний сегмент каждой сессии и выполняется сразу,
+     * а сборка итоговых файлов копирует все сегменты, поэтому выполняется после него
+     * отдельным потоком с наименьшим приоритетом
+     */
+    private void recoverSessions() {
+        final File[] sessions = sessionsDirectory.listFiles();
+        if (sessions == null || sessions.length == 0)
+            return;
+        Thread recoveryThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                List<File> recovered = new ArrayList<>();
+                for (File session : sessions) {
+                    if (session.isDirectory() && SegmentedWavWriter.recover(session))
+                        recovered.add(session);
+                }
+                if (!recovered.isEmpty())
+                    assembleSessions(recovered);
+            }
+        }, "RecorderRecovery");
+        recoveryThread.start();
+    }
+
+    /**
+     * Сборка итоговых файлов восстановленных сессий
+     * @param sessions - директории восстановленных сессий
+     */
+    private void assembleSessions(@NonNull final List<File> sessions) {
+        Thread assemblyThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                for (File session : sessions) {
+                    SegmentedWavWriter.assemble(session);
+                }
+            }
+        }, "RecorderAssembly");
+        assemblyThread.start();
+    }
+
+    private Notification createNotification() {
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID);
+
+        Intent intent = new Intent(this, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, intent, 0);
+
+        builder.setContentTitle(getString(R.string.recorder_service_notif_title))
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentText(getString(R.string.recorder_service_notif_text))
+                .setOnlyAlertOnce(true)
+                .setContentIntent(pendingIntent);
+
+        return builder.build();
+    }
+
+    private void createNotificationChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            CharSequence name = getString(R.string.recorder_service_channel_name);
+            String description = getString(R.string.recorder_service_channel_description);
+            int importance = NotificationManager.IMPORTANCE_DEFAULT;
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, name, importance);
+            channel.setDescription(description);
+            NotificationManager notificationManager =
+                    getSystemService(NotificationManager.class);
+            notificationManager.createNotificationChannel(channel);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Определение длительности по заголовкам MP4, WAV и ADTS
+ * Файлы собираются в памяти и записываются во временную директорию
+ */
+public class AudioProbeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mp4_largeSizeBoxBeforeMoov() throws IOException {
+        File file = write("large_free.m4a",
+                ftyp(),
+                largeBox("free", new byte[100]),
+                box("moov", mvhd(1000, 2500)));
+
+        AudioInfo info = AudioProbe.probe(file);
+
+        assertNotNull(info);
+        assertEquals(AudioInfo.Format.MP4, info.getFormat());
+        assertEquals(2500000L, info.getDurationUs());
+    }
+
+    @Test
+    public void mp4_largeSizeMoov() throws IOException {
+        File file = write("large_moov.m4a",
+                ftyp(),
+                largeBox("moov", mvhd(600, 1800)));
+
+        AudioInfo info = AudioProbe.probe(file);
+
+        assertNotNull(info);
+        assertEquals(3000000L, info.getDurationUs());
+    }
+
+    @Test
+    public void mp4_sizeZeroMoovAndTrakExtendToParentEnd() throws IOException {
+        byte[] trak = concat(
+                sizeZeroHeader("trak"),
+                box("mdia",
+                        box("hdlr", new byte[4], new byte[4], ascii("soun"), new byte[12]),
+                        mdhdVersion1(8000, 40000),
+                        box("minf", box("stbl", stsd("samr", 1, 8000)))));
+        File file = write("size_zero.3gp",
+                ftyp(),
+                box("mdat", new byte[64]),
+                sizeZeroHeader("moov"),
+                mvhd(1000, 1000),
+                trak);
+
+        AudioInfo info = AudioProbe.probe(file);
+
+        assertNotNull(info);
+        assertEquals(AudioInfo.Format.MP4, info.getFormat());
+        assertEquals(5000000L, info.getDurationUs());
+        assertEquals(8000, info.getSampleRate());
+        assertEquals(1, info.getChannels());
+    }
+
+    @Test
+    public void mp4_moovBeyondFileEnd() throws IOException {
+        byte[] moov = box("moov", mvhd(1000, 2500));
+        ByteBuffer.wrap(moov).putInt(0, moov.length + 100);
+        File file = write("truncated.m4a", ftyp(), moov);
+
+        assertNull(AudioProbe.probe(file));
+    }
+
+    @Test
+    public void wav_dataSizeMatchesChunk() throws IOException {
+        File file = write("exact.wav", wavHeader(8000), new byte[16000], wavChunk("LIST", new byte[10]));
+
+        AudioInfo info = AudioProbe.probe(file);
+
+        assertNotNull(info);
+        assertEquals(AudioInfo.Format.WAV, info.getFormat());
+        assertEquals(500000L, info.getDurationUs());
+        assertEquals(8000, info.getSampleRate());
+        assertEquals(1, info.getChannels());
+    }
+
+    @Test
+    public void wav_zeroDataSizeUsesRestOfFile() throws IOException {
+        File file = write("zero.wav", wavHeader(0), new byte[16000]);
+
+        AudioInfo info = AudioProbe.probe(file);
+
+        assertNotNull(info);
+        assertEquals(1000000L, info.getDurationUs());
+    }
+
+    @Test
+    public void wav_unsetDataSizeUsesRestOfFile() throws IOException {
+        File file = write("unset.wav", wavHeader(0xFFFFFFFF), new byte[24000]);
+
+        AudioInfo info = AudioProbe.probe(file);
+
+        assertNotNull(info);
+        assertEquals(1500000L, info.getDurationUs());
+    }
+
+    @Test
+    public void adts_truncatedLastFrameIsNotCounted() throws IOException {
+        byte[] frames = new byte[10 * 20];
+        for (int i = 0; i < 10; i++) {
+            System.arraycopy(adtsFrame(20), 0, frames, i * 20, 20);
+        }
+        File file = write("truncated.aac", frames, Arrays.copyOf(adtsFrame(20), 12));
+
+        AudioInfo info = AudioProbe.probe(file);
+
+        assertNotNull(info);
+        assertEquals(AudioInfo.Format.ADTS, info.getFormat());
+        assertEquals(640000L, info.getDurationUs());
+        assertEquals(16000, info.getSampleRate());
+        assertEquals(1, info.getChannels());
+    }
+
+    /**
+     * Кадр ADTS: MPEG-4 AAC LC без CRC, 16000 Гц, моно, один блок AAC (64 мс)
+     */
+    private static byte[] adtsFrame(int length) {
+        byte[] frame = new byte[length];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xF1;
+        frame[2] = (byte) ((1 << 6) | (8 << 2));
+        frame[3] = (byte) ((1 << 6) | ((length >> 11) & 0x03));
+        frame[4] = (byte) (length >> 3);
+        frame[5] = (byte) (((length & 0x07) << 5) | 0x1F);
+        frame[6] = (byte) 0xFC;
+        return frame;
+    }
+
+    /**
+     * Заголовок WAV: 8000 Гц, моно, 16 бит, и заголовок чанка data заданного размера
+     */
+    private static byte[] wavHeader(int dataSize) {
+        ByteBuffer fmt = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        fmt.putShort((short) 1).putShort((short) 1).putInt(8000).putInt(16000).putShort((short) 2).putShort((short) 16);
+        ByteBuffer data = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        data.put(ascii("data")).putInt(dataSize);
+        return concat(ascii("RIFF"), new byte[4], ascii("WAVE"), wavChunk("fmt ", fmt.array()), data.array());
+    }
+
+    private static byte[] wavChunk(String id, byte[] body) {
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(ascii(id)).putInt(body.length);
+        return concat(header.array(), body);
+    }
+
+    private static byte[] ftyp() {
+        return box("ftyp", ascii("isom"), new byte[4]);
+    }
+
+    /**
+     * mvhd версии 0: версия и флаги, время создания и изменения, масштаб, длительность
+     */
+    private static byte[] mvhd(int timescale, int duration) {
+        ByteBuffer body = ByteBuffer.allocate(20);
+        body.putInt(0).putInt(0).putInt(0).putInt(timescale).putInt(duration);
+        return box("mvhd", body.array());
+    }
+
+    /**
+     * mdhd версии 1: время создания и изменения и длительность 64-битные
+     */
+    private static byte[] mdhdVersion1(int timescale, long duration) {
+        ByteBuffer body = ByteBuffer.allocate(32);
+        body.putInt(0x01000000).putLong(0L).putLong(0L).putInt(timescale).putLong(duration);
+        return box("mdhd", body.array());
+    }
+
+    /**
+     * stsd с одной звуковой записью
+     */
+    private static byte[] stsd(String entryType, int channels, int sampleRate) {
+        ByteBuffer entry = ByteBuffer.allocate(36);
+        entry.putInt(36).put(ascii(entryType)).put(new byte[6]).putShort((short) 1).put(new byte[8])
+                .putShort((short) channels).putShort((short) 16).putInt(0).putInt(sampleRate << 16);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(0).putInt(1);
+        return box("stsd", header.array(), entry.array());
+    }
+
+    private static byte[] box(String type, byte[]... children) {
+        byte[] body = concat(children);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(body.length + 8).put(ascii(type));
+        return concat(header.array(), body);
+    }
+
+    /**
+     * Коробка с 64-битным размером (поле размера равно 1)
+     */
+    private static byte[] largeBox(String type, byte[]... children) {
+        byte[] body = concat(children);
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putInt(1).put(ascii(type)).putLong(body.length + 16L);
+        return concat(header.array(), body);
+    }
+
+    /**
+     * Заголовок коробки с нулевым размером (коробка продолжается до конца родителя или файла)
+     */
+    private static byte[] sizeZeroHeader(String type) {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(0).put(ascii(type));
+        return header.array();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private File write(String name, byte[]... parts) throws IOException {
+        File file = folder.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(concat(parts));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,185 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Чтение журнала сегментированной записи, в том числе после сбоя во время дописывания
+ */
+public class RecordingJournalTest {
+
+    /**
+     * Размер записи о сегменте вместе с контрольной суммой
+     */
+    private static final int RECORD_LENGTH = 1 + 4 + 8 + 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File sessionDirectory;
+
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        sessionDirectory = folder.newFolder("session");
+        target = new File(folder.getRoot(), "Record.wav");
+    }
+
+    @Test
+    public void read_closedSegments() throws IOException {
+        writeJournal(960L, 960L, 580L);
+
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+
+        assertNotNull(contents);
+        assertEquals(target, contents.target);
+        assertEquals(8000, contents.sampleRate);
+        assertEquals(1, contents.channels);
+        assertEquals(3, contents.segmentCount);
+        assertEquals(960L, contents.segmentLengths[0]);
+        assertEquals(580L, contents.segmentLengths[2]);
+        assertFalse(contents.finished);
+    }
+
+    @Test
+    public void read_halfWrittenLastRecordIsIgnored() throws IOException {
+        writeJournal(960L, 960L, 960L);
+        truncateJournal(RECORD_LENGTH / 2);
+
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+
+        assertNotNull(contents);
+        assertEquals(2, contents.segmentCount);
+        assertEquals(960L, contents.segmentLengths[1]);
+        assertFalse(contents.finished);
+        assertEquals(journalLength() - (RECORD_LENGTH - RECORD_LENGTH / 2), contents.length);
+    }
+
+    @Test
+    public void openForAppend_dropsHalfWrittenRecord() throws IOException {
+        writeJournal(960L, 960L, 960L);
+        truncateJournal(RECORD_LENGTH / 2);
+        RecordingJournal.Contents torn = RecordingJournal.read(sessionDirectory);
+        assertNotNull(torn);
+
+        RecordingJournal journal = RecordingJournal.openForAppend(sessionDirectory, torn);
+        try {
+            journal.appendSegment(2, 400L);
+        } finally {
+            journal.close();
+        }
+
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+        assertNotNull(contents);
+        assertEquals(3, contents.segmentCount);
+        assertEquals(400L, contents.segmentLengths[2]);
+        assertEquals(journalLength(), contents.length);
+    }
+
+    @Test
+    public void read_lastRecordWithBadChecksumIsIgnored() throws IOException {
+        writeJournal(960L, 960L, 960L);
+        File file = new File(sessionDirectory, RecordingJournal.FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+
+        assertNotNull(contents);
+        assertEquals(2, contents.segmentCount);
+    }
+
+    @Test
+    public void read_finished() throws IOException {
+        RecordingJournal journal = RecordingJournal.create(sessionDirectory, target, 8000, 1);
+        try {
+            journal.appendSegment(0, 960L);
+            journal.appendFinished();
+        } finally {
+            journal.close();
+        }
+
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+
+        assertNotNull(contents);
+        assertEquals(1, contents.segmentCount);
+        assertTrue(contents.finished);
+    }
+
+    @Test
+    public void read_appendAfterReopen() throws IOException {
+        writeJournal(960L);
+        RecordingJournal.Contents written = RecordingJournal.read(sessionDirectory);
+        assertNotNull(written);
+        RecordingJournal journal = RecordingJournal.openForAppend(sessionDirectory, written);
+        try {
+            journal.appendSegment(1, 100L);
+        } finally {
+            journal.close();
+        }
+
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+
+        assertNotNull(contents);
+        assertEquals(2, contents.segmentCount);
+        assertEquals(100L, contents.segmentLengths[1]);
+    }
+
+    @Test
+    public void read_halfWrittenHeader() throws IOException {
+        writeJournal();
+        truncateJournal(6);
+
+        assertNull(RecordingJournal.read(sessionDirectory));
+    }
+
+    @Test
+    public void read_missingJournal() {
+        assertNull(RecordingJournal.read(sessionDirectory));
+    }
+
+    /**
+     * Журнал сессии 8000 Гц, моно с закрытыми сегментами заданных размеров
+     */
+    private void writeJournal(long... segmentLengths) throws IOException {
+        RecordingJournal journal = RecordingJournal.create(sessionDirectory, target, 8000, 1);
+        try {
+            for (int i = 0; i < segmentLengths.length; i++) {
+                journal.appendSegment(i, segmentLengths[i]);
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    private long journalLength() {
+        return new File(sessionDirectory, RecordingJournal.FILE_NAME).length();
+    }
+
+    /**
+     * Отрезание конца журнала, как при сбое во время записи
+     */
+    private void truncateJournal(int bytes) throws IOException {
+        File file = new File(sessionDirectory, RecordingJournal.FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - bytes);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Построение таблицы перемотки по потокам кадров ADTS и AMR
+ * Файлы собираются в памяти и записываются во временную директорию
+ */
+public class SeekTableTest {
+
+    /**
+     * Частота ADTS: индекс 8 - 16000 Гц, кадр AAC длится 64 мс
+     */
+    private static final int ADTS_SAMPLE_RATE_INDEX = 8;
+
+    private static final int ADTS_FRAME_LENGTH = 20;
+
+    /**
+     * Байт заголовка кадра AMR-NB 12.2 кбит/с (тип 7, 32 байта)
+     */
+    private static final int AMR_NB_HEADER = 0x3C;
+
+    private static final int AMR_NB_FRAME_LENGTH = 32;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void adts_truncatedLastFrameIsIgnored() throws IOException {
+        byte[] truncated = Arrays.copyOf(adtsFrame(ADTS_FRAME_LENGTH), ADTS_FRAME_LENGTH / 2);
+        File file = write("truncated_frame.aac", adtsFrames(120), truncated);
+
+        SeekTable table = SeekTable.build(file);
+
+        assertNotNull(table);
+        assertAdtsTable(table, 120);
+    }
+
+    @Test
+    public void adts_truncatedLastHeaderIsIgnored() throws IOException {
+        byte[] truncated = Arrays.copyOf(adtsFrame(ADTS_FRAME_LENGTH), 3);
+        File file = write("truncated_header.aac", adtsFrames(120), truncated);
+
+        SeekTable table = SeekTable.build(file);
+
+        assertNotNull(table);
+        assertAdtsTable(table, 120);
+    }
+
+    @Test
+    public void adts_stopsAtCorruptedFrame() throws IOException {
+        File file = write("corrupted.aac", adtsFrames(75), new byte[ADTS_FRAME_LENGTH], adtsFrames(10));
+
+        SeekTable table = SeekTable.build(file);
+
+        assertNotNull(table);
+        assertAdtsTable(table, 75);
+    }
+
+    @Test
+    public void adts_onlyTruncatedFrame() throws IOException {
+        File file = write("single_truncated.aac", Arrays.copyOf(adtsFrame(ADTS_FRAME_LENGTH), 10));
+
+        assertNull(SeekTable.build(file));
+    }
+
+    @Test
+    public void adts_findEntry() throws IOException {
+        SeekTable table = SeekTable.build(write("find.aac", adtsFrames(120)));
+
+        assertNotNull(table);
+        long entryTimeUs = table.toTimeUs(SeekTable.FRAMES_PER_ENTRY * AudioFrames.AAC_SAMPLES_PER_FRAME);
+        assertEquals(3200000L, entryTimeUs);
+        assertEquals(0, table.findEntry(0L));
+        assertEquals(0, table.findEntry(entryTimeUs - 1000L));
+        assertEquals(1, table.findEntry(entryTimeUs));
+        assertEquals(1, table.findEntry(2 * entryTimeUs - 1000L));
+        assertEquals(2, table.findEntry(2 * entryTimeUs));
+        assertEquals(2, table.findEntry(table.getDurationUs() * 10));
+    }
+
+    @Test
+    public void amr_offsetsStartAfterMagic() throws IOException {
+        byte[] frame = new byte[AMR_NB_FRAME_LENGTH];
+        frame[0] = (byte) AMR_NB_HEADER;
+        byte[][] parts = new byte[61][];
+        parts[0] = AudioFrames.AMR_NB_MAGIC;
+        Arrays.fill(parts, 1, parts.length, frame);
+        File file = write("record.amr", parts);
+
+        SeekTable table = SeekTable.build(file);
+
+        assertNotNull(table);
+        assertEquals(AudioInfo.Format.AMR_NB, table.getFormat());
+        assertEquals(8000, table.getSampleRate());
+        assertEquals(2, table.getEntryCount());
+        assertEquals(6L, table.getOffset(0));
+        assertEquals(6L + SeekTable.FRAMES_PER_ENTRY * AMR_NB_FRAME_LENGTH, table.getOffset(1));
+        assertEquals(8000L, table.getPosition(1));
+        assertEquals(6L + 60 * AMR_NB_FRAME_LENGTH, table.getDataEnd());
+        assertEquals(1200000L, table.getDurationUs());
+    }
+
+    @Test
+    public void writeToAndReadFrom() throws IOException {
+        SeekTable table = SeekTable.build(write("stored.aac", adtsFrames(120)));
+        assertNotNull(table);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        table.writeTo(new DataOutputStream(bytes));
+        SeekTable restored = SeekTable.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertAdtsTable(restored, 120);
+    }
+
+    /**
+     * Проверка таблицы потока из целых кадров ADTS_FRAME_LENGTH байт с одним блоком AAC
+     */
+    private static void assertAdtsTable(SeekTable table, int frames) {
+        int entries = (frames + SeekTable.FRAMES_PER_ENTRY - 1) / SeekTable.FRAMES_PER_ENTRY;
+        assertEquals(AudioInfo.Format.ADTS, table.getFormat());
+        assertEquals(16000, table.getSampleRate());
+        assertEquals(entries, table.getEntryCount());
+        for (int i = 0; i < entries; i++) {
+            assertEquals((long) i * SeekTable.FRAMES_PER_ENTRY * ADTS_FRAME_LENGTH, table.getOffset(i));
+            assertEquals((long) i * SeekTable.FRAMES_PER_ENTRY * AudioFrames.AAC_SAMPLES_PER_FRAME, table.getPosition(i));
+        }
+        assertEquals(0L, table.getDataOffset());
+        assertEquals((long) frames * ADTS_FRAME_LENGTH, table.getDataEnd());
+        assertEquals(frames * 64000L, table.getDurationUs());
+    }
+
+    private static byte[] adtsFrames(int count) {
+        byte[] frame = adtsFrame(ADTS_FRAME_LENGTH);
+        byte[] frames = new byte[frame.length * count];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(frame, 0, frames, i * frame.length, frame.length);
+        }
+        return frames;
+    }
+
+    /**
+     * Кадр ADTS: MPEG-4 AAC LC без CRC, моно, один блок AAC
+     */
+    private static byte[] adtsFrame(int length) {
+        byte[] frame = new byte[length];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xF1;
+        frame[2] = (byte) ((1 << 6) | (ADTS_SAMPLE_RATE_INDEX << 2));
+        frame[3] = (byte) ((1 << 6) | ((length >> 11) & 0x03));
+        frame[4] = (byte) (length >> 3);
+        frame[5] = (byte) (((length & 0x07) << 5) | 0x1F);
+        frame[6] = (byte) 0xFC;
+        return frame;
+    }
+
+    private File write(String name, byte[]... parts) throws IOException {
+        File file = folder.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (byte[] part : parts) {
+                out.write(part);
+            }
+        }
+        return file;
+    }
+}
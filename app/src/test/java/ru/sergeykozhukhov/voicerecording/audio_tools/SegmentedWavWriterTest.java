@@ -0,0 +1,178 @@
+package ru.sergeykozhukhov.voicerecording.audio_tools;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Восстановление и сборка сессии, прерванной сбоем процесса
+ * Сегменты сессии собираются в памяти: закрытые с исправленным заголовком,
+ * последний - с нулевым размером данных в заголовке, как после сбоя
+ */
+public class SegmentedWavWriterTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    /**
+     * Размер данных закрытого сегмента
+     */
+    private static final int SEGMENT_LENGTH = 960;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File sessionDirectory;
+
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        sessionDirectory = folder.newFolder("session");
+        target = new File(folder.getRoot(), "Record.wav");
+    }
+
+    @Test
+    public void recover_patchesAndJournalsOnlyLastSegment() throws IOException {
+        createSession(2, 581);
+
+        assertTrue(SegmentedWavWriter.recover(sessionDirectory));
+
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+        assertNotNull(contents);
+        assertEquals(3, contents.segmentCount);
+        assertEquals(SEGMENT_LENGTH, contents.segmentLengths[1]);
+        assertEquals(580L, contents.segmentLengths[2]);
+        assertFalse(contents.finished);
+        assertEquals(580L, readDataSize(segmentFile(2)));
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void recover_isRepeatable() throws IOException {
+        createSession(2, 400);
+
+        assertTrue(SegmentedWavWriter.recover(sessionDirectory));
+        assertTrue(SegmentedWavWriter.recover(sessionDirectory));
+
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+        assertNotNull(contents);
+        assertEquals(3, contents.segmentCount);
+    }
+
+    @Test
+    public void recover_afterHalfWrittenJournalRecord() throws IOException {
+        createSession(2, 300);
+        File journal = new File(sessionDirectory, RecordingJournal.FILE_NAME);
+        try (FileOutputStream out = new FileOutputStream(journal, true)) {
+            out.write(new byte[]{1, 0, 0});
+        }
+
+        assertTrue(SegmentedWavWriter.recover(sessionDirectory));
+
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+        assertNotNull(contents);
+        assertEquals(3, contents.segmentCount);
+        assertEquals(300L, contents.segmentLengths[2]);
+        assertEquals(journal.length(), contents.length);
+    }
+
+    @Test
+    public void assemble_joinsSegmentsAndDeletesSession() throws IOException {
+        createSession(2, 581);
+
+        assertTrue(SegmentedWavWriter.recover(sessionDirectory));
+        File assembled = SegmentedWavWriter.assemble(sessionDirectory);
+
+        assertEquals(target, assembled);
+        long dataLength = 2 * SEGMENT_LENGTH + 580;
+        assertEquals(WavWriter.HEADER_SIZE + dataLength, target.length());
+        assertEquals(dataLength, readDataSize(target));
+        assertFalse(sessionDirectory.exists());
+    }
+
+    @Test
+    public void assemble_finishedSessionOnlyDeletesIt() throws IOException {
+        createSession(1, 0);
+        RecordingJournal.Contents contents = RecordingJournal.read(sessionDirectory);
+        assertNotNull(contents);
+        RecordingJournal journal = RecordingJournal.openForAppend(sessionDirectory, contents);
+        try {
+            journal.appendFinished();
+        } finally {
+            journal.close();
+        }
+
+        assertTrue(SegmentedWavWriter.recover(sessionDirectory));
+        assertEquals(target, SegmentedWavWriter.assemble(sessionDirectory));
+
+        assertFalse(target.exists());
+        assertFalse(sessionDirectory.exists());
+    }
+
+    /**
+     * Сессия с закрытыми сегментами и незакрытым последним сегментом
+     * @param closedSegments - количество закрытых сегментов, отмеченных в журнале
+     * @param lastLength - количество байтов данных в последнем сегменте (0 - последнего сегмента нет)
+     */
+    private void createSession(int closedSegments, int lastLength) throws IOException {
+        RecordingJournal journal = RecordingJournal.create(sessionDirectory, target, SAMPLE_RATE, 1);
+        try {
+            for (int i = 0; i < closedSegments; i++) {
+                writeSegment(i, SEGMENT_LENGTH, SEGMENT_LENGTH);
+                journal.appendSegment(i, SEGMENT_LENGTH);
+            }
+        } finally {
+            journal.close();
+        }
+        if (lastLength > 0)
+            writeSegment(closedSegments, 0, lastLength);
+    }
+
+    /**
+     * Файл сегмента: заголовок WAV с заданным размером данных и отсчеты
+     */
+    private void writeSegment(int index, int headerDataSize, int dataLength) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(WavWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes("US-ASCII")).putInt(36 + headerDataSize).put("WAVE".getBytes("US-ASCII"))
+                .put("fmt ".getBytes("US-ASCII")).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2).putShort((short) 2).putShort((short) 16)
+                .put("data".getBytes("US-ASCII")).putInt(headerDataSize);
+        byte[] data = new byte[dataLength];
+        Arrays.fill(data, (byte) index);
+        try (FileOutputStream out = new FileOutputStream(segmentFile(index))) {
+            out.write(header.array());
+            out.write(data);
+        }
+    }
+
+    private File segmentFile(int index) {
+        return new File(sessionDirectory, String.format(Locale.US, "segment_%05d.wav", index));
+    }
+
+    /**
+     * Размер данных из заголовка WAV
+     */
+    private static long readDataSize(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] size = new byte[4];
+            raf.seek(WavWriter.HEADER_SIZE - 4);
+            raf.readFully(size);
+            return ByteBuffer.wrap(size).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xFFFFFFFFL;
+        }
+    }
+}